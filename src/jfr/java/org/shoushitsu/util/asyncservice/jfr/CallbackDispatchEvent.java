@@ -0,0 +1,15 @@
+package org.shoushitsu.util.asyncservice.jfr;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("org.shoushitsu.asyncservice.CallbackDispatch")
+@Label("Callback Dispatch")
+@Description("A callback was invoked with the outcome of a task.")
+final class CallbackDispatchEvent extends QueueEvent {
+
+	@Label("Outcome")
+	String outcome;
+
+}
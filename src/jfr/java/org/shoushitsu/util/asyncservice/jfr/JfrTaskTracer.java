@@ -0,0 +1,95 @@
+package org.shoushitsu.util.asyncservice.jfr;
+
+import jdk.jfr.Event;
+import org.shoushitsu.util.asyncservice.TaskTracer;
+
+/**
+ * <p>A {@link TaskTracer} that emits Java Flight Recorder events.</p>
+ *
+ * <p>This tracer is registered as a service provider, so putting this artifact on the class path is enough
+ * to make asynchronous services emit the events. The events are in the "Shoushitsu / Asynchronous Service"
+ * category and are disabled by default; enable them in the JFR settings. While an event is disabled,
+ * the corresponding method of this tracer returns without recording anything.</p>
+ */
+public final class JfrTaskTracer implements TaskTracer {
+
+	@Override
+	public void taskEnqueued(String queue, String sink) {
+		TaskEnqueuedEvent event = new TaskEnqueuedEvent();
+		if (event.isEnabled()) {
+			event.queue = queue;
+			event.sink = sink;
+			event.commit();
+		}
+	}
+
+	@Override
+	public void taskDequeued(String queue, String sink) {
+		TaskDequeuedEvent event = new TaskDequeuedEvent();
+		if (event.isEnabled()) {
+			event.queue = queue;
+			event.sink = sink;
+			event.commit();
+		}
+	}
+
+	@Override
+	public Object taskRun(String queue, String sink) {
+		return begin(new TaskRunEvent(), queue, sink);
+	}
+
+	@Override
+	public Object callbackDispatch(String queue, String sink, String outcome) {
+		CallbackDispatchEvent event = new CallbackDispatchEvent();
+		if (!event.isEnabled()) {
+			return null;
+		}
+		event.outcome = outcome;
+		return begin(event, queue, sink);
+	}
+
+	@Override
+	public Object putBlocked(String queue, String sink) {
+		return begin(new PutBlockedEvent(), queue, sink);
+	}
+
+	@Override
+	public Object workerBlocked(String queue, int queuedTasks) {
+		WorkerBlockedEvent event = new WorkerBlockedEvent();
+		if (!event.isEnabled()) {
+			return null;
+		}
+		event.queuedTasks = queuedTasks;
+		return begin(event, queue, null);
+	}
+
+	@Override
+	public Object shutdownDrain(String queue, int drainedTasks) {
+		ShutdownDrainEvent event = new ShutdownDrainEvent();
+		if (!event.isEnabled()) {
+			return null;
+		}
+		event.drainedTasks = drainedTasks;
+		return begin(event, queue, null);
+	}
+
+	private static Object begin(QueueEvent event, String queue, String sink) {
+		if (!event.isEnabled()) {
+			return null;
+		}
+		event.queue = queue;
+		event.sink = sink;
+		event.begin();
+		return event;
+	}
+
+	@Override
+	public void end(Object span) {
+		Event event = (Event) span;
+		event.end();
+		if (event.shouldCommit()) {
+			event.commit();
+		}
+	}
+
+}
@@ -0,0 +1,11 @@
+package org.shoushitsu.util.asyncservice.jfr;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("org.shoushitsu.asyncservice.PutBlocked")
+@Label("Put Blocked")
+@Description("A submission waited for space in a full queue.")
+final class PutBlockedEvent extends QueueEvent {
+}
@@ -0,0 +1,21 @@
+package org.shoushitsu.util.asyncservice.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+
+/**
+ * Base class of the events emitted for asynchronous services. All of them are disabled by default.
+ */
+@Enabled(false)
+@Category({"Shoushitsu", "Asynchronous Service"})
+abstract class QueueEvent extends Event {
+
+	@Label("Queue")
+	String queue;
+
+	@Label("Sink")
+	String sink;
+
+}
@@ -0,0 +1,15 @@
+package org.shoushitsu.util.asyncservice.jfr;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("org.shoushitsu.asyncservice.ShutdownDrain")
+@Label("Shutdown Drain")
+@Description("Tasks left in a queue were terminated because the service was closed.")
+final class ShutdownDrainEvent extends QueueEvent {
+
+	@Label("Drained Tasks")
+	int drainedTasks;
+
+}
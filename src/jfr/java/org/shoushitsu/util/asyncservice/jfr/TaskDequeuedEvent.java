@@ -0,0 +1,11 @@
+package org.shoushitsu.util.asyncservice.jfr;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("org.shoushitsu.asyncservice.TaskDequeued")
+@Label("Task Dequeued")
+@Description("A worker took a task from a queue.")
+final class TaskDequeuedEvent extends QueueEvent {
+}
@@ -0,0 +1,11 @@
+package org.shoushitsu.util.asyncservice.jfr;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("org.shoushitsu.asyncservice.TaskEnqueued")
+@Label("Task Enqueued")
+@Description("A task was put into a queue.")
+final class TaskEnqueuedEvent extends QueueEvent {
+}
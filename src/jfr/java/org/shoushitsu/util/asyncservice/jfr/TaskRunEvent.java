@@ -0,0 +1,11 @@
+package org.shoushitsu.util.asyncservice.jfr;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("org.shoushitsu.asyncservice.TaskRun")
+@Label("Task Run")
+@Description("A worker ran a task, including its callback.")
+final class TaskRunEvent extends QueueEvent {
+}
@@ -0,0 +1,15 @@
+package org.shoushitsu.util.asyncservice.jfr;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("org.shoushitsu.asyncservice.WorkerBlocked")
+@Label("Worker Blocked")
+@Description("A worker waited while none of the queued tasks could be taken, e.g. because their buckets were locked.")
+final class WorkerBlockedEvent extends QueueEvent {
+
+	@Label("Queued Tasks")
+	int queuedTasks;
+
+}
@@ -0,0 +1,73 @@
+package org.shoushitsu.util.asyncservice;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * <p>Two threads, each updating its own counter, with the counters either adjacent in memory
+ * or {@linkplain PaddedAtomicLong padded} apart. This is the access pattern of the in-flight counters of
+ * {@link ShardedTaskSink} and {@link LimitingTaskSink}.</p>
+ *
+ * <p>The difference is most pronounced when the two threads run on different sockets, where every
+ * cache line transfer crosses the interconnect; pin the JMH process accordingly, e.g. with
+ * {@code numactl} or {@code taskset}.</p>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FalseSharingBenchmark {
+
+	@State(Scope.Group)
+	public static class Adjacent {
+		final AtomicLongArray counters = new AtomicLongArray(2);
+	}
+
+	@State(Scope.Group)
+	public static class Padded {
+		final PaddedAtomicLong first = new PaddedAtomicLong();
+		final PaddedAtomicLong second = new PaddedAtomicLong();
+	}
+
+	@Benchmark
+	@Group("adjacent")
+	@GroupThreads(1)
+	public long adjacentFirst(Adjacent state) {
+		return state.counters.incrementAndGet(0);
+	}
+
+	@Benchmark
+	@Group("adjacent")
+	@GroupThreads(1)
+	public long adjacentSecond(Adjacent state) {
+		return state.counters.incrementAndGet(1);
+	}
+
+	@Benchmark
+	@Group("padded")
+	@GroupThreads(1)
+	public long paddedFirst(Padded state) {
+		return state.first.incrementAndGet();
+	}
+
+	@Benchmark
+	@Group("padded")
+	@GroupThreads(1)
+	public long paddedSecond(Padded state) {
+		return state.second.incrementAndGet();
+	}
+
+}
@@ -0,0 +1,99 @@
+package org.shoushitsu.util.asyncservice;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>Producers submitting keyless computations through a {@link ShardedTaskSink} while a consumer
+ * drains the shards and runs the tasks. Every submission reads the in-flight counters of two shards
+ * and increments one, and every completion decrements it, so this is the end-to-end cost of those counters
+ * under contention; {@link FalseSharingBenchmark} isolates the counters themselves.</p>
+ *
+ * <p>The {@code padding} parameter compares the {@linkplain PaddedAtomicLong padded} counters
+ * with unpadded ones, allocated next to each other, in the same run.</p>
+ *
+ * <p>The consumer drains instead of taking, so that it never blocks and the benchmark can always stop.
+ * Run with different {@code -tg} settings (e.g. {@code -tg 4,1}) to vary the number of producers.</p>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class QueueHandoffBenchmark {
+
+	private static final Callable<Object> COMPUTATION = () -> null;
+
+	@State(Scope.Group)
+	public static class Shards {
+
+		@Param({"1", "4"})
+		int shards;
+
+		@Param({"0", "16"})
+		int padding;
+
+		BoundedTaskQueue[] queues;
+
+		ShardedTaskSink sink;
+
+		@Setup
+		public void setUp() {
+			queues = new BoundedTaskQueue[shards];
+			TaskSink[] sinks = new TaskSink[shards];
+			for (int i = 0; i < shards; ++i) {
+				queues[i] = new BoundedTaskQueue(10);
+				sinks[i] = queues[i].sink;
+			}
+			sink = new ShardedTaskSink(sinks, padding);
+		}
+
+	}
+
+	@State(Scope.Thread)
+	public static class Consumer {
+
+		final List<Task<?>> drained = new ArrayList<>();
+
+		int next;
+
+	}
+
+	@Benchmark
+	@Group("handoff")
+	@GroupThreads(2)
+	public boolean offer(Shards shards) {
+		return shards.sink.offer(COMPUTATION, null);
+	}
+
+	@Benchmark
+	@Group("handoff")
+	@GroupThreads(1)
+	public int drain(Shards shards, Consumer consumer) {
+		BoundedTaskQueue queue = shards.queues[consumer.next++ % shards.shards];
+		consumer.drained.clear();
+		queue.drainTo(consumer.drained);
+		for (Task<?> task : consumer.drained) {
+			// completes the task, which decrements the in-flight counter of its shard
+			task.run();
+		}
+		return consumer.drained.size();
+	}
+
+}
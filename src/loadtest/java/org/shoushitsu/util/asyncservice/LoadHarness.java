@@ -0,0 +1,312 @@
+package org.shoushitsu.util.asyncservice;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+
+import java.io.FileNotFoundException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * <p>Drives an {@link AsynchronousService} at a fixed request rate and reports the percentiles
+ * of submit-to-callback latency, for each of the queue types.</p>
+ *
+ * <p>Every request has an <em>intended</em> start time on a fixed schedule. When the generator falls behind
+ * (because {@link TaskSink#put(Callable, Callback) put()} blocked on a full queue, or the generator thread
+ * was descheduled), the late requests are submitted back to back, and their latency is still measured
+ * from the intended start time. This corrects the coordinated omission that a closed-loop benchmark suffers from:
+ * the stalls show up in the tail instead of silently lowering the request rate. The latency measured from
+ * the actual submission is reported next to it for comparison.</p>
+ *
+ * <p>Options are given as {@code name=value} arguments:</p>
+ * <ul>
+ *     <li>{@code queues} - comma-separated list of {@code bounded}, {@code twolevel}, {@code splitting}
+ *     (default: all of them);</li>
+ *     <li>{@code rate} - requests per second (default: 20000);</li>
+ *     <li>{@code warmup}, {@code duration} - in seconds (default: 5 and 30);</li>
+ *     <li>{@code threads} - worker threads (default: the number of processors);</li>
+ *     <li>{@code work} - busy-spinning time of each computation in microseconds (default: 20);</li>
+ *     <li>{@code capacityLog2} - capacity of the bounded queues (default: 10);</li>
+ *     <li>{@code keys}, {@code skew} - the number of keys for the splitting queue, and the exponent
+ *     of their Zipf distribution (default: 1000 and 1.0);</li>
+ *     <li>{@code out} - a directory to write the full {@code .hgrm} percentile distributions into,
+ *     for plotting or comparing between versions (default: none).</li>
+ * </ul>
+ *
+ * <p>Run with {@code gradle loadtest -PloadtestArgs='rate=50000 queues=bounded'}.</p>
+ */
+public final class LoadHarness {
+
+	private static final long HIGHEST_TRACKABLE_NANOS = TimeUnit.MINUTES.toNanos(10);
+
+	private static final long SPIN_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+
+	private final int rate;
+
+	private final long warmupNanos;
+
+	private final long durationNanos;
+
+	private final int threads;
+
+	private final long workNanos;
+
+	private final int capacityLog2;
+
+	private final int keys;
+
+	private final double skew;
+
+	private final Path out;
+
+	private LoadHarness(Map<String, String> options) {
+		rate = Integer.parseInt(options.getOrDefault("rate", "20000"));
+		warmupNanos = TimeUnit.SECONDS.toNanos(Long.parseLong(options.getOrDefault("warmup", "5")));
+		durationNanos = TimeUnit.SECONDS.toNanos(Long.parseLong(options.getOrDefault("duration", "30")));
+		threads = Integer.parseInt(options.getOrDefault("threads", Integer.toString(Runtime.getRuntime().availableProcessors())));
+		workNanos = TimeUnit.MICROSECONDS.toNanos(Long.parseLong(options.getOrDefault("work", "20")));
+		capacityLog2 = Integer.parseInt(options.getOrDefault("capacityLog2", "10"));
+		keys = Integer.parseInt(options.getOrDefault("keys", "1000"));
+		skew = Double.parseDouble(options.getOrDefault("skew", "1.0"));
+		out = options.containsKey("out") ? Paths.get(options.get("out")) : null;
+		if (rate <= 0 || threads <= 0 || keys <= 0) {
+			throw new IllegalArgumentException("rate, threads and keys must be positive");
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		Map<String, String> options = new HashMap<>();
+		for (String arg : args) {
+			int eq = arg.indexOf('=');
+			if (eq < 0) {
+				throw new IllegalArgumentException("expected name=value, got " + arg);
+			}
+			options.put(arg.substring(0, eq), arg.substring(eq + 1));
+		}
+		LoadHarness harness = new LoadHarness(options);
+		List<String> queues = Arrays.asList(options.getOrDefault("queues", "bounded,twolevel,splitting").split(","));
+		if (harness.out != null) {
+			Files.createDirectories(harness.out);
+		}
+		System.out.printf(
+				"rate=%d/s warmup=%ds duration=%ds threads=%d work=%dus%n",
+				harness.rate,
+				TimeUnit.NANOSECONDS.toSeconds(harness.warmupNanos),
+				TimeUnit.NANOSECONDS.toSeconds(harness.durationNanos),
+				harness.threads,
+				TimeUnit.NANOSECONDS.toMicros(harness.workNanos)
+		);
+		for (String queue : queues) {
+			harness.run(queue.trim());
+		}
+	}
+
+	private void run(String queueType) throws Exception {
+		Scenario scenario = createScenario(queueType);
+		Histogram corrected = new ConcurrentHistogram(HIGHEST_TRACKABLE_NANOS, 3);
+		Histogram uncorrected = new ConcurrentHistogram(HIGHEST_TRACKABLE_NANOS, 3);
+		AtomicLong completed = new AtomicLong();
+		AtomicLong failed = new AtomicLong();
+		long submitted = 0;
+
+		DummyAsynchronousService<ATaskQueue> service =
+				new DummyAsynchronousService<>(scenario.queue, Threading.formatThreadNames(threads, "loadtest-%d"), 10_000);
+		try {
+			long intervalNanos = TimeUnit.SECONDS.toNanos(1) / rate;
+			long start = System.nanoTime();
+			long measureFrom = start + warmupNanos;
+			long end = measureFrom + durationNanos;
+			SplittableRandom random = new SplittableRandom(42);
+			for (long intended = start; intended < end; intended = start + ++submitted * intervalNanos) {
+				long now;
+				while ((now = System.nanoTime()) < intended) {
+					if (intended - now > SPIN_NANOS) {
+						LockSupport.parkNanos(intended - now - SPIN_NANOS);
+					} else {
+						// parking overshoots by tens of microseconds, which would show up as latency
+						Thread.yield();
+					}
+				}
+				boolean measured = intended >= measureFrom;
+				scenario.sink.put(
+						new Work(scenario.nextKey(random), workNanos),
+						new Measurement(measured ? corrected : null, measured ? uncorrected : null, intended, now, completed, failed)
+				);
+			}
+			long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+			while (completed.get() + failed.get() < submitted && System.nanoTime() < deadline) {
+				Thread.sleep(10);
+			}
+		} finally {
+			service.close();
+		}
+
+		long lost = submitted - completed.get() - failed.get();
+		System.out.printf("%n== %s: %d requests, %d failed, %d lost%n", queueType, submitted, failed.get(), lost);
+		report("corrected", corrected);
+		report("uncorrected", uncorrected);
+		if (out != null) {
+			write(queueType + "-corrected.hgrm", corrected);
+			write(queueType + "-uncorrected.hgrm", uncorrected);
+		}
+	}
+
+	private Scenario createScenario(String queueType) {
+		switch (queueType) {
+			case "bounded": {
+				BoundedTaskQueue queue = new BoundedTaskQueue(capacityLog2);
+				return new Scenario(queue, queue.sink, null);
+			}
+			case "twolevel": {
+				TwoLevelTaskQueue queue = new TwoLevelTaskQueue(capacityLog2);
+				return new Scenario(queue, queue.externalSink, null);
+			}
+			case "splitting": {
+				SplittingTaskQueue queue = new SplittingTaskQueue(
+						computation -> computation instanceof Work ? ((Work) computation).key : null
+				);
+				return new Scenario(queue, queue.sink, zipf(keys, skew));
+			}
+			default:
+				throw new IllegalArgumentException("unknown queue type: " + queueType);
+		}
+	}
+
+	/**
+	 * @return the cumulative distribution of key {@code k} having probability proportional to
+	 * {@code 1 / (k + 1)^exponent}.
+	 */
+	private static double[] zipf(int keys, double exponent) {
+		double[] cdf = new double[keys];
+		double total = 0;
+		for (int k = 0; k < keys; ++k) {
+			cdf[k] = total += 1 / Math.pow(k + 1, exponent);
+		}
+		for (int k = 0; k < keys; ++k) {
+			cdf[k] /= total;
+		}
+		return cdf;
+	}
+
+	private static void report(String name, Histogram histogram) {
+		System.out.printf(
+				"%-12s p50=%8.1f p90=%8.1f p99=%8.1f p99.9=%8.1f p99.99=%8.1f max=%8.1f (us)%n",
+				name,
+				histogram.getValueAtPercentile(50) / 1000.0,
+				histogram.getValueAtPercentile(90) / 1000.0,
+				histogram.getValueAtPercentile(99) / 1000.0,
+				histogram.getValueAtPercentile(99.9) / 1000.0,
+				histogram.getValueAtPercentile(99.99) / 1000.0,
+				histogram.getMaxValue() / 1000.0
+		);
+	}
+
+	private void write(String fileName, Histogram histogram) throws FileNotFoundException {
+		try (PrintStream stream = new PrintStream(out.resolve(fileName).toFile())) {
+			histogram.outputPercentileDistribution(stream, 1000.0);
+		}
+	}
+
+	private static final class Scenario {
+
+		final ATaskQueue queue;
+
+		final TaskSink sink;
+
+		private final double[] keyDistribution;
+
+		Scenario(ATaskQueue queue, TaskSink sink, double[] keyDistribution) {
+			this.queue = queue;
+			this.sink = sink;
+			this.keyDistribution = keyDistribution;
+		}
+
+		final Integer nextKey(SplittableRandom random) {
+			if (keyDistribution == null) {
+				return null;
+			}
+			int index = Arrays.binarySearch(keyDistribution, random.nextDouble());
+			return Math.min(index < 0 ? -index - 1 : index, keyDistribution.length - 1);
+		}
+
+	}
+
+	private static final class Work implements Callable<Object> {
+
+		final Integer key;
+
+		private final long nanos;
+
+		Work(Integer key, long nanos) {
+			this.key = key;
+			this.nanos = nanos;
+		}
+
+		@Override
+		public final Object call() {
+			long until = System.nanoTime() + nanos;
+			while (System.nanoTime() < until) {
+				// busy-spin, as a CPU-bound computation would
+			}
+			return key;
+		}
+
+	}
+
+	private static final class Measurement implements Callback<Object> {
+
+		private final Histogram corrected;
+
+		private final Histogram uncorrected;
+
+		private final long intendedNanos;
+
+		private final long submittedNanos;
+
+		private final AtomicLong completed;
+
+		private final AtomicLong failed;
+
+		Measurement(Histogram corrected, Histogram uncorrected, long intendedNanos, long submittedNanos, AtomicLong completed, AtomicLong failed) {
+			this.corrected = corrected;
+			this.uncorrected = uncorrected;
+			this.intendedNanos = intendedNanos;
+			this.submittedNanos = submittedNanos;
+			this.completed = completed;
+			this.failed = failed;
+		}
+
+		@Override
+		public final void success(Object data) {
+			long now = System.nanoTime();
+			if (corrected != null) {
+				corrected.recordValue(Math.min(now - intendedNanos, HIGHEST_TRACKABLE_NANOS));
+				uncorrected.recordValue(Math.min(now - submittedNanos, HIGHEST_TRACKABLE_NANOS));
+			}
+			completed.incrementAndGet();
+		}
+
+		@Override
+		public final void failure(Throwable exception) {
+			failed.incrementAndGet();
+		}
+
+		@Override
+		public final void terminated() {
+			failed.incrementAndGet();
+		}
+
+	}
+
+}
@@ -1,7 +1,8 @@
 package org.shoushitsu.util.asyncservice;
 
+import java.util.ArrayList;
 import java.util.Collection;
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.List;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -22,23 +23,157 @@ import java.util.concurrent.locks.ReentrantLock;
  */
 public abstract class ATaskQueue {
 
+	/**
+	 * The identity of this queue for {@linkplain TaskTracer tracing}.
+	 */
+	final String id = getClass().getSimpleName() + '@' + Integer.toHexString(System.identityHashCode(this));
+
+	/**
+	 * The queue the current thread is a worker of, if any.
+	 */
+	static final ThreadLocal<ATaskQueue> WORKER_QUEUE = new ThreadLocal<>();
+
+	/**
+	 * How many tasks are being run inline on the current thread's stack.
+	 */
+	static final ThreadLocal<int[]> INLINE_DEPTH = ThreadLocal.withInitial(() -> new int[1]);
+
 	final ReentrantLock lock = new ReentrantLock();
 
-	private final Condition notFullOrTerminated = lock.newCondition();
+	final Condition notFullOrTerminated = lock.newCondition();
+
+	final Condition notEmptyOrTerminated = lock.newCondition();
+
+	/* Guarded by the lock. A plain field in this object rather than a separate atomic object next to the lock's. */
+	private boolean running = true;
+
+	/* Guarded by the lock. Cleared when the service starts draining the queue before closing. */
+	private boolean accepting = true;
 
-	private final Condition notEmptyOrTerminated = lock.newCondition();
+	/* Guarded by the lock. The number of tasks taken from the queue or run inline, and not completed yet. */
+	private int inProgress;
 
-	private final AtomicBoolean running = new AtomicBoolean(true);
+	/* Signalled when the queue becomes drained while it is not accepting tasks. */
+	private final Condition drained = lock.newCondition();
 
+	/* Guarded by the lock. */
+	private final List<TaskSink> sinks = new ArrayList<>();
+
+	/* Guarded by the lock; disposed of by the thread that added them, once it releases the lock. */
+	private List<Task<?>> overflow = new ArrayList<>();
+
+	volatile QueueMetrics metrics;
+
+	volatile LockProfile lockProfile;
+
+	/**
+	 * Wait until there is a task in this queue or the queue is terminated, then take the task.
+	 *
+	 * @return the task, or {@code null} if the queue is terminated or all the available tasks were
+	 * {@linkplain #shed(Task) shed}.
+	 */
 	final Task<?> takeIfNotTerminated() throws InterruptedException {
-		while (isEmpty() && running.get()) {
-			notEmptyOrTerminated.await();
+		LockProfile profile = lockProfile;
+		long requestedAt = profile == null ? 0 : System.nanoTime();
+		lock.lockInterruptibly();
+		long acquiredAt = 0;
+		long awaitedNanos = 0;
+		if (profile != null) {
+			acquiredAt = System.nanoTime();
+			profile.acquired(LockProfile.Site.TAKE, requestedAt, acquiredAt);
+		}
+		try {
+			boolean woken = false;
+			while (isEmpty() && running) {
+				if (woken && profile != null) {
+					profile.awaited(LockProfile.Site.TAKE, true);
+				}
+				TaskTracer tracer = Tracing.TRACER;
+				Object span = null;
+				if (tracer != null) {
+					int size = size();
+					if (size > 0) {
+						span = tracer.workerBlocked(id, size);
+					}
+				}
+				long awaitStart = profile == null ? 0 : System.nanoTime();
+				try {
+					long nanos = nanosUntilReady();
+					if (nanos == Long.MAX_VALUE) {
+						notEmptyOrTerminated.await();
+						woken = true;
+					} else if (nanos > 0) {
+						// a timeout is not a spurious wakeup: the queue is expected to be ready by then
+						woken = notEmptyOrTerminated.awaitNanos(nanos) > 0;
+						if (!woken && profile != null) {
+							profile.awaited(LockProfile.Site.TAKE, false);
+						}
+					}
+				} finally {
+					if (span != null) {
+						tracer.end(span);
+					}
+					if (profile != null) {
+						awaitedNanos += System.nanoTime() - awaitStart;
+					}
+				}
+			}
+			if (woken && profile != null) {
+				profile.awaited(LockProfile.Site.TAKE, false);
+			}
+			Task<?> task = poll();
+			if (task != null) {
+				++inProgress;
+				notFullOrTerminated.signal();
+				if (profile != null) {
+					profile.signalled(LockProfile.Site.TAKE);
+				}
+			} else if (!accepting && isDrained()) {
+				// only cancelled or shed tasks were left, so no completed() call will signal this
+				drained.signalAll();
+			}
+			return task;
+		} finally {
+			List<Task<?>> overflow = takeOverflow();
+			if (profile != null) {
+				profile.released(LockProfile.Site.TAKE, System.nanoTime() - acquiredAt - awaitedNanos);
+			}
+			lock.unlock();
+			if (overflow != null) {
+				disposeOverflow(overflow);
+			}
 		}
-		Task<?> task = poll();
-		if (task != null) {
-			notFullOrTerminated.signal();
+	}
+
+	/**
+	 * Notify this queue that a task taken from it is complete. Not interruptible.
+	 */
+	final void completed(Task<?> task) {
+		LockProfile profile = lockProfile;
+		long requestedAt = profile == null ? 0 : System.nanoTime();
+		lock.lock();
+		long acquiredAt = 0;
+		if (profile != null) {
+			acquiredAt = System.nanoTime();
+			profile.acquired(LockProfile.Site.AFTER_CALLBACK, requestedAt, acquiredAt);
+		}
+		try {
+			--inProgress;
+			if (!accepting && isDrained()) {
+				drained.signalAll();
+			}
+			if (afterCallback(task)) {
+				signalAll();
+				if (profile != null) {
+					profile.signalled(LockProfile.Site.AFTER_CALLBACK);
+				}
+			}
+		} finally {
+			if (profile != null) {
+				profile.released(LockProfile.Site.AFTER_CALLBACK, System.nanoTime() - acquiredAt);
+			}
+			lock.unlock();
 		}
-		return task;
 	}
 
 	/**
@@ -48,6 +183,43 @@ public abstract class ATaskQueue {
 	 */
 	protected abstract boolean isEmpty();
 
+	/**
+	 * <p>Tell how long the workers may have to wait until this queue stops being {@linkplain #isEmpty() empty}
+	 * on its own, that is, without new tasks being submitted or taken tasks being completed.</p>
+	 *
+	 * <p>This method is only called when the queue is empty. Queues that hold tasks back for some time
+	 * should override it; a worker waiting for a task will then wake up no later than the returned delay elapses.</p>
+	 *
+	 * @implNote This implementation returns {@link Long#MAX_VALUE}, which means "until signalled".
+	 *
+	 * @return the delay in nanoseconds, or {@link Long#MAX_VALUE} if the queue can't become ready on its own.
+	 */
+	protected long nanosUntilReady() {
+		return Long.MAX_VALUE;
+	}
+
+	/**
+	 * <p>Get the number of tasks in this queue.</p>
+	 *
+	 * <p>This method is only used for monitoring, and is not required to be fast.</p>
+	 *
+	 * @implNote This implementation returns {@code -1}, which means that the size is unknown.
+	 *
+	 * @return the number of tasks in this queue, or {@code -1} if unknown.
+	 */
+	protected int size() {
+		return -1;
+	}
+
+	final int lockedSize() {
+		lock.lock();
+		try {
+			return size();
+		} finally {
+			lock.unlock();
+		}
+	}
+
 	/**
 	 * Get a task from the head of this queue.
 	 *
@@ -76,11 +248,164 @@ public abstract class ATaskQueue {
 		return false;
 	}
 
+	/**
+	 * <p>Shed a task: it will be {@linkplain Callback#terminated() terminated} as soon as the queue lock
+	 * is released, by the thread that called this method.</p>
+	 *
+	 * <p>This method is intended for queues that drop tasks under overload, see {@link OverflowPolicy}.
+	 * It may only be called from the methods of the queue that are invoked under the lock,
+	 * that is, from {@link #poll()} or from a {@linkplain TaskSinkImplementation sink implementation}.</p>
+	 *
+	 * @param task the task to shed. It must not be in the queue anymore.
+	 */
+	protected final void shed(Task<?> task) {
+		overflow.add(task);
+	}
+
+	/**
+	 * <p>Run a task that didn't fit into the queue in the submitting thread, as soon as the queue lock is released.
+	 * When the task completes, {@link #afterCallback(Task)} is invoked for it, as for the tasks taken from the queue.</p>
+	 *
+	 * <p>This method may only be called from a {@linkplain TaskSinkImplementation sink implementation},
+	 * which should then report the task as accepted.</p>
+	 *
+	 * @param task the task to run. It must not be in the queue.
+	 *
+	 * @see OverflowPolicy#callerRuns()
+	 */
+	protected final void runInCaller(Task<?> task) {
+		task.runByCaller = true;
+		++inProgress;
+		overflow.add(task);
+	}
+
+	/*
+	 * Called under the lock, right after the sink implementation accepted the task.
+	 * A task that was shed by the implementation is the last one added to the overflow.
+	 */
+	final boolean isDiverted(Task<?> task) {
+		return task.runByCaller || !overflow.isEmpty() && overflow.get(overflow.size() - 1) == task;
+	}
+
+	/* Called under the lock. */
+	final List<Task<?>> takeOverflow() {
+		if (overflow.isEmpty()) {
+			return null;
+		}
+		List<Task<?>> tasks = overflow;
+		overflow = new ArrayList<>();
+		return tasks;
+	}
+
+	/* Called outside the lock. */
+	final void disposeOverflow(List<Task<?>> tasks) {
+		QueueMetrics metrics = this.metrics;
+		for (Task<?> task : tasks) {
+			if (task.runByCaller) {
+				runInline(task);
+			} else {
+				if (metrics != null) {
+					metrics.shed.increment();
+				}
+				task.terminate();
+			}
+		}
+	}
+
+	private void runInline(Task<?> task) {
+		// recorded as if a worker took the task; it was never in the queue, so it is not traced as dequeued
+		QueueMetrics metrics = this.metrics;
+		long takenAt = 0;
+		if (metrics != null) {
+			takenAt = System.nanoTime();
+			metrics.recordTaken(task, takenAt);
+		}
+		TaskTracer tracer = Tracing.TRACER;
+		Object runSpan = null;
+		if (tracer != null) {
+			runSpan = tracer.taskRun(id, task.sink == null ? null : task.sink.name);
+		}
+		int[] depth = INLINE_DEPTH.get();
+		++depth[0];
+		try {
+			task.run();
+		} finally {
+			--depth[0];
+			if (runSpan != null) {
+				tracer.end(runSpan);
+			}
+			if (metrics != null) {
+				metrics.runTime.record(System.nanoTime() - takenAt);
+			}
+			completed(task);
+		}
+	}
+
+	/**
+	 * <p>Remove a {@linkplain TaskHandle#cancel(boolean) cancelled} task from this queue.</p>
+	 *
+	 * <p>A cancelled task that is not removed stays in the queue, and is skipped when it is taken:
+	 * its computation is not run. Queues that can find and remove a task cheaply should override this method,
+	 * to free the space and to keep their {@linkplain #size() size} accurate. The task may have already been
+	 * {@linkplain #poll() taken}, in which case this method should do nothing.</p>
+	 *
+	 * @implNote This implementation returns {@code false}.
+	 *
+	 * @param task the cancelled task.
+	 *
+	 * @return {@code true} if the task was removed from the queue.
+	 */
+	protected boolean remove(Task<?> task) {
+		return false;
+	}
+
+	final void cancelled(Task<?> task) {
+		lock.lock();
+		try {
+			if (remove(task)) {
+				notFullOrTerminated.signal();
+				if (!accepting && isDrained()) {
+					drained.signalAll();
+				}
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * <p>Decide whether a task submitted through an {@linkplain TaskSink#inlining(int, InliningTaskSink.Condition...)
+	 * inlining sink} may bypass the queue and be run by the submitting thread.
+	 * If this method returns {@code true}, the queue must treat the task as if it was {@linkplain #poll() taken}
+	 * from it; {@link #afterCallback(Task)} will be invoked for the task when it completes.</p>
+	 *
+	 * <p>Queues that restrict which tasks may run concurrently, or in which order, should override this method.</p>
+	 *
+	 * @implNote This implementation returns {@code true}.
+	 *
+	 * @param task the task, which is not in the queue.
+	 *
+	 * @return {@code true} if the task may be run inline, {@code false} if it must be queued.
+	 */
+	protected boolean admitInline(Task<?> task) {
+		return true;
+	}
+
 	final void drainTo(Collection<Task<?>> sink) {
+		LockProfile profile = lockProfile;
+		long requestedAt = profile == null ? 0 : System.nanoTime();
 		lock.lock();
+		long acquiredAt = 0;
+		if (profile != null) {
+			acquiredAt = System.nanoTime();
+			profile.acquired(LockProfile.Site.DRAIN, requestedAt, acquiredAt);
+		}
 		try {
 			doDrainTo(sink);
 		} finally {
+			if (profile != null) {
+				profile.released(LockProfile.Site.DRAIN, System.nanoTime() - acquiredAt);
+			}
 			lock.unlock();
 		}
 	}
@@ -98,9 +423,142 @@ public abstract class ATaskQueue {
 	 * @param implementation the underlying implementation of the sink.
 	 *
 	 * @return a new task sink.
+	 *
+	 * @see #createSink(String, TaskSinkImplementation)
 	 */
 	protected final TaskSink createSink(TaskSinkImplementation implementation) {
-		return new TaskSink(lock, running::get, implementation, notFullOrTerminated, notEmptyOrTerminated);
+		return createSink("sink", implementation);
+	}
+
+	/**
+	 * <p>Creates a properly synchronized task sink that feeds into this queue.</p>
+	 *
+	 * @param name the name of the sink, used to tell the sinks of a queue apart in {@linkplain QueueMetrics metrics}.
+	 * @param implementation the underlying implementation of the sink.
+	 *
+	 * @return a new task sink.
+	 */
+	protected final TaskSink createSink(String name, TaskSinkImplementation implementation) {
+		TaskSink sink = new TaskSink(this, name, implementation);
+		lock.lock();
+		try {
+			sinks.add(sink);
+			if (metrics != null) {
+				sink.enableMetrics(metrics);
+			}
+		} finally {
+			lock.unlock();
+		}
+		return sink;
+	}
+
+	/**
+	 * Enable the collection of {@linkplain QueueMetrics metrics} for this queue and its sinks.
+	 * Metrics can't be disabled once enabled.
+	 *
+	 * @return the metrics of this queue. Repeated invocations return the same object.
+	 */
+	public final QueueMetrics enableMetrics() {
+		lock.lock();
+		try {
+			if (metrics == null) {
+				QueueMetrics queueMetrics = new QueueMetrics(this);
+				sinks.forEach(sink -> sink.enableMetrics(queueMetrics));
+				metrics = queueMetrics;
+			}
+			return metrics;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Enable {@linkplain LockProfile lock contention profiling} for this queue.
+	 * This also {@linkplain #enableMetrics() enables metrics}, which include the profile in their snapshots.
+	 * Profiling can't be disabled once enabled.
+	 *
+	 * @return the lock profile of this queue. Repeated invocations return the same object.
+	 */
+	public final LockProfile enableLockProfiling() {
+		enableMetrics();
+		lock.lock();
+		try {
+			if (lockProfile == null) {
+				lockProfile = new LockProfile();
+			}
+			return lockProfile;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return {@code false} once the queue is {@linkplain #terminate() terminated}.
+	 */
+	final boolean isRunning() {
+		lock.lock();
+		try {
+			return running;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/* Called under the lock. */
+	final boolean isAccepting() {
+		return running && accepting;
+	}
+
+	/* Called under the lock. */
+	private boolean isDrained() {
+		if (inProgress != 0) {
+			return false;
+		}
+		int size = size();
+		return size < 0 ? isEmpty() : size == 0;
+	}
+
+	/**
+	 * Stop accepting new tasks, but let the workers keep taking the queued ones.
+	 */
+	final void stopAccepting() {
+		lock.lock();
+		try {
+			accepting = false;
+			// wake up the blocked put()s, so that they see that their tasks are not accepted
+			notFullOrTerminated.signalAll();
+			if (isDrained()) {
+				drained.signalAll();
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Wait until the queue is drained, or the timeout elapses. Only makes sense after {@link #stopAccepting()}.
+	 *
+	 * @return {@code true} if the queue is drained.
+	 */
+	final boolean awaitDrained(long nanos) throws InterruptedException {
+		lock.lockInterruptibly();
+		try {
+			while (!isDrained() && nanos > 0) {
+				nanos = drained.awaitNanos(nanos);
+			}
+			return isDrained();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	final int lockedInProgress() {
+		lock.lock();
+		try {
+			return inProgress;
+		} finally {
+			lock.unlock();
+		}
 	}
 
 	final void signalAll() {
@@ -111,7 +569,7 @@ public abstract class ATaskQueue {
 	final void terminate() {
 		lock.lock();
 		try {
-			running.set(false);
+			running = false;
 			signalAll();
 		} finally {
 			lock.unlock();
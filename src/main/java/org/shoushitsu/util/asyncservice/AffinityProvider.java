@@ -0,0 +1,28 @@
+package org.shoushitsu.util.asyncservice;
+
+import java.util.BitSet;
+
+/**
+ * <p>Pins threads to sets of CPUs. Used by {@link Threading#withAffinity(AffinityProvider, java.util.function.IntFunction)}
+ * to keep worker threads, and the memory they touch, local to a CPU or a NUMA node.</p>
+ *
+ * <p>Java has no portable way to set thread affinity, so implementations are platform specific;
+ * see {@link LinuxAffinityProvider} for one that needs no native code.
+ * A provider backed by {@code sched_setaffinity} through JNI or a foreign function interface
+ * can be plugged in the same way.</p>
+ */
+@FunctionalInterface
+public interface AffinityProvider {
+
+	/**
+	 * Restrict the current thread to run on the specified CPUs.
+	 * This is called by a worker thread once, before it starts taking tasks.
+	 *
+	 * @param cpus the indices of the CPUs, as numbered by the operating system. Never empty.
+	 *
+	 * @return {@code true} if the thread was pinned, {@code false} if the provider failed to pin it.
+	 * In the latter case the thread still runs, unpinned.
+	 */
+	boolean pinCurrentThread(BitSet cpus);
+
+}
@@ -0,0 +1,48 @@
+package org.shoushitsu.util.asyncservice;
+
+final class AimdLimit implements ConcurrencyLimit {
+
+	private final int minLimit;
+
+	private final int maxLimit;
+
+	private final long latencyThresholdNanos;
+
+	private final double backoffRatio;
+
+	private volatile int limit;
+
+	AimdLimit(int initialLimit, int minLimit, int maxLimit, long latencyThresholdNanos, double backoffRatio) {
+		if (minLimit < 1 || initialLimit < minLimit || maxLimit < initialLimit) {
+			throw new IllegalArgumentException("bad limits: " + minLimit + " <= " + initialLimit + " <= " + maxLimit);
+		}
+		if (latencyThresholdNanos <= 0) {
+			throw new IllegalArgumentException("bad latency threshold: " + latencyThresholdNanos);
+		}
+		if (!(backoffRatio >= 0.5 && backoffRatio < 1.0)) {
+			throw new IllegalArgumentException("bad backoff ratio: " + backoffRatio);
+		}
+		this.minLimit = minLimit;
+		this.maxLimit = maxLimit;
+		this.latencyThresholdNanos = latencyThresholdNanos;
+		this.backoffRatio = backoffRatio;
+		this.limit = initialLimit;
+	}
+
+	@Override
+	public final int getLimit() {
+		return limit;
+	}
+
+	@Override
+	public final synchronized void onSample(long latencyNanos, int inFlight, boolean dropped) {
+		int current = limit;
+		if (dropped || latencyNanos > latencyThresholdNanos) {
+			limit = Math.max(minLimit, (int) (current * backoffRatio));
+		} else if (inFlight * 2 >= current) {
+			// only grow if the limit is actually being used
+			limit = Math.min(maxLimit, current + 1);
+		}
+	}
+
+}
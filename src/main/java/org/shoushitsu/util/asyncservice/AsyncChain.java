@@ -124,6 +124,39 @@ public interface AsyncChain<I> {
 	 */
 	<O> AsyncChain<I> callAndDiscard(Function<? super I, O> computation, Consumer<Throwable> onFailure, Runnable onTermination);
 
+	/**
+	 * Chain an invocation that produces a primitive {@code long}, with default non-success callbacks.
+	 *
+	 * @param computation the invocation to add to the chain.
+	 *
+	 * @return the new chain object, which represents this chain with the specified computation appended to the end.
+	 *
+	 * @see #callToLong(ToLongFunction, Consumer, Runnable)
+	 * @see #fromLong(LongFunction)
+	 */
+	default AsyncChain<Long> callToLong(ToLongFunction<? super I> computation) {
+		return callToLong(computation, DEFAULT_ON_FAILURE, DEFAULT_ON_TERMINATION);
+	}
+
+	/**
+	 * <p>Chain an invocation that produces a primitive {@code long}, with custom non-success callbacks.</p>
+	 *
+	 * <p>If the next invocation in the chain is made with {@link #fromLong(LongFunction)}, the result
+	 * is passed to it without boxing. Otherwise, the result is boxed when it's passed on.</p>
+	 *
+	 * @param computation the invocation to add to the chain.
+	 * @param onFailure the custom failure callback.
+	 * @param onTermination the custom termination callback.
+	 *
+	 * @return the new chain object, which represents this chain with the specified computation appended to the end.
+	 *
+	 * @see #callToLong(ToLongFunction)
+	 * @see #call(Function, Consumer, Runnable)
+	 */
+	default AsyncChain<Long> callToLong(ToLongFunction<? super I> computation, Consumer<Throwable> onFailure, Runnable onTermination) {
+		return call((input, callback) -> computation.compute(input, LongCallback.from(callback)), onFailure, onTermination);
+	}
+
 	/**
 	 * Execute this chain, reporting the final result to the specified consumer.
 	 *
@@ -151,6 +184,51 @@ public interface AsyncChain<I> {
 		void compute(Callback<? super O> callback) throws Exception;
 	}
 
+	/**
+	 * Functional interface that encapsulates an invocation of an asynchronous service with one parameter
+	 * and a primitive {@code long} result.
+	 *
+	 * @param <I> the type of the invocation's parameter.
+	 */
+	interface ToLongFunction<I> {
+		void compute(I input, LongCallback callback) throws Exception;
+	}
+
+	/**
+	 * Functional interface that encapsulates an invocation of an asynchronous service with
+	 * a primitive {@code long} parameter.
+	 *
+	 * @param <O> the type of the invocation's result.
+	 *
+	 * @see #fromLong(LongFunction)
+	 */
+	interface LongFunction<O> {
+		void compute(long input, Callback<? super O> callback) throws Exception;
+	}
+
+	/**
+	 * <p>Make a chainable invocation out of one that takes a primitive {@code long} parameter.
+	 * When chained after an invocation added with {@link #callToLong(ToLongFunction) callToLong()},
+	 * the returned invocation receives the previous result without boxing.</p>
+	 *
+	 * <p>If the previous invocation produces a {@code null} result, the returned invocation is not called;
+	 * instead, a {@link NullPointerException} is reported to the failure callback of the previous invocation.</p>
+	 *
+	 * @param computation the invocation with a primitive parameter.
+	 *
+	 * @param <O> the type of the invocation's result.
+	 *
+	 * @return an invocation that can be {@linkplain #call(Function) chained} after any {@code AsyncChain<Long>}.
+	 *
+	 * @throws IllegalArgumentException if {@code computation == null}.
+	 */
+	static <O> Function<Long, O> fromLong(LongFunction<O> computation) {
+		if (computation == null) {
+			throw new IllegalArgumentException("computation must be non-null");
+		}
+		return new LongInputFunction<>(computation);
+	}
+
 	/**
 	 * Start a new chain with specified default non-success callbacks.
 	 *
@@ -219,11 +297,30 @@ public interface AsyncChain<I> {
 						callback.success(null);
 					}
 				} else {
-					prevChain.execute(new Callback<P>() {
+					prevChain.execute(link(callback));
+				}
+			}
+
+			@SuppressWarnings("unchecked")
+			private Callback<P> link(Callback<? super I> callback) {
+				if (computation instanceof LongInputFunction) {
+					// P is Long: let the previous stage report a primitive result without boxing
+					LongFunction<I> function = ((LongInputFunction<I>) computation).function;
+					return (Callback<P>) (Callback<?>) new LongCallback() {
 						@Override
-						public void success(P data) {
+						public void success(Long data) {
+							// a generic previous stage may produce null, which has no primitive value
+							if (data == null) {
+								failure(new NullPointerException("the result passed to a fromLong() invocation is null"));
+							} else {
+								success(data.longValue());
+							}
+						}
+
+						@Override
+						public void success(long data) {
 							try {
-								computation.compute(data, callback);
+								function.compute(data, callback);
 							} catch (Exception e) {
 								failure(e);
 							}
@@ -231,20 +328,48 @@ public interface AsyncChain<I> {
 
 						@Override
 						public void failure(Throwable exception) {
-							Consumer<Throwable> prevFailure = prevChain.onFailure;
-							if (prevFailure != null) {
-								prevFailure.accept(exception);
-							}
+							prevFailure(exception);
 						}
 
 						@Override
 						public void terminated() {
-							Runnable prevTermination = prevChain.onTermination;
-							if (prevTermination != null) {
-								prevTermination.run();
-							}
+							prevTermination();
 						}
-					});
+					};
+				}
+				return new Callback<P>() {
+					@Override
+					public void success(P data) {
+						try {
+							computation.compute(data, callback);
+						} catch (Exception e) {
+							failure(e);
+						}
+					}
+
+					@Override
+					public void failure(Throwable exception) {
+						prevFailure(exception);
+					}
+
+					@Override
+					public void terminated() {
+						prevTermination();
+					}
+				};
+			}
+
+			private void prevFailure(Throwable exception) {
+				Consumer<Throwable> prevFailure = prevChain.onFailure;
+				if (prevFailure != null) {
+					prevFailure.accept(exception);
+				}
+			}
+
+			private void prevTermination() {
+				Runnable prevTermination = prevChain.onTermination;
+				if (prevTermination != null) {
+					prevTermination.run();
 				}
 			}
 		}
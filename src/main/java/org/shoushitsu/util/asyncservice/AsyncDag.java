@@ -0,0 +1,502 @@
+package org.shoushitsu.util.asyncservice;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * <p>A directed acyclic graph of asynchronous invocations: the generalization of {@link AsyncChain}
+ * for pipelines where several independent steps feed one, or one feeds several.</p>
+ *
+ * <p>Every node of the graph is an {@link AsyncChain.Function} bound to a {@link TaskSink}. When all the inputs
+ * of a node are ready, the function is submitted to the sink (with {@link TaskSink#offer(Callable, Callback)
+ * offer()}, so that a completing node never blocks the worker it completes on); it receives the results of its
+ * inputs and reports its own result to the callback, as in a chain. A node bound to no sink is invoked directly
+ * by the thread that completes its last input. Each execution counts the missing inputs of every node with
+ * an atomic counter, so a node is dispatched by exactly one thread, without locking.</p>
+ *
+ * <p>The execution succeeds when all the nodes succeed; its {@link Result} holds the results of all the nodes,
+ * together with their {@linkplain Timing timing} and the critical path: the chain of nodes, each of which
+ * was the last input of the next one to complete, that ends at the node completed last. The first failure or
+ * termination of a node (including the rejection of its submission by a full queue) is reported at once,
+ * and no more nodes are dispatched.</p>
+ *
+ * <p>Graphs are built with a {@linkplain #builder() builder}; a node can only depend on the nodes
+ * that were added before it, so the graph is acyclic by construction. A built graph is immutable and
+ * may be executed any number of times, concurrently.</p>
+ */
+public final class AsyncDag {
+
+	/**
+	 * Start building a graph.
+	 *
+	 * @return a new empty builder.
+	 */
+	public static Builder builder() {
+		return new Builder();
+	}
+
+	private final List<Node<?>> nodes;
+
+	/* For every node, the indices of the nodes that take it as an input. */
+	private final int[][] dependents;
+
+	private AsyncDag(List<Node<?>> nodes) {
+		this.nodes = nodes;
+		List<List<Integer>> dependentLists = new ArrayList<>();
+		for (int i = 0; i < nodes.size(); ++i) {
+			dependentLists.add(new ArrayList<>());
+		}
+		for (Node<?> node : nodes) {
+			for (int input : node.inputs) {
+				dependentLists.get(input).add(node.index);
+			}
+		}
+		dependents = new int[nodes.size()][];
+		for (int i = 0; i < dependents.length; ++i) {
+			dependents[i] = dependentLists.get(i).stream().mapToInt(Integer::intValue).toArray();
+		}
+	}
+
+	/**
+	 * Execute the graph.
+	 *
+	 * @param callback the callback for the outcome of the whole graph.
+	 */
+	public final void execute(Callback<? super Result> callback) {
+		new Execution(callback).start();
+	}
+
+	/**
+	 * Builds {@link AsyncDag}s. Not thread safe.
+	 */
+	public static final class Builder {
+
+		private final List<Node<?>> nodes = new ArrayList<>();
+
+		private Builder() {
+		}
+
+		/**
+		 * Add a node with no inputs.
+		 *
+		 * @param name the name of the node, for the timing reports.
+		 * @param computation the invocation.
+		 * @param sink the sink to submit the invocation to, or {@code null} to invoke it directly.
+		 *
+		 * @param <O> the type of the node's result.
+		 *
+		 * @return the new node.
+		 */
+		public final <O> Node<O> source(String name, AsyncChain.Supplier<O> computation, TaskSink sink) {
+			return add(name, (inputs, callback) -> computation.compute(callback), sink);
+		}
+
+		/**
+		 * Add a node with one input.
+		 *
+		 * @param name the name of the node, for the timing reports.
+		 * @param input the node whose result is the input of this one.
+		 * @param computation the invocation.
+		 * @param sink the sink to submit the invocation to, or {@code null} to invoke it directly.
+		 *
+		 * @param <I> the type of the input.
+		 * @param <O> the type of the node's result.
+		 *
+		 * @return the new node.
+		 *
+		 * @throws IllegalArgumentException if the input is not a node of this builder.
+		 */
+		public final <I, O> Node<O> then(String name, Node<I> input, AsyncChain.Function<? super I, O> computation, TaskSink sink) {
+			return add(name, (inputs, callback) -> computation.compute(inputs.get(input), callback), sink, input);
+		}
+
+		/**
+		 * Add a node with any number of inputs. The computation obtains the results of the inputs
+		 * with {@link Inputs#get(Node)}.
+		 *
+		 * @param name the name of the node, for the timing reports.
+		 * @param computation the invocation.
+		 * @param sink the sink to submit the invocation to, or {@code null} to invoke it directly.
+		 * @param inputs the nodes whose results are the inputs of this one.
+		 *
+		 * @param <O> the type of the node's result.
+		 *
+		 * @return the new node.
+		 *
+		 * @throws IllegalArgumentException if any of the inputs is not a node of this builder.
+		 */
+		public final <O> Node<O> add(String name, AsyncChain.Function<? super Inputs, O> computation, TaskSink sink, Node<?>... inputs) {
+			int[] indices = new int[inputs.length];
+			for (int i = 0; i < inputs.length; ++i) {
+				if (inputs[i].builder != this) {
+					throw new IllegalArgumentException("not a node of this builder: " + inputs[i].name);
+				}
+				indices[i] = inputs[i].index;
+			}
+			Node<O> node = new Node<>(this, nodes.size(), name, computation, sink, indices);
+			nodes.add(node);
+			return node;
+		}
+
+		/**
+		 * @return a graph of the nodes added so far.
+		 */
+		public final AsyncDag build() {
+			return new AsyncDag(new ArrayList<>(nodes));
+		}
+
+	}
+
+	/**
+	 * A node of a graph; use it as an input of other nodes and to get its result from the {@link Result}.
+	 *
+	 * @param <O> the type of the node's result.
+	 */
+	public static final class Node<O> {
+
+		private final Builder builder;
+
+		private final int index;
+
+		/**
+		 * The name of the node.
+		 */
+		public final String name;
+
+		private final AsyncChain.Function<? super Inputs, O> computation;
+
+		private final TaskSink sink;
+
+		private final int[] inputs;
+
+		private Node(Builder builder, int index, String name, AsyncChain.Function<? super Inputs, O> computation, TaskSink sink, int[] inputs) {
+			this.builder = builder;
+			this.index = index;
+			this.name = name;
+			this.computation = computation;
+			this.sink = sink;
+			this.inputs = inputs;
+		}
+
+	}
+
+	/**
+	 * The results of the inputs of a node.
+	 */
+	public static final class Inputs {
+
+		private final Node<?> node;
+
+		private final AtomicReferenceArray<Object> results;
+
+		private Inputs(Node<?> node, AtomicReferenceArray<Object> results) {
+			this.node = node;
+			this.results = results;
+		}
+
+		/**
+		 * Get the result of an input.
+		 *
+		 * @param input the input node.
+		 *
+		 * @param <T> the type of the input.
+		 *
+		 * @return the result of the input.
+		 *
+		 * @throws IllegalArgumentException if the specified node is not an input of this node.
+		 */
+		@SuppressWarnings("unchecked")
+		public final <T> T get(Node<T> input) {
+			if (input.builder == node.builder) {
+				for (int index : node.inputs) {
+					if (index == input.index) {
+						return (T) results.get(index);
+					}
+				}
+			}
+			throw new IllegalArgumentException(input.name + " is not an input of " + node.name);
+		}
+
+	}
+
+	/**
+	 * The outcome of a successful execution.
+	 */
+	public static final class Result {
+
+		private final List<Node<?>> nodes;
+
+		private final AtomicReferenceArray<Object> results;
+
+		/**
+		 * The timing of every node, in the order the nodes were added.
+		 */
+		public final List<Timing> timings;
+
+		/**
+		 * The timing of the nodes on the critical path, from a source to the node that completed last.
+		 */
+		public final List<Timing> criticalPath;
+
+		private Result(List<Node<?>> nodes, AtomicReferenceArray<Object> results, List<Timing> timings, List<Timing> criticalPath) {
+			this.nodes = nodes;
+			this.results = results;
+			this.timings = timings;
+			this.criticalPath = criticalPath;
+		}
+
+		/**
+		 * Get the result of a node.
+		 *
+		 * @param node the node.
+		 *
+		 * @param <T> the type of the node's result.
+		 *
+		 * @return the result of the node.
+		 *
+		 * @throws IllegalArgumentException if the node is not a node of the executed graph.
+		 */
+		@SuppressWarnings("unchecked")
+		public final <T> T get(Node<T> node) {
+			if (node.index >= nodes.size() || nodes.get(node.index) != node) {
+				throw new IllegalArgumentException("not a node of this graph: " + node.name);
+			}
+			return (T) results.get(node.index);
+		}
+
+		@Override
+		public final String toString() {
+			StringBuilder sb = new StringBuilder("critical path:");
+			for (Timing timing : criticalPath) {
+				sb.append("\n  ").append(timing);
+			}
+			return sb.toString();
+		}
+
+	}
+
+	/**
+	 * When a node went through the stages of its execution, in nanoseconds since the start of the execution.
+	 */
+	public static final class Timing {
+
+		/**
+		 * The name of the node.
+		 */
+		public final String name;
+
+		/**
+		 * When all the inputs of the node were ready, and it was submitted.
+		 */
+		public final long readyNanos;
+
+		/**
+		 * When a worker started the invocation.
+		 */
+		public final long startedNanos;
+
+		/**
+		 * When the node reported its result.
+		 */
+		public final long completedNanos;
+
+		/**
+		 * Whether the node is on the critical path.
+		 */
+		public final boolean critical;
+
+		Timing(String name, long readyNanos, long startedNanos, long completedNanos, boolean critical) {
+			this.name = name;
+			this.readyNanos = readyNanos;
+			this.startedNanos = startedNanos;
+			this.completedNanos = completedNanos;
+			this.critical = critical;
+		}
+
+		@Override
+		public final String toString() {
+			return name + ": queued=" + (startedNanos - readyNanos) +
+					" ran=" + (completedNanos - startedNanos) +
+					" completed at " + completedNanos;
+		}
+
+	}
+
+	private final class Execution {
+
+		private final Callback<? super Result> callback;
+
+		private final long origin = System.nanoTime();
+
+		private final AtomicIntegerArray missingInputs;
+
+		private final AtomicReferenceArray<Object> results;
+
+		private final AtomicLongArray readyAt;
+
+		private final AtomicLongArray startedAt;
+
+		private final AtomicLongArray completedAt;
+
+		private final AtomicInteger incomplete;
+
+		private final AtomicBoolean failed = new AtomicBoolean();
+
+		Execution(Callback<? super Result> callback) {
+			this.callback = callback;
+			int size = nodes.size();
+			missingInputs = new AtomicIntegerArray(size);
+			for (Node<?> node : nodes) {
+				missingInputs.set(node.index, node.inputs.length);
+			}
+			results = new AtomicReferenceArray<>(size);
+			readyAt = new AtomicLongArray(size);
+			startedAt = new AtomicLongArray(size);
+			completedAt = new AtomicLongArray(size);
+			incomplete = new AtomicInteger(size);
+		}
+
+		final void start() {
+			if (nodes.isEmpty()) {
+				succeed();
+				return;
+			}
+			for (Node<?> node : nodes) {
+				if (node.inputs.length == 0) {
+					dispatch(node);
+				}
+			}
+		}
+
+		private void dispatch(Node<?> node) {
+			if (failed.get()) {
+				return;
+			}
+			readyAt.set(node.index, System.nanoTime() - origin);
+			Step step = new Step(node);
+			if (node.sink == null) {
+				step.call();
+			} else if (!node.sink.offer(step, step.task)) {
+				step.failure(new RejectedExecutionException("the queue of " + node.name + " is full"));
+			}
+		}
+
+		private void succeed() {
+			int size = nodes.size();
+			boolean[] critical = new boolean[size];
+			List<Timing> criticalPath = new ArrayList<>();
+			int last = -1;
+			for (int i = 0; i < size; ++i) {
+				if (last < 0 || completedAt.get(i) > completedAt.get(last)) {
+					last = i;
+				}
+			}
+			while (last >= 0) {
+				critical[last] = true;
+				int latestInput = -1;
+				for (int input : nodes.get(last).inputs) {
+					if (latestInput < 0 || completedAt.get(input) > completedAt.get(latestInput)) {
+						latestInput = input;
+					}
+				}
+				last = latestInput;
+			}
+			List<Timing> timings = new ArrayList<>(size);
+			for (int i = 0; i < size; ++i) {
+				Timing timing = new Timing(nodes.get(i).name, readyAt.get(i), startedAt.get(i), completedAt.get(i), critical[i]);
+				timings.add(timing);
+				if (critical[i]) {
+					criticalPath.add(timing);
+				}
+			}
+			if (callback != null) {
+				callback.success(new Result(
+						nodes,
+						results,
+						Collections.unmodifiableList(timings),
+						Collections.unmodifiableList(criticalPath)
+				));
+			}
+		}
+
+		private void fail(Throwable exception) {
+			if (failed.compareAndSet(false, true) && callback != null) {
+				if (exception != null) {
+					callback.failure(exception);
+				} else {
+					callback.terminated();
+				}
+			}
+		}
+
+		/**
+		 * The invocation of a node: the computation submitted to the sink, and the callback of the node.
+		 */
+		private final class Step implements Callable<Void>, Callback<Object> {
+
+			private final Node<?> node;
+
+			private final AtomicBoolean completed = new AtomicBoolean();
+
+			/* Reports a failure to submit or invoke the node; the success is reported by the node itself. */
+			final Callback<Void> task = Callback.madeOf(null, this::failure, this::terminated);
+
+			Step(Node<?> node) {
+				this.node = node;
+			}
+
+			@Override
+			public final Void call() {
+				startedAt.set(node.index, System.nanoTime() - origin);
+				try {
+					node.computation.compute(new Inputs(node, results), this);
+				} catch (Exception e) {
+					failure(e);
+				}
+				return null;
+			}
+
+			@Override
+			public final void success(Object data) {
+				if (!completed.compareAndSet(false, true)) {
+					return;
+				}
+				results.set(node.index, data);
+				completedAt.set(node.index, System.nanoTime() - origin);
+				for (int dependent : dependents[node.index]) {
+					if (missingInputs.decrementAndGet(dependent) == 0) {
+						dispatch(nodes.get(dependent));
+					}
+				}
+				if (incomplete.decrementAndGet() == 0) {
+					succeed();
+				}
+			}
+
+			@Override
+			public final void failure(Throwable exception) {
+				if (completed.compareAndSet(false, true)) {
+					fail(exception);
+				}
+			}
+
+			@Override
+			public final void terminated() {
+				if (completed.compareAndSet(false, true)) {
+					fail(null);
+				}
+			}
+
+		}
+
+	}
+
+}
@@ -2,6 +2,7 @@ package org.shoushitsu.util.asyncservice;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
@@ -12,6 +13,8 @@ import java.util.concurrent.TimeoutException;
  */
 public abstract class AsynchronousService<Q extends ATaskQueue> implements AutoCloseable {
 
+	private static final long DRAIN_PROGRESS_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
 	/**
 	 * The task queue for this service. Use its {@linkplain org.shoushitsu.util.asyncservice.TaskSink task sinks}
 	 * to {@link org.shoushitsu.util.asyncservice.TaskSink#offer(java.util.concurrent.Callable, Callback) offer}
@@ -76,14 +79,12 @@ public abstract class AsynchronousService<Q extends ATaskQueue> implements AutoC
 
 		@Override
 		public void run() {
+			if (ATaskQueue.WORKER_QUEUE.get() != queue) {
+				ATaskQueue.WORKER_QUEUE.set(queue);
+			}
 			Task<?> task;
 			try {
-				queue.lock.lockInterruptibly();
-				try {
-					task = queue.takeIfNotTerminated();
-				} finally {
-					queue.lock.unlock();
-				}
+				task = queue.takeIfNotTerminated();
 			} catch (InterruptedException e) {
 				return;
 			}
@@ -92,18 +93,31 @@ public abstract class AsynchronousService<Q extends ATaskQueue> implements AutoC
 				return;
 			}
 
+			QueueMetrics metrics = queue.metrics;
+			long takenAt = 0;
+			if (metrics != null) {
+				takenAt = System.nanoTime();
+				metrics.recordTaken(task, takenAt);
+			}
+			TaskTracer tracer = Tracing.TRACER;
+			Object runSpan = null;
+			if (tracer != null) {
+				String sinkName = task.sink == null ? null : task.sink.name;
+				tracer.taskDequeued(queue.id, sinkName);
+				runSpan = tracer.taskRun(queue.id, sinkName);
+			}
+
 			try {
 				task.run();
 			} finally {
-				// we really want to call afterCallback(), so don't allow interruptions here
-				queue.lock.lock();
-				try {
-					if (queue.afterCallback(task)) {
-						queue.signalAll();
-					}
-				} finally {
-					queue.lock.unlock();
+				if (runSpan != null) {
+					tracer.end(runSpan);
 				}
+				if (metrics != null) {
+					metrics.runTime.record(System.nanoTime() - takenAt);
+				}
+				// we really want to call afterCallback(), so don't allow interruptions here
+				queue.completed(task);
 			}
 		}
 
@@ -134,13 +148,113 @@ public abstract class AsynchronousService<Q extends ATaskQueue> implements AutoC
 	 * suppressed and the {@linkplain Thread#isInterrupted() interrupted status} is set to {@code true}.</p>
 	 */
 	protected final void closeAsynchronousService() {
+		closeAndTerminateLeftovers();
+	}
+
+	/**
+	 * @return the number of leftover tasks that were terminated.
+	 */
+	private int closeAndTerminateLeftovers() {
 		try {
 			workers.close(terminationTimeout, TimeUnit.MILLISECONDS);
 		} catch (TimeoutException ignore) {
-			List<Task<?>> incompleteTasks = new ArrayList<>();
-			queue.drainTo(incompleteTasks);
+			// the workers were interrupted; whatever they didn't take is terminated below
+		}
+		List<Task<?>> incompleteTasks = new ArrayList<>();
+		queue.drainTo(incompleteTasks);
+		if (incompleteTasks.isEmpty()) {
+			return 0;
+		}
+		QueueMetrics metrics = queue.metrics;
+		if (metrics != null) {
+			metrics.terminatedOnClose.add(incompleteTasks.size());
+		}
+		TaskTracer tracer = Tracing.TRACER;
+		Object span = tracer == null ? null : tracer.shutdownDrain(queue.id, incompleteTasks.size());
+		try {
 			incompleteTasks.forEach(Task::terminate);
+		} finally {
+			if (span != null) {
+				tracer.end(span);
+			}
 		}
+		return incompleteTasks.size();
+	}
+
+	/**
+	 * <p>Closes the service gracefully: stops accepting new tasks, lets the workers process the tasks
+	 * that are already queued, then {@linkplain #closeAsynchronousService() closes} the service.</p>
+	 *
+	 * <p>From the moment this method is invoked, the sinks of the {@linkplain #queue} treat new submissions
+	 * as if the queue was terminated. The workers keep taking tasks until the queue is empty and all taken tasks
+	 * are complete, or until the timeout elapses; the tasks that are still queued then are terminated.
+	 * Unlike {@link #closeAsynchronousService()}, this lets the work that clients have already submitted complete,
+	 * instead of failing it and causing the clients to retry, for example during a rolling deployment.</p>
+	 *
+	 * <p>This method returns immediately; the draining is done by a new thread.</p>
+	 *
+	 * @param timeout how long to let the workers drain the queue. After that, the service is closed as by
+	 * {@link #closeAsynchronousService()}, which may take up to the termination timeout more.
+	 * @param unit the time unit of {@code timeout}.
+	 * @param listener receives progress reports, about ten times per second; may be {@code null}.
+	 *
+	 * @return a future that is completed with the number of queued tasks that were terminated
+	 * because the queue was not drained in time, once the service is closed.
+	 *
+	 * @throws IllegalArgumentException if {@code timeout < 0}.
+	 */
+	protected final CompletableFuture<Integer> drainAndCloseAsynchronousService(
+			long timeout,
+			TimeUnit unit,
+			DrainListener listener
+	) {
+		if (timeout < 0) {
+			throw new IllegalArgumentException("timeout is negative: " + timeout);
+		}
+		long deadline = System.nanoTime() + unit.toNanos(timeout);
+		CompletableFuture<Integer> closed = new CompletableFuture<>();
+		queue.stopAccepting();
+		Thread drainer = new Thread(() -> {
+			try {
+				boolean drained = false;
+				long left;
+				while (!drained && (left = deadline - System.nanoTime()) > 0) {
+					drained = queue.awaitDrained(Math.min(left, DRAIN_PROGRESS_INTERVAL_NANOS));
+					reportDrainProgress(listener);
+				}
+			} catch (InterruptedException e) {
+				// stop waiting and close right away
+			} finally {
+				try {
+					closed.complete(closeAndTerminateLeftovers());
+				} catch (Throwable t) {
+					closed.completeExceptionally(t);
+				}
+			}
+		}, "drain-" + queue.id);
+		drainer.start();
+		return closed;
+	}
+
+	private void reportDrainProgress(DrainListener listener) {
+		if (listener == null) {
+			return;
+		}
+		try {
+			listener.progress(queue.lockedSize(), queue.lockedInProgress());
+		} catch (Throwable ignore) {
+			// a broken listener must not stop the shutdown
+		}
+	}
+
+	/**
+	 * Take a snapshot of the {@linkplain ATaskQueue#enableMetrics() metrics} of this service's queue.
+	 *
+	 * @return the snapshot, or {@code null} if metrics are not enabled.
+	 */
+	public final QueueMetrics.Snapshot metricsSnapshot() {
+		QueueMetrics metrics = queue.metrics;
+		return metrics == null ? null : metrics.snapshot();
 	}
 
 }
@@ -0,0 +1,329 @@
+package org.shoushitsu.util.asyncservice;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>A task queue that merges compatible computations into batches, so that they can be executed with one bulk call.</p>
+ *
+ * <p>The {@linkplain Batcher batcher} specified at creation time assigns a batch key to every submitted computation.
+ * Computations with equal keys are collected into a batch until either it holds {@code maxBatchSize} computations,
+ * or {@code maxDelay} passes since the first of them was submitted. Then a worker executes the whole batch
+ * with {@link Batcher#computeBatch(Object, List)}, and the results are reported to the callbacks
+ * of the original computations.</p>
+ *
+ * <p>Like {@link org.shoushitsu.util.asyncservice.SplittingTaskQueue}, this queue only allows one batch
+ * with a given key to be executed at a given moment. Computations that arrive while a batch is running
+ * are collected into the next batch, which naturally makes batches larger when the backend is slow.</p>
+ *
+ * <p>Computations with a {@code null} batch key are not batched; they are executed on their own as soon as possible.
+ * Batches and such computations are taken for execution in the order they become ready.</p>
+ *
+ * <p>This task queue has {@linkplain #sink only one sink}.</p>
+ *
+ * @implNote Currently this queue is unbounded.
+ */
+public final class BatchingTaskQueue extends ATaskQueue {
+
+	/**
+	 * Defines how computations are merged into batches and how the batches are executed.
+	 */
+	public interface Batcher {
+
+		/**
+		 * Get the batch key of a computation. The keys must be suitable for use as {@link java.util.Map} keys.
+		 * Calls to this method from the asynchronous service will be synchronized properly.
+		 *
+		 * @param computation the submitted computation.
+		 *
+		 * @return the batch key, or {@code null} if the computation should not be batched.
+		 */
+		Object batchKey(Callable<?> computation);
+
+		/**
+		 * Execute a batch of computations.
+		 *
+		 * @param key the batch key of all the computations.
+		 * @param computations the computations, in the order of their submission.
+		 *
+		 * @return the results of the computations, in the same order.
+		 * The list must have exactly as many elements as {@code computations}.
+		 *
+		 * @throws Exception if the batch fails; the exception will be reported to all the computations' callbacks.
+		 */
+		List<?> computeBatch(Object key, List<Callable<?>> computations) throws Exception;
+
+	}
+
+	private final Batcher batcher;
+
+	private final int maxBatchSize;
+
+	private final long maxDelayNanos;
+
+	/* Batches that are complete, and computations that are not batched (as batches with null keys). */
+	private final LinkedList<Batch> ready = new LinkedList<>();
+
+	/* Batches that are being collected, in the order of their first submission. */
+	private final LinkedHashMap<Object, Batch> collecting = new LinkedHashMap<>();
+
+	private final HashSet<Object> runningKeys = new HashSet<>();
+
+	private final HashMap<Task<?>, Object> runningBatches = new HashMap<>();
+
+	private int size;
+
+	/**
+	 * The sink that feeds into this queue.
+	 */
+	public final TaskSink sink;
+
+	/**
+	 * Creates a {@code BatchingTaskQueue}.
+	 *
+	 * @param batcher the batcher that assigns keys to computations and executes batches.
+	 * @param maxBatchSize the maximum number of computations in a batch.
+	 * @param maxDelay how long a batch may be collected, counting from the submission of its first computation.
+	 * @param unit the time unit of {@code maxDelay}.
+	 *
+	 * @throws IllegalArgumentException if {@code batcher == null}, {@code maxBatchSize < 1} or {@code maxDelay < 0}.
+	 */
+	public BatchingTaskQueue(Batcher batcher, int maxBatchSize, long maxDelay, TimeUnit unit) {
+		if (batcher == null) {
+			throw new IllegalArgumentException("batcher must be non-null");
+		}
+		if (maxBatchSize < 1) {
+			throw new IllegalArgumentException("bad maxBatchSize: " + maxBatchSize);
+		}
+		if (maxDelay < 0) {
+			throw new IllegalArgumentException("bad maxDelay: " + maxDelay);
+		}
+		this.batcher = batcher;
+		this.maxBatchSize = maxBatchSize;
+		this.maxDelayNanos = unit.toNanos(maxDelay);
+		sink = createSink(this::add);
+	}
+
+	private boolean add(Task<?> task) {
+		Object key = batcher.batchKey(task.getComputation());
+		++size;
+		if (key == null) {
+			Batch single = new Batch(null, 0);
+			single.add(task);
+			ready.add(single);
+			return true;
+		}
+		Batch batch = collecting.get(key);
+		if (batch == null) {
+			batch = new Batch(key, System.nanoTime() + maxDelayNanos);
+			collecting.put(key, batch);
+		}
+		batch.add(task);
+		if (batch.tasks.size() == maxBatchSize) {
+			collecting.remove(key);
+			ready.add(batch);
+		}
+		return true;
+	}
+
+	private boolean isRunnable(Batch batch) {
+		return batch.key == null || !runningKeys.contains(batch.key);
+	}
+
+	@Override
+	protected final boolean isEmpty() {
+		for (Batch batch : ready) {
+			if (isRunnable(batch)) {
+				return false;
+			}
+		}
+		if (!collecting.isEmpty()) {
+			long now = System.nanoTime();
+			for (Batch batch : collecting.values()) {
+				if (isRunnable(batch) && now - batch.deadline >= 0) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	@Override
+	protected final long nanosUntilReady() {
+		for (Batch batch : collecting.values()) {
+			if (isRunnable(batch)) {
+				// batches are collected in submission order, so this is the earliest deadline
+				return Math.max(1, batch.deadline - System.nanoTime());
+			}
+		}
+		return Long.MAX_VALUE;
+	}
+
+	@Override
+	protected final int size() {
+		return size;
+	}
+
+	@Override
+	protected final Task<?> poll() {
+		Batch batch = takeRunnable(ready.iterator(), Long.MAX_VALUE);
+		if (batch == null) {
+			if (collecting.isEmpty()) {
+				return null;
+			}
+			batch = takeRunnable(collecting.values().iterator(), System.nanoTime());
+			if (batch == null) {
+				return null;
+			}
+		}
+		size -= batch.tasks.size();
+		batch.release();
+		if (batch.key == null) {
+			return batch.tasks.get(0);
+		}
+		runningKeys.add(batch.key);
+		Task<?> task = batch.toTask();
+		runningBatches.put(task, batch.key);
+		return task;
+	}
+
+	private Batch takeRunnable(Iterator<Batch> it, long now) {
+		while (it.hasNext()) {
+			Batch batch = it.next();
+			if (isRunnable(batch) && (now == Long.MAX_VALUE || now - batch.deadline >= 0)) {
+				it.remove();
+				return batch;
+			}
+		}
+		return null;
+	}
+
+	@Override
+	protected final boolean remove(Task<?> task) {
+		if (!(task.container instanceof Batch)) {
+			return false;
+		}
+		Batch batch = (Batch) task.container;
+		task.container = null;
+		batch.tasks.remove(task);
+		--size;
+		if (batch.tasks.isEmpty() && !ready.remove(batch)) {
+			collecting.remove(batch.key, batch);
+		}
+		return true;
+	}
+
+	@Override
+	protected final boolean admitInline(Task<?> task) {
+		// batched computations must wait for their batch
+		return batcher.batchKey(task.getComputation()) == null;
+	}
+
+	@Override
+	protected final boolean afterCallback(Task<?> task) {
+		Object key = runningBatches.remove(task);
+		if (key == null) {
+			return false;
+		}
+		runningKeys.remove(key);
+		return true;
+	}
+
+	@Override
+	protected final void doDrainTo(Collection<Task<?>> sink) {
+		for (Batch batch : ready) {
+			batch.release();
+			sink.addAll(batch.tasks);
+		}
+		ready.clear();
+		for (Batch batch : collecting.values()) {
+			batch.release();
+			sink.addAll(batch.tasks);
+		}
+		collecting.clear();
+		size = 0;
+	}
+
+	private final class Batch implements Callback<List<?>> {
+
+		private final Object key;
+
+		private final long deadline;
+
+		private final List<Task<?>> tasks = new ArrayList<>();
+
+		Batch(Object key, long deadline) {
+			this.key = key;
+			this.deadline = deadline;
+		}
+
+		/* The batch records itself as the container of its tasks while it is in the queue, to find them on cancel. */
+		private void add(Task<?> task) {
+			task.container = this;
+			tasks.add(task);
+		}
+
+		private void release() {
+			for (Task<?> task : tasks) {
+				task.container = null;
+			}
+		}
+
+		private Task<List<?>> toTask() {
+			Task<List<?>> task = new Task<>(this::compute, this);
+			task.enqueuedAt = tasks.get(0).enqueuedAt;
+			return task;
+		}
+
+		/* Called by the worker; the batch is out of the queue by then, so it's not shared anymore. */
+		private List<?> compute() throws Exception {
+			// the computations cancelled after the batch was taken are not run
+			tasks.removeIf(Task::isDone);
+			if (tasks.isEmpty()) {
+				return Collections.emptyList();
+			}
+			List<Callable<?>> computations = new ArrayList<>(tasks.size());
+			for (Task<?> task : tasks) {
+				computations.add(task.getComputation());
+			}
+			return batcher.computeBatch(key, computations);
+		}
+
+		@SuppressWarnings("unchecked")
+		@Override
+		public final void success(List<?> results) {
+			if (results == null || results.size() != tasks.size()) {
+				failure(new IllegalStateException(
+						"batch of " + tasks.size() + " produced " + (results == null ? "null" : results.size()) + " results"
+				));
+				return;
+			}
+			for (int i = 0; i < tasks.size(); ++i) {
+				((Task<Object>) tasks.get(i)).complete(results.get(i), null);
+			}
+		}
+
+		@Override
+		public final void failure(Throwable exception) {
+			for (Task<?> task : tasks) {
+				task.complete(null, exception);
+			}
+		}
+
+		@Override
+		public final void terminated() {
+			tasks.forEach(Task::terminate);
+		}
+
+	}
+
+}
@@ -5,42 +5,248 @@ import java.util.List;
 
 public final class BoundedArrayQueue {
 
-	private final Task<?>[] tasks;
+	private static final int MAX_CAPACITY = 1 << 30;
+
+	/* A power of two that is at least the capacity; replaced when the capacity changes. */
+	private Task<?>[] tasks;
+
+	private int capacity;
+
+	private final ATaskQueue owner;
+
+	private final OverflowPolicy policy;
 
 	private int head;
 
+	/* The number of occupied slots, including the tombstones of cancelled tasks. */
 	private int size;
 
-	BoundedArrayQueue(int externalCapacityLog2) {
+	/*
+	 * The number of tasks that are not cancelled; the tasks of this queue have their container set to it.
+	 * This is the size reported to the owner, and the one that counts against the capacity.
+	 */
+	private int live;
+
+	/* CoDel state. */
+
+	private boolean aboveTarget;
+
+	private long firstAboveTime;
+
+	private boolean dropping;
+
+	private long dropNext;
+
+	private int dropCount;
+
+	BoundedArrayQueue(int externalCapacityLog2, ATaskQueue owner, OverflowPolicy policy) {
 		if (externalCapacityLog2 < 0 || externalCapacityLog2 > 30) {
 			throw new IllegalArgumentException("bad externalCapacityLog2: " + externalCapacityLog2);
 		}
-		tasks = new Task<?>[1 << externalCapacityLog2];
+		if (policy == null) {
+			throw new IllegalArgumentException("policy must be non-null");
+		}
+		capacity = 1 << externalCapacityLog2;
+		tasks = new Task<?>[capacity];
+		this.owner = owner;
+		this.policy = policy;
 		head = 0;
 		size = 0;
+		live = 0;
 	}
 
 	public final boolean isEmpty() {
-		return size == 0;
+		return live == 0;
+	}
+
+	public final int size() {
+		return live;
 	}
 
 	public final boolean offer(Task<?> task) {
+		// after the capacity is reduced, the queue may hold more tasks than it
+		if (live >= capacity) {
+			switch (policy.kind) {
+				case DROP_OLDEST:
+					// after a shrink, shed down to the new capacity at once;
+					// pollHead() skips the tasks being cancelled, so it may run out before that
+					Task<?> oldest;
+					while (live >= capacity && (oldest = pollHead()) != null) {
+						owner.shed(oldest);
+					}
+					break;
+				case DROP_NEWEST:
+					owner.shed(task);
+					return true;
+				case CALLER_RUNS:
+					owner.runInCaller(task);
+					return true;
+				default:
+					return false;
+			}
+		}
 		if (size == tasks.length) {
-			return false;
+			// the space is taken by tombstones
+			reallocate(tasks.length);
+		}
+		if (policy.kind == OverflowPolicy.Kind.CODEL) {
+			task.enqueuedAt = System.nanoTime();
 		}
+		task.container = this;
 		tasks[(head + size++) & (tasks.length - 1)] = task;
+		++live;
 		return true;
 	}
 
 	public final Task<?> poll() {
-		if (size == 0) {
-			return null;
+		if (policy.kind != OverflowPolicy.Kind.CODEL) {
+			return pollHead();
+		}
+		while (true) {
+			Task<?> task = pollHead();
+			if (task == null) {
+				aboveTarget = false;
+				dropping = false;
+				return null;
+			}
+			long now = System.nanoTime();
+			boolean okToDrop = okToDrop(task, now);
+			if (dropping) {
+				if (!okToDrop) {
+					dropping = false;
+					return task;
+				}
+				if (now - dropNext < 0) {
+					return task;
+				}
+				owner.shed(task);
+				++dropCount;
+				dropNext = controlLaw(dropNext);
+			} else if (okToDrop) {
+				owner.shed(task);
+				dropping = true;
+				// if we were dropping recently, start from a drop rate close to the last one
+				dropCount = dropCount > 2 && now - dropNext < 16 * policy.intervalNanos ? dropCount - 2 : 1;
+				dropNext = controlLaw(now);
+			} else {
+				return task;
+			}
+		}
+	}
+
+	private boolean okToDrop(Task<?> task, long now) {
+		if (now - task.enqueuedAt < policy.targetNanos || live == 0) {
+			// never drop the last task: an empty queue is not a standing queue
+			aboveTarget = false;
+			return false;
+		}
+		if (!aboveTarget) {
+			aboveTarget = true;
+			firstAboveTime = now + policy.intervalNanos;
+			return false;
 		}
-		Task<?> task = tasks[head];
-		tasks[head] = null;
-		head = (head + 1) & (tasks.length - 1);
-		--size;
-		return task;
+		return now - firstAboveTime >= 0;
+	}
+
+	private long controlLaw(long time) {
+		return time + (long) (policy.intervalNanos / Math.sqrt(dropCount));
+	}
+
+	private Task<?> pollHead() {
+		while (size != 0) {
+			Task<?> task = tasks[head];
+			tasks[head] = null;
+			head = (head + 1) & (tasks.length - 1);
+			--size;
+			// cancelled tasks are left in the array as tombstones, and skipped here
+			if (release(task) && !task.isDone()) {
+				return task;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @return {@code false} if the task is a tombstone, that is, it is already not counted as live.
+	 */
+	private boolean release(Task<?> task) {
+		if (task.container != this) {
+			return false;
+		}
+		task.container = null;
+		--live;
+		return true;
+	}
+
+	/**
+	 * Turn a cancelled task into a tombstone: it stays in the array until it is polled or reallocated,
+	 * but no longer counts as queued. Called under the lock.
+	 *
+	 * @return {@code false} if the task is not in this queue.
+	 */
+	final boolean remove(Task<?> task) {
+		return release(task);
+	}
+
+	/**
+	 * @return the maximum number of tasks this queue accepts.
+	 */
+	public final int capacity() {
+		owner.lock.lock();
+		try {
+			return capacity;
+		} finally {
+			owner.lock.unlock();
+		}
+	}
+
+	/**
+	 * <p>Change the maximum number of tasks this queue accepts. Tasks already in the queue are never lost
+	 * or reordered.</p>
+	 *
+	 * <p>If the capacity grows, the blocked {@link TaskSink#put(java.util.concurrent.Callable, Callback) put()}s
+	 * are woken up to fill the new space. If it shrinks below the number of queued tasks, the extra tasks stay
+	 * in the queue and are taken as usual; until the queue gets below the new capacity, new tasks are treated
+	 * as overflowing, and blocked {@code put()}s keep waiting. Under {@link OverflowPolicy#dropOldest()},
+	 * the next new task sheds as many of the oldest tasks as it takes to get below the new capacity.</p>
+	 *
+	 * @param capacity the new capacity. Unlike the initial one, it doesn't have to be a power of two.
+	 *
+	 * @throws IllegalArgumentException if {@code capacity < 1 || capacity > 1 << 30}.
+	 */
+	public final void setCapacity(int capacity) {
+		if (capacity < 1 || capacity > MAX_CAPACITY) {
+			throw new IllegalArgumentException("bad capacity: " + capacity);
+		}
+		owner.lock.lock();
+		try {
+			this.capacity = capacity;
+			int length = Math.max(capacity, live);
+			length = length == 1 ? 1 : Integer.highestOneBit(length - 1) << 1;
+			if (length != tasks.length) {
+				reallocate(length);
+			}
+			if (live < capacity) {
+				owner.notFullOrTerminated.signalAll();
+			}
+		} finally {
+			owner.lock.unlock();
+		}
+	}
+
+	private void reallocate(int length) {
+		Task<?>[] resized = new Task<?>[length];
+		int count = 0;
+		for (int i = 0; i < size; ++i) {
+			Task<?> task = tasks[(head + i) & (tasks.length - 1)];
+			// the tombstones of cancelled tasks are not carried over
+			if (task.container == this) {
+				resized[count++] = task;
+			}
+		}
+		tasks = resized;
+		head = 0;
+		size = count;
 	}
 
 	final List<Task<?>> drain() {
@@ -50,8 +256,12 @@ public final class BoundedArrayQueue {
 		if (beforeWrap != size) {
 			System.arraycopy(tasks, 0, tasksCopy, beforeWrap, size - beforeWrap);
 		}
+		for (Task<?> task : tasksCopy) {
+			task.container = null;
+		}
 		head = 0;
 		size = 0;
+		live = 0;
 		Arrays.fill(tasks, 0, tasks.length, null);
 		return Arrays.asList(tasksCopy);
 	}
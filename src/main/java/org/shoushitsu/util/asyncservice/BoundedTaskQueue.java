@@ -22,20 +22,63 @@ public final class BoundedTaskQueue extends ATaskQueue {
 	 * @throws java.lang.IllegalArgumentException if {@code externalCapacityLog2 < 0 || externalCapacityLog2 > 30}.
 	 */
 	public BoundedTaskQueue(int externalCapacityLog2) {
-		tasks = new BoundedArrayQueue(externalCapacityLog2);
+		this(externalCapacityLog2, OverflowPolicy.block());
+	}
+
+	/**
+	 * Create a bounded task queue with the specified overflow policy.
+	 *
+	 * @param externalCapacityLog2 binary logarithm of the desired maximum queue size.
+	 * @param overflowPolicy what to do with tasks that don't fit into the queue.
+	 *
+	 * @throws java.lang.IllegalArgumentException if {@code externalCapacityLog2 < 0 || externalCapacityLog2 > 30},
+	 * or {@code overflowPolicy == null}.
+	 */
+	public BoundedTaskQueue(int externalCapacityLog2, OverflowPolicy overflowPolicy) {
+		tasks = new BoundedArrayQueue(externalCapacityLog2, this, overflowPolicy);
 		sink = createSink(new BoundedArrayQueueSinkImpl(tasks));
 	}
 
+	/**
+	 * @return the maximum size of this queue.
+	 */
+	public final int capacity() {
+		return tasks.capacity();
+	}
+
+	/**
+	 * Change the maximum size of this queue at runtime.
+	 *
+	 * @param capacity the new maximum size. It doesn't have to be a power of two.
+	 *
+	 * @throws java.lang.IllegalArgumentException if {@code capacity < 1 || capacity > 1 << 30}.
+	 *
+	 * @see BoundedArrayQueue#setCapacity(int)
+	 */
+	public final void setCapacity(int capacity) {
+		tasks.setCapacity(capacity);
+	}
+
 	@Override
 	protected final boolean isEmpty() {
 		return tasks.isEmpty();
 	}
 
+	@Override
+	protected final int size() {
+		return tasks.size();
+	}
+
 	@Override
 	protected final Task<?> poll() {
 		return tasks.poll();
 	}
 
+	@Override
+	protected final boolean remove(Task<?> task) {
+		return tasks.remove(task);
+	}
+
 	@Override
 	protected final void doDrainTo(Collection<Task<?>> sink) {
 		sink.addAll(tasks.drain());
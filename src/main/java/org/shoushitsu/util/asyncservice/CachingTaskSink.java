@@ -0,0 +1,312 @@
+package org.shoushitsu.util.asyncservice;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <p>A wrapper around a {@link TaskSink} that caches the results of computations by key.</p>
+ *
+ * <p>This is intended for computations that are pure functions of their keys.
+ * If a fresh result for the key is cached, it is reported to the callback immediately, on the submitting thread,
+ * without touching the task queue. Otherwise, the computation is submitted through
+ * a {@linkplain CoalescingTaskSink coalescing sink}, so that concurrent misses with the same key
+ * are executed only once, and its result is cached.</p>
+ *
+ * <p>The cache holds at most the specified number of entries, evicting the least recently used ones.
+ * Successful results expire after the specified time-to-live. Failures may be cached as well
+ * ("negative caching"), usually with a shorter time-to-live; a cached failure is reported to the callbacks
+ * with the same exception object. Terminations are never cached.</p>
+ *
+ * <p>{@linkplain #invalidate(Object) Invalidation} also applies to the computations in flight:
+ * the result of a computation that was submitted before the invalidation of its key is reported to the callback,
+ * but not cached. This includes the submissions that join such a computation after the invalidation.</p>
+ *
+ * <p>Obtain the instances of this class with {@link TaskSink#caching(int, long, long, TimeUnit)}.</p>
+ */
+public final class CachingTaskSink {
+
+	private final CoalescingTaskSink sink;
+
+	private final long ttlNanos;
+
+	private final long negativeTtlNanos;
+
+	/* Guarded by itself. */
+	private final LinkedHashMap<Object, Cached> entries;
+
+	/* The keys with computations in flight; guarded by the entries. */
+	private final HashMap<Object, Pending> pending = new HashMap<>();
+
+	/* Incremented by every invalidation; guarded by the entries. */
+	private long generation;
+
+	/* The generation of the last invalidateAll(); guarded by the entries. */
+	private long clearedAt;
+
+	private final LongAdder hits = new LongAdder();
+
+	private final LongAdder misses = new LongAdder();
+
+	private final LongAdder evictions = new LongAdder();
+
+	/**
+	 * @throws IllegalArgumentException if {@code maximumSize < 1}, {@code ttl <= 0} or {@code negativeTtl < 0}.
+	 */
+	CachingTaskSink(CoalescingTaskSink sink, int maximumSize, long ttl, long negativeTtl, TimeUnit unit) {
+		if (maximumSize < 1) {
+			throw new IllegalArgumentException("bad maximumSize: " + maximumSize);
+		}
+		if (ttl <= 0 || negativeTtl < 0) {
+			throw new IllegalArgumentException("bad time-to-live: " + ttl + ", " + negativeTtl);
+		}
+		this.sink = sink;
+		this.ttlNanos = unit.toNanos(ttl);
+		this.negativeTtlNanos = unit.toNanos(negativeTtl);
+		this.entries = new LinkedHashMap<Object, Cached>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Object, Cached> eldest) {
+				if (size() > maximumSize) {
+					evictions.increment();
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+
+	/**
+	 * Report the cached result to the callback, or submit a computation if there is space in the queue.
+	 *
+	 * @return {@code false} if the result is not cached, the task queue is overflowing, and the task can't be processed
+	 * (that is, no method on the callback will be invoked), {@code true} otherwise.
+	 *
+	 * @see TaskSink#offer(Callable, Callback)
+	 */
+	public final <R> boolean offer(Object key, Callable<? extends R> computation, Callback<? super R> callback) {
+		if (reportCached(key, callback)) {
+			return true;
+		}
+		Storing<R> storing = new Storing<>(key, callback);
+		boolean accepted = false;
+		try {
+			accepted = sink.offer(key, computation, storing);
+		} finally {
+			if (!accepted) {
+				storing.complete();
+			}
+		}
+		return accepted;
+	}
+
+	/**
+	 * Report the cached result to the callback, or submit a computation,
+	 * waiting for the queue to have space if necessary.
+	 *
+	 * @throws InterruptedException if interrupted while waiting for the space in the queue to become available.
+	 *
+	 * @see TaskSink#put(Callable, Callback)
+	 */
+	public final <R> void put(Object key, Callable<? extends R> computation, Callback<? super R> callback) throws InterruptedException {
+		if (reportCached(key, callback)) {
+			return;
+		}
+		Storing<R> storing = new Storing<>(key, callback);
+		boolean accepted = false;
+		try {
+			sink.put(key, computation, storing);
+			accepted = true;
+		} finally {
+			if (!accepted) {
+				storing.complete();
+			}
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private <R> boolean reportCached(Object key, Callback<? super R> callback) {
+		Cached entry;
+		synchronized (entries) {
+			entry = entries.get(key);
+			if (entry != null && System.nanoTime() - entry.expiresAt >= 0) {
+				entries.remove(key);
+				entry = null;
+			}
+		}
+		if (entry == null) {
+			misses.increment();
+			return false;
+		}
+		hits.increment();
+		if (callback != null) {
+			if (entry.failure != null) {
+				callback.failure(entry.failure);
+			} else {
+				callback.success((R) entry.value);
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Remove the cached result for the specified key, if any.
+	 *
+	 * @param key the key to forget.
+	 */
+	public final void invalidate(Object key) {
+		synchronized (entries) {
+			entries.remove(key);
+			Pending invalidated = pending.get(key);
+			if (invalidated != null) {
+				invalidated.invalidatedAt = ++generation;
+			}
+		}
+	}
+
+	/**
+	 * Remove all cached results.
+	 */
+	public final void invalidateAll() {
+		synchronized (entries) {
+			entries.clear();
+			clearedAt = ++generation;
+		}
+	}
+
+	/**
+	 * @return how many submissions were served from the cache.
+	 */
+	public final long hitCount() {
+		return hits.sum();
+	}
+
+	/**
+	 * @return how many submissions were not served from the cache.
+	 */
+	public final long missCount() {
+		return misses.sum();
+	}
+
+	/**
+	 * @return how many entries were evicted because the cache was full.
+	 */
+	public final long evictionCount() {
+		return evictions.sum();
+	}
+
+	private static final class Cached {
+
+		private final Object value;
+
+		private final Throwable failure;
+
+		private final long expiresAt;
+
+		Cached(Object value, Throwable failure, long expiresAt) {
+			this.value = value;
+			this.failure = failure;
+			this.expiresAt = expiresAt;
+		}
+
+	}
+
+	private static final class Pending {
+
+		/*
+		 * The generation when the first of the computations in flight was submitted. The later submissions
+		 * may join that computation, so none of their results is newer than this.
+		 */
+		private final long startedAt;
+
+		/* The number of computations in flight. */
+		private int count;
+
+		/* The generation of the last invalidation of the key. */
+		private long invalidatedAt;
+
+		Pending(long startedAt) {
+			this.startedAt = startedAt;
+		}
+
+	}
+
+	private final class Storing<R> implements Callback<R> {
+
+		private final Object key;
+
+		private final Callback<? super R> callback;
+
+		private final Pending flight;
+
+		Storing(Object key, Callback<? super R> callback) {
+			this.key = key;
+			this.callback = callback;
+			synchronized (entries) {
+				flight = pending.computeIfAbsent(key, k -> new Pending(generation));
+				++flight.count;
+			}
+		}
+
+		private void store(Object value, Throwable failure, long ttl) {
+			Cached entry = new Cached(value, failure, System.nanoTime() + ttl);
+			synchronized (entries) {
+				// results of the generations before an invalidation are not cached
+				if (flight.startedAt >= clearedAt && flight.startedAt >= flight.invalidatedAt) {
+					entries.put(key, entry);
+				}
+				release();
+			}
+		}
+
+		/**
+		 * Forget the computation without caching anything.
+		 */
+		private void complete() {
+			synchronized (entries) {
+				release();
+			}
+		}
+
+		/* Called under the lock of the entries. */
+		private void release() {
+			if (--flight.count == 0) {
+				pending.remove(key, flight);
+			}
+		}
+
+		@Override
+		public final void success(R data) {
+			store(data, null, ttlNanos);
+			if (callback != null) {
+				callback.success(data);
+			}
+		}
+
+		@Override
+		public final void failure(Throwable exception) {
+			// a rejection by the queue (reported to coalesced callbacks) says nothing about the key
+			if (negativeTtlNanos != 0 && !(exception instanceof RejectedExecutionException)) {
+				store(null, exception, negativeTtlNanos);
+			} else {
+				complete();
+			}
+			if (callback != null) {
+				callback.failure(exception);
+			}
+		}
+
+		@Override
+		public final void terminated() {
+			complete();
+			if (callback != null) {
+				callback.terminated();
+			}
+		}
+
+	}
+
+}
@@ -0,0 +1,291 @@
+package org.shoushitsu.util.asyncservice;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * <p>A set of threads that invoke callbacks on behalf of the workers of asynchronous services.</p>
+ *
+ * <p>By default, callbacks run on the worker that completed the computation, so a heavy callback delays the next
+ * task, and a callback that {@linkplain TaskSink#put(java.util.concurrent.Callable, Callback) puts} a computation
+ * into a bounded queue may block the very worker that would make space in it. Submitting through a
+ * {@linkplain TaskSink#withCallbackDispatcher(CallbackDispatcher, boolean) dispatching view} moves the callbacks
+ * to the threads of a dispatcher, which may be shared by any number of sinks and services.</p>
+ *
+ * <p>Every dispatcher thread has an inbox: a lock-free stack that the workers push deliveries onto.
+ * The dispatcher thread takes the whole stack at once and invokes the callbacks of the batch in the order
+ * the deliveries arrived, so a busy dispatcher handles many callbacks per wakeup, and a worker never waits
+ * for a dispatcher thread (it only wakes it up if the inbox was empty).</p>
+ *
+ * <p>After the dispatcher is {@linkplain #close() closed}, the callbacks are invoked on the threads that complete
+ * the computations, as if there were no dispatcher.</p>
+ */
+public final class CallbackDispatcher implements AutoCloseable {
+
+	private final Inbox[] inboxes;
+
+	private final AtomicInteger nextSequenceInbox = new AtomicInteger();
+
+	private volatile boolean closed;
+
+	/**
+	 * Create a dispatcher and start its threads.
+	 *
+	 * @param threading specifies how many threads to use and how to create them.
+	 */
+	public CallbackDispatcher(Threading threading) {
+		ThreadFactory threadFactory = threading.createThreadFactory();
+		inboxes = new Inbox[threading.threadCount];
+		for (int i = 0; i < inboxes.length; ++i) {
+			Inbox inbox = inboxes[i] = new Inbox();
+			inbox.thread = threadFactory.newThread(inbox);
+		}
+		for (Inbox inbox : inboxes) {
+			inbox.thread.start();
+		}
+	}
+
+	/**
+	 * Stop the threads of this dispatcher after they invoke the callbacks they already have.
+	 * Callbacks that arrive later are invoked directly. If interrupted, returns without waiting for the threads,
+	 * preserving the interrupt.
+	 */
+	@Override
+	public final void close() {
+		closed = true;
+		for (Inbox inbox : inboxes) {
+			LockSupport.unpark(inbox.thread);
+		}
+		try {
+			for (Inbox inbox : inboxes) {
+				inbox.thread.join();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	final void dispatch(Runnable delivery) {
+		inboxes[ThreadLocalRandom.current().nextInt(inboxes.length)].push(delivery);
+	}
+
+	/**
+	 * Create a sequence of deliveries that are invoked in the order they were added,
+	 * regardless of the order in which they become ready.
+	 */
+	final Sequence newSequence() {
+		return new Sequence(inboxes[Math.floorMod(nextSequenceInbox.getAndIncrement(), inboxes.length)]);
+	}
+
+	private static final class Node {
+
+		final Runnable delivery;
+
+		Node next;
+
+		Node(Runnable delivery) {
+			this.delivery = delivery;
+		}
+
+	}
+
+	private final class Inbox implements Runnable {
+
+		/* The most recent delivery first. */
+		private final AtomicReference<Node> top = new AtomicReference<>();
+
+		Thread thread;
+
+		final void push(Runnable delivery) {
+			if (closed) {
+				delivery.run();
+				return;
+			}
+			Node node = new Node(delivery);
+			Node next;
+			do {
+				next = top.get();
+				node.next = next;
+			} while (!top.compareAndSet(next, node));
+			if (next == null) {
+				LockSupport.unpark(thread);
+			}
+			if (closed) {
+				// the thread may have quit before the push
+				runBatch(top.getAndSet(null));
+			}
+		}
+
+		@Override
+		public final void run() {
+			while (true) {
+				Node batch = top.getAndSet(null);
+				if (batch == null) {
+					if (closed) {
+						// one more look: a worker may have pushed before it saw the flag
+						batch = top.getAndSet(null);
+						if (batch == null) {
+							return;
+						}
+					} else {
+						LockSupport.park(this);
+						continue;
+					}
+				}
+				runBatch(batch);
+			}
+		}
+
+		private void runBatch(Node batch) {
+			Node first = null;
+			while (batch != null) {
+				Node next = batch.next;
+				batch.next = first;
+				first = batch;
+				batch = next;
+			}
+			for (Node node = first; node != null; node = node.next) {
+				try {
+					node.delivery.run();
+				} catch (RuntimeException e) {
+					// a broken callback must not stop the delivery of the other callbacks
+				}
+			}
+		}
+
+	}
+
+	/**
+	 * The deliveries of one submitter, in the order of submission. Normally only the thread of its inbox runs it,
+	 * but after the dispatcher is closed, the threads that complete the computations do.
+	 */
+	final class Sequence implements Runnable {
+
+		private final Inbox inbox;
+
+		private final ConcurrentLinkedQueue<Delivery<?>> deliveries = new ConcurrentLinkedQueue<>();
+
+		Sequence(Inbox inbox) {
+			this.inbox = inbox;
+		}
+
+		final void add(Delivery<?> delivery) {
+			deliveries.add(delivery);
+		}
+
+		final void ready() {
+			inbox.push(this);
+		}
+
+		@Override
+		public final synchronized void run() {
+			Delivery<?> delivery;
+			while ((delivery = deliveries.peek()) != null && delivery.ready) {
+				deliveries.poll();
+				try {
+					delivery.run();
+				} catch (RuntimeException e) {
+					// a broken callback must not hold up the rest of the sequence
+				}
+			}
+		}
+
+	}
+
+	/**
+	 * A callback that forwards the outcome to the dispatcher.
+	 */
+	static final class Delivery<R> implements Callback<R>, Runnable {
+
+		private static final int SUCCESS = 0;
+		private static final int FAILURE = 1;
+		private static final int TERMINATED = 2;
+		private static final int ABANDONED = 3;
+
+		private final CallbackDispatcher dispatcher;
+
+		private final Callback<? super R> callback;
+
+		private final Sequence sequence;
+
+		private int outcome;
+
+		private R data;
+
+		private Throwable exception;
+
+		/* Publishes the outcome to the sequence. */
+		volatile boolean ready;
+
+		Delivery(CallbackDispatcher dispatcher, Callback<? super R> callback, Sequence sequence) {
+			this.dispatcher = dispatcher;
+			this.callback = callback;
+			this.sequence = sequence;
+			if (sequence != null) {
+				sequence.add(this);
+			}
+		}
+
+		@Override
+		public final void success(R data) {
+			this.data = data;
+			deliver(SUCCESS);
+		}
+
+		@Override
+		public final void failure(Throwable exception) {
+			this.exception = exception;
+			deliver(FAILURE);
+		}
+
+		@Override
+		public final void terminated() {
+			deliver(TERMINATED);
+		}
+
+		/**
+		 * Let the deliveries that follow this one in the sequence proceed, since this one will never be complete.
+		 */
+		final void abandon() {
+			if (sequence != null) {
+				deliver(ABANDONED);
+			}
+		}
+
+		private void deliver(int outcome) {
+			this.outcome = outcome;
+			if (sequence == null) {
+				dispatcher.dispatch(this);
+			} else {
+				ready = true;
+				sequence.ready();
+			}
+		}
+
+		@Override
+		public final void run() {
+			if (callback == null) {
+				return;
+			}
+			switch (outcome) {
+				case SUCCESS:
+					callback.success(data);
+					break;
+				case FAILURE:
+					callback.failure(exception);
+					break;
+				case TERMINATED:
+					callback.terminated();
+					break;
+				default:
+					break;
+			}
+		}
+
+	}
+
+}
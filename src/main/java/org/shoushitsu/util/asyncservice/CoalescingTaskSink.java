@@ -0,0 +1,183 @@
+package org.shoushitsu.util.asyncservice;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * <p>A wrapper around a {@link TaskSink} that coalesces identical computations ("single flight").</p>
+ *
+ * <p>Every computation is submitted with a key. While a computation with some key is queued or running,
+ * further submissions with an equal key don't enqueue new work; instead, their callbacks are attached
+ * to the computation that is already in flight. When it completes, its outcome is reported to all
+ * the attached callbacks (in the order of attachment), after which the key is free again.</p>
+ *
+ * <p>A computation counts as in flight from the moment it is submitted, including while it is waiting for space
+ * in the queue (in {@link #put(Object, Callable, Callback) put()}). If that submission ends up not being accepted
+ * (the queue is full, or the waiting thread is interrupted), the callbacks attached to it receive
+ * a {@link RejectedExecutionException} as a failure.</p>
+ *
+ * <p>The keys must be suitable for use as {@link java.util.Map} keys; {@code null} is a valid key.
+ * It is the user's responsibility to ensure that computations with equal keys produce compatible results.</p>
+ *
+ * <p>Obtain the instances of this class with {@link TaskSink#coalescing()}.</p>
+ */
+public final class CoalescingTaskSink {
+
+	private final TaskSink sink;
+
+	/* Guarded by itself. */
+	private final HashMap<Object, Flight<?>> flights = new HashMap<>();
+
+	CoalescingTaskSink(TaskSink sink) {
+		this.sink = sink;
+	}
+
+	/**
+	 * Submit a computation if there is space in the queue,
+	 * or attach the callback to a computation with the same key that is already in flight.
+	 *
+	 * @return {@code false} if the task queue is overflowing and the task can't be processed
+	 * (that is, no method on the callback will be invoked), {@code true} otherwise.
+	 *
+	 * @see TaskSink#offer(Callable, Callback)
+	 */
+	public final <R> boolean offer(Object key, Callable<? extends R> computation, Callback<? super R> callback) {
+		Flight<R> flight = attachOrStart(key, callback);
+		if (flight == null) {
+			return true;
+		}
+		boolean accepted = false;
+		try {
+			accepted = sink.offer(computation, flight);
+		} finally {
+			launched(flight, accepted);
+		}
+		return accepted;
+	}
+
+	/**
+	 * Submit a computation, waiting for the queue to have space if necessary,
+	 * or attach the callback to a computation with the same key that is already in flight.
+	 *
+	 * @throws InterruptedException if interrupted while waiting for the space in the queue to become available.
+	 *
+	 * @see TaskSink#put(Callable, Callback)
+	 */
+	public final <R> void put(Object key, Callable<? extends R> computation, Callback<? super R> callback) throws InterruptedException {
+		Flight<R> flight = attachOrStart(key, callback);
+		if (flight == null) {
+			return;
+		}
+		boolean accepted = false;
+		try {
+			sink.put(computation, flight);
+			accepted = true;
+		} finally {
+			launched(flight, accepted);
+		}
+	}
+
+	/**
+	 * @return the new flight if the computation must be submitted, or {@code null} if the callback was attached
+	 * to an existing flight.
+	 */
+	@SuppressWarnings("unchecked")
+	private <R> Flight<R> attachOrStart(Object key, Callback<? super R> callback) {
+		synchronized (flights) {
+			Flight<?> existing = flights.get(key);
+			if (existing == null) {
+				Flight<R> flight = new Flight<>(key, callback);
+				flights.put(key, flight);
+				return flight;
+			}
+			((Flight<R>) existing).attach(callback);
+			return null;
+		}
+	}
+
+	private <R> void launched(Flight<R> flight, boolean accepted) {
+		if (accepted) {
+			return;
+		}
+		List<Callback<? super R>> followers;
+		synchronized (flights) {
+			flights.remove(flight.key, flight);
+			followers = flight.followers;
+		}
+		if (followers != null) {
+			RejectedExecutionException exception = new RejectedExecutionException("the coalesced computation was not accepted");
+			followers.forEach(callback -> callback.failure(exception));
+		}
+	}
+
+	private final class Flight<R> implements Callback<R> {
+
+		private final Object key;
+
+		private final Callback<? super R> leader;
+
+		/* The following fields are guarded by the flights map. */
+
+		private List<Callback<? super R>> followers;
+
+		Flight(Object key, Callback<? super R> leader) {
+			this.key = key;
+			this.leader = leader;
+		}
+
+		private void attach(Callback<? super R> callback) {
+			if (callback == null) {
+				return;
+			}
+			if (followers == null) {
+				followers = new ArrayList<>();
+			}
+			followers.add(callback);
+		}
+
+		private List<Callback<? super R>> land() {
+			synchronized (flights) {
+				flights.remove(key, this);
+				return followers;
+			}
+		}
+
+		@Override
+		public final void success(R data) {
+			List<Callback<? super R>> followers = land();
+			if (leader != null) {
+				leader.success(data);
+			}
+			if (followers != null) {
+				followers.forEach(callback -> callback.success(data));
+			}
+		}
+
+		@Override
+		public final void failure(Throwable exception) {
+			List<Callback<? super R>> followers = land();
+			if (leader != null) {
+				leader.failure(exception);
+			}
+			if (followers != null) {
+				followers.forEach(callback -> callback.failure(exception));
+			}
+		}
+
+		@Override
+		public final void terminated() {
+			List<Callback<? super R>> followers = land();
+			if (leader != null) {
+				leader.terminated();
+			}
+			if (followers != null) {
+				followers.forEach(Callback::terminated);
+			}
+		}
+
+	}
+
+}
@@ -0,0 +1,72 @@
+package org.shoushitsu.util.asyncservice;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>An algorithm that adjusts the number of computations a {@link LimitingTaskSink} admits concurrently,
+ * based on the observed latency of the computations.</p>
+ *
+ * <p>Implementations must be thread safe. {@link #getLimit()} is called on every submission,
+ * so it should be cheap.</p>
+ */
+public interface ConcurrencyLimit {
+
+	/**
+	 * @return the current limit on the number of computations in flight (queued or running).
+	 */
+	int getLimit();
+
+	/**
+	 * Report a completed computation.
+	 *
+	 * @param latencyNanos the time from the submission of the computation to its completion, in nanoseconds.
+	 * @param inFlight the number of computations in flight when this one was submitted, including itself.
+	 * @param dropped {@code true} if the computation was not executed because the task queue was full,
+	 * which is a strong overload signal; {@code false} if it completed, successfully or not.
+	 */
+	void onSample(long latencyNanos, int inFlight, boolean dropped);
+
+	/**
+	 * <p>Additive-increase/multiplicative-decrease limit.</p>
+	 *
+	 * <p>While the latency stays below the threshold and the limit is being used, the limit grows by one
+	 * per sample. When a computation takes longer than the threshold, or is dropped,
+	 * the limit is multiplied by {@code backoffRatio}.</p>
+	 *
+	 * @param initialLimit the starting limit.
+	 * @param minLimit the lower bound of the limit.
+	 * @param maxLimit the upper bound of the limit.
+	 * @param latencyThreshold the latency above which the service is considered overloaded.
+	 * @param unit the time unit of {@code latencyThreshold}.
+	 * @param backoffRatio the multiplier applied on overload, from {@code 0.5} (inclusive) to {@code 1} (exclusive).
+	 *
+	 * @return a new limit object.
+	 *
+	 * @throws IllegalArgumentException if the limits are not positive and ordered,
+	 * the threshold is not positive, or the backoff ratio is out of range.
+	 */
+	static ConcurrencyLimit aimd(int initialLimit, int minLimit, int maxLimit, long latencyThreshold, TimeUnit unit, double backoffRatio) {
+		return new AimdLimit(initialLimit, minLimit, maxLimit, unit.toNanos(latencyThreshold), backoffRatio);
+	}
+
+	/**
+	 * <p>Gradient limit, in the style of TCP Vegas.</p>
+	 *
+	 * <p>The algorithm tracks a long-term (baseline) and a short-term average of the latency.
+	 * Their ratio (the gradient) shows whether requests are queueing up somewhere: when the short-term latency
+	 * rises above the baseline, the limit is reduced proportionally; otherwise it is allowed to grow by
+	 * the square root of the current limit, which leaves some room for queueing and lets the limit probe upwards.</p>
+	 *
+	 * @param initialLimit the starting limit.
+	 * @param minLimit the lower bound of the limit.
+	 * @param maxLimit the upper bound of the limit.
+	 *
+	 * @return a new limit object.
+	 *
+	 * @throws IllegalArgumentException if the limits are not positive and ordered.
+	 */
+	static ConcurrencyLimit gradient(int initialLimit, int minLimit, int maxLimit) {
+		return new GradientLimit(initialLimit, minLimit, maxLimit);
+	}
+
+}
@@ -0,0 +1,76 @@
+package org.shoushitsu.util.asyncservice;
+
+import java.util.concurrent.Callable;
+
+/**
+ * <p>A wrapper around a {@link TaskSink} that has the callbacks invoked by a {@link CallbackDispatcher}
+ * instead of the workers of the asynchronous service.</p>
+ *
+ * <p>If the view is ordered, the callbacks of the computations submitted from one thread are invoked in the order
+ * of submission, one at a time, even if the computations complete in another order; a callback may then wait
+ * for the computations submitted before it. Otherwise, the callbacks are invoked as soon as possible,
+ * possibly in parallel.</p>
+ *
+ * <p>Obtain the instances of this class with {@link TaskSink#withCallbackDispatcher(CallbackDispatcher, boolean)}.</p>
+ */
+public final class DispatchingTaskSink {
+
+	private final TaskSink sink;
+
+	private final CallbackDispatcher dispatcher;
+
+	/* Null if the view is not ordered. */
+	private final ThreadLocal<CallbackDispatcher.Sequence> sequence;
+
+	DispatchingTaskSink(TaskSink sink, CallbackDispatcher dispatcher, boolean ordered) {
+		this.sink = sink;
+		this.dispatcher = dispatcher;
+		this.sequence = ordered ? ThreadLocal.withInitial(dispatcher::newSequence) : null;
+	}
+
+	/**
+	 * Submit a computation if there is space in the queue.
+	 *
+	 * @return {@code false} if the task queue is overflowing and the task can't be processed
+	 * (that is, no method on the callback will be invoked), {@code true} otherwise.
+	 *
+	 * @see TaskSink#offer(Callable, Callback)
+	 */
+	public final <R> boolean offer(Callable<? extends R> computation, Callback<? super R> callback) {
+		CallbackDispatcher.Delivery<R> delivery = newDelivery(callback);
+		boolean accepted = false;
+		try {
+			accepted = sink.offer(computation, delivery);
+		} finally {
+			if (!accepted) {
+				delivery.abandon();
+			}
+		}
+		return accepted;
+	}
+
+	/**
+	 * Submit a computation, waiting for the queue to have space if necessary.
+	 *
+	 * @throws InterruptedException if interrupted while waiting for the space in the queue to become available.
+	 *
+	 * @see TaskSink#put(Callable, Callback)
+	 */
+	public final <R> void put(Callable<? extends R> computation, Callback<? super R> callback) throws InterruptedException {
+		CallbackDispatcher.Delivery<R> delivery = newDelivery(callback);
+		boolean accepted = false;
+		try {
+			sink.put(computation, delivery);
+			accepted = true;
+		} finally {
+			if (!accepted) {
+				delivery.abandon();
+			}
+		}
+	}
+
+	private <R> CallbackDispatcher.Delivery<R> newDelivery(Callback<? super R> callback) {
+		return new CallbackDispatcher.Delivery<>(dispatcher, callback, sequence == null ? null : sequence.get());
+	}
+
+}
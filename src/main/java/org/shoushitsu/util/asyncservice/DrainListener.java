@@ -0,0 +1,21 @@
+package org.shoushitsu.util.asyncservice;
+
+/**
+ * Receives progress reports while an asynchronous service is
+ * {@linkplain AsynchronousService#drainAndCloseAsynchronousService(long, java.util.concurrent.TimeUnit, DrainListener)
+ * draining its queue before closing}.
+ */
+@FunctionalInterface
+public interface DrainListener {
+
+	/**
+	 * Report the progress of draining. This is called from the draining thread, periodically,
+	 * and once more when the queue is drained or the deadline is reached. Exceptions thrown by this method are ignored.
+	 *
+	 * @param queuedTasks the number of tasks left in the queue, or {@code -1} if the queue
+	 * {@linkplain ATaskQueue#size() doesn't report its size}.
+	 * @param runningTasks the number of tasks being run.
+	 */
+	void progress(int queuedTasks, int runningTasks);
+
+}
@@ -1,5 +1,8 @@
 package org.shoushitsu.util.asyncservice;
 
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
 /**
  * Asynchronous service with no additional features,
  * intended for use when object composition is preferable to inheritance.
@@ -22,4 +25,12 @@ public final class DummyAsynchronousService<Q extends ATaskQueue> extends Asynch
         closeAsynchronousService();
     }
 
+    /**
+     * Close the asynchronous service gracefully, letting the workers process the queued tasks first.
+     * This implementation simply calls {@link #drainAndCloseAsynchronousService(long, TimeUnit, DrainListener)}.
+     */
+    public final CompletableFuture<Integer> drainAndClose(long timeout, TimeUnit unit, DrainListener listener) {
+        return drainAndCloseAsynchronousService(timeout, unit, listener);
+    }
+
 }
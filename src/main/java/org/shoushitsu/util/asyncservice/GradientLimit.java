@@ -0,0 +1,68 @@
+package org.shoushitsu.util.asyncservice;
+
+final class GradientLimit implements ConcurrencyLimit {
+
+	private static final double SHORT_SMOOTHING = 0.1;
+
+	private static final double LONG_SMOOTHING = 0.005;
+
+	private static final double LIMIT_SMOOTHING = 0.2;
+
+	private final int minLimit;
+
+	private final int maxLimit;
+
+	private volatile int limit;
+
+	/* The following fields are guarded by this. */
+
+	private double estimatedLimit;
+
+	private double shortLatency;
+
+	private double longLatency;
+
+	GradientLimit(int initialLimit, int minLimit, int maxLimit) {
+		if (minLimit < 1 || initialLimit < minLimit || maxLimit < initialLimit) {
+			throw new IllegalArgumentException("bad limits: " + minLimit + " <= " + initialLimit + " <= " + maxLimit);
+		}
+		this.minLimit = minLimit;
+		this.maxLimit = maxLimit;
+		this.limit = initialLimit;
+		this.estimatedLimit = initialLimit;
+	}
+
+	@Override
+	public final int getLimit() {
+		return limit;
+	}
+
+	@Override
+	public final synchronized void onSample(long latencyNanos, int inFlight, boolean dropped) {
+		if (dropped) {
+			estimatedLimit = Math.max(minLimit, estimatedLimit / 2);
+			limit = (int) estimatedLimit;
+			return;
+		}
+		if (longLatency == 0.0) {
+			shortLatency = longLatency = latencyNanos;
+		} else {
+			shortLatency += (latencyNanos - shortLatency) * SHORT_SMOOTHING;
+			longLatency += (latencyNanos - longLatency) * LONG_SMOOTHING;
+		}
+		if (longLatency / shortLatency > 2.0) {
+			// the latency dropped sharply (e.g. the backend recovered); let the baseline catch up faster
+			longLatency *= 0.95;
+		}
+		if (inFlight * 2 < estimatedLimit) {
+			// the limit is not being used, so the samples don't tell anything about it
+			return;
+		}
+		double gradient = Math.max(0.5, Math.min(1.0, longLatency / shortLatency));
+		double newLimit = estimatedLimit * gradient + Math.sqrt(estimatedLimit);
+		newLimit = estimatedLimit * (1 - LIMIT_SMOOTHING) + newLimit * LIMIT_SMOOTHING;
+		estimatedLimit = Math.max(minLimit, Math.min(maxLimit, newLimit));
+		limit = (int) estimatedLimit;
+	}
+
+}
@@ -0,0 +1,108 @@
+package org.shoushitsu.util.asyncservice;
+
+import java.util.EnumSet;
+import java.util.concurrent.Callable;
+
+/**
+ * <p>A wrapper around a {@link TaskSink} that runs computations inline, on the submitting thread,
+ * when handing them off to a worker is not worth it.</p>
+ *
+ * <p>A computation run inline is never put into the queue: it is run, along with its callback,
+ * right after the queue lock is released, before {@code offer()} or {@code put()} returns.
+ * The queue still gets to {@linkplain ATaskQueue#admitInline(Task) veto} inline execution, so ordering
+ * constraints are respected: for example, {@link SplittingTaskQueue} only runs a computation inline
+ * if its bucket is neither locked nor has other tasks waiting, and locks the bucket while it runs.
+ * The nesting of inline computations on a thread's stack is limited by {@code maxDepth}.</p>
+ *
+ * <p>Obtain the instances of this class with {@link TaskSink#inlining(int, Condition...)}.</p>
+ */
+public final class InliningTaskSink {
+
+	/**
+	 * When to run computations inline.
+	 */
+	public enum Condition {
+		/**
+		 * The submitting thread is a worker of the service the queue belongs to.
+		 * The worker would pick the computation up soon anyway, and running it inline spares the handoff.
+		 */
+		SUBMITTER_IS_WORKER,
+		/**
+		 * There are no tasks in the queue that are ready to be taken, so running the computation inline
+		 * doesn't let it overtake anything. This spares the enqueue, signal, context switch and dequeue
+		 * when the service is underloaded.
+		 */
+		QUEUE_EMPTY,
+		/**
+		 * The queue is full. Instead of failing {@code offer()} or blocking {@code put()},
+		 * the submitter runs the computation, which slows it down (compare {@link OverflowPolicy#callerRuns()}).
+		 */
+		QUEUE_FULL
+	}
+
+	private final TaskSink sink;
+
+	private final int maxDepth;
+
+	private final boolean whenWorker;
+
+	private final boolean whenEmpty;
+
+	private final boolean whenFull;
+
+	InliningTaskSink(TaskSink sink, int maxDepth, Condition... conditions) {
+		if (maxDepth < 1) {
+			throw new IllegalArgumentException("bad maxDepth: " + maxDepth);
+		}
+		if (conditions == null || conditions.length == 0) {
+			throw new IllegalArgumentException("no inlining conditions");
+		}
+		EnumSet<Condition> set = EnumSet.noneOf(Condition.class);
+		for (Condition condition : conditions) {
+			if (condition == null) {
+				throw new IllegalArgumentException("null inlining condition");
+			}
+			set.add(condition);
+		}
+		this.sink = sink;
+		this.maxDepth = maxDepth;
+		this.whenWorker = set.contains(Condition.SUBMITTER_IS_WORKER);
+		this.whenEmpty = set.contains(Condition.QUEUE_EMPTY);
+		this.whenFull = set.contains(Condition.QUEUE_FULL);
+	}
+
+	/* Called under the queue lock. */
+	final boolean shouldInline(ATaskQueue queue, boolean full) {
+		if (ATaskQueue.INLINE_DEPTH.get()[0] >= maxDepth) {
+			return false;
+		}
+		if (full) {
+			return whenFull;
+		}
+		return whenWorker && ATaskQueue.WORKER_QUEUE.get() == queue || whenEmpty && queue.isEmpty();
+	}
+
+	/**
+	 * Submit a computation if there is space in the queue, or run it inline.
+	 *
+	 * @return {@code false} if the computation can't be run inline, and the task queue is overflowing
+	 * (that is, no method on the callback will be invoked), {@code true} otherwise.
+	 *
+	 * @see TaskSink#offer(Callable, Callback)
+	 */
+	public final <R> boolean offer(Callable<? extends R> computation, Callback<? super R> callback) {
+		return sink.offer(computation, callback, this) != null;
+	}
+
+	/**
+	 * Submit a computation, waiting for the queue to have space if necessary, or run it inline.
+	 *
+	 * @throws InterruptedException if interrupted while waiting for the space in the queue to become available.
+	 *
+	 * @see TaskSink#put(Callable, Callback)
+	 */
+	public final <R> void put(Callable<? extends R> computation, Callback<? super R> callback) throws InterruptedException {
+		sink.put(computation, callback, this);
+	}
+
+}
@@ -0,0 +1,36 @@
+package org.shoushitsu.util.asyncservice;
+
+import java.util.concurrent.Callable;
+
+/**
+ * <p>A computation that returns a primitive {@code int}.</p>
+ *
+ * <p>When such a computation is submitted with an {@link IntCallback}, the worker passes the result
+ * to {@link IntCallback#success(int)} directly, without boxing it. It is still a {@code Callable<Integer>},
+ * so it can be submitted, wrapped and split like any other computation; the result is only boxed
+ * when something on the way needs it as an object.</p>
+ *
+ * @see TaskSink#offerInt(IntCallable, IntCallback)
+ */
+@FunctionalInterface
+public interface IntCallable extends Callable<Integer> {
+
+	/**
+	 * Compute the result.
+	 *
+	 * @return the result.
+	 *
+	 * @throws Exception if unable to compute the result.
+	 */
+	int callInt() throws Exception;
+
+	/**
+	 * @implSpec
+	 * The default implementation boxes the result of {@link #callInt()}.
+	 */
+	@Override
+	default Integer call() throws Exception {
+		return callInt();
+	}
+
+}
@@ -0,0 +1,103 @@
+package org.shoushitsu.util.asyncservice;
+
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+
+/**
+ * <p>A callback for computations that produce a primitive {@code int}.</p>
+ *
+ * <p>The result of an {@link IntCallable} is reported to {@link #success(int)} without boxing.
+ * This callback is still a {@code Callback<Integer>}, so it can be used wherever a generic callback is expected;
+ * boxed results are unboxed by {@link #success(Integer)}. Conversely, {@link #from(Callback)} adapts
+ * a generic callback to this interface.</p>
+ */
+public interface IntCallback extends Callback<Integer> {
+
+	/**
+	 * Called when a computation completes successfully.
+	 *
+	 * @param data the result of the computation.
+	 */
+	void success(int data);
+
+	/**
+	 * @implSpec
+	 * The default implementation unboxes the result and calls {@link #success(int)}.
+	 *
+	 * @throws NullPointerException if {@code data == null}.
+	 */
+	@Override
+	default void success(Integer data) {
+		success(data.intValue());
+	}
+
+
+	/**
+	 * Adapt a generic callback to this interface.
+	 *
+	 * @param callback the callback to adapt.
+	 *
+	 * @return {@code callback} itself if it already is a {@code IntCallback} (or is {@code null}),
+	 * otherwise a new callback that boxes the results and delegates everything to {@code callback}.
+	 */
+	static IntCallback from(Callback<? super Integer> callback) {
+		if (callback == null || callback instanceof IntCallback) {
+			return (IntCallback) callback;
+		}
+		return new IntCallback() {
+			@Override
+			public void success(int data) {
+				callback.success(data);
+			}
+
+			@Override
+			public void failure(Throwable exception) {
+				callback.failure(exception);
+			}
+
+			@Override
+			public void terminated() {
+				callback.terminated();
+			}
+		};
+	}
+
+	/**
+	 * A factory method that makes a callback out of three functional objects (for use with lambdas).
+	 * Any of the parameters can be {@code null}; that is equivalent to a do-nothing method.
+	 *
+	 * @param onSuccess will be called if the asynchronous task {@linkplain #success(int) succeeds}.
+	 * @param onFailure will be called if the asynchronous task {@linkplain #failure(Throwable) fails}.
+	 * @param onTermination will be called if the asynchronous service is {@linkplain #terminated() terminated}
+	 * before the task is finished.
+	 *
+	 * @return a callback object that calls one of the provided functions depending on the situation.
+	 *
+	 * @see Callback#madeOf(Consumer, Consumer, Runnable)
+	 */
+	static IntCallback madeOf(IntConsumer onSuccess, Consumer<Throwable> onFailure, Runnable onTermination) {
+		return new IntCallback() {
+			@Override
+			public void success(int data) {
+				if (onSuccess != null) {
+					onSuccess.accept(data);
+				}
+			}
+
+			@Override
+			public void failure(Throwable exception) {
+				if (onFailure != null) {
+					onFailure.accept(exception);
+				}
+			}
+
+			@Override
+			public void terminated() {
+				if (onTermination != null) {
+					onTermination.run();
+				}
+			}
+		};
+	}
+
+}
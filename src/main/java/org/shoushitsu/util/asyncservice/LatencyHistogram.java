@@ -0,0 +1,144 @@
+package org.shoushitsu.util.asyncservice;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <p>A concurrent histogram of durations with logarithmic-linear buckets, in the style of HdrHistogram.</p>
+ *
+ * <p>Values are recorded in nanoseconds. Every power-of-two range of values is split into 32 linear buckets,
+ * so the values reported by the {@linkplain Snapshot snapshots} are within about 3% of the recorded ones,
+ * and the memory footprint is fixed regardless of the range of values.</p>
+ */
+public final class LatencyHistogram {
+
+	private static final int SUB_BUCKET_BITS = 5;
+
+	private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+
+	private static final int BUCKET_COUNT = (64 - SUB_BUCKET_BITS + 1) * SUB_BUCKET_COUNT;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+
+	private final LongAdder sum = new LongAdder();
+
+	private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+	LatencyHistogram() {
+	}
+
+	static int bucketIndex(long value) {
+		if (value < SUB_BUCKET_COUNT) {
+			return value < 0 ? 0 : (int) value;
+		}
+		int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+		return ((shift + 1) << SUB_BUCKET_BITS) + (int) ((value >>> shift) & (SUB_BUCKET_COUNT - 1));
+	}
+
+	static long highestEquivalentValue(int index) {
+		if (index < SUB_BUCKET_COUNT) {
+			return index;
+		}
+		int shift = (index >>> SUB_BUCKET_BITS) - 1;
+		long subBucket = SUB_BUCKET_COUNT + (index & (SUB_BUCKET_COUNT - 1));
+		return ((subBucket + 1) << shift) - 1;
+	}
+
+	final void record(long nanos) {
+		counts.incrementAndGet(bucketIndex(nanos));
+		sum.add(nanos);
+		max.accumulate(nanos);
+	}
+
+	/**
+	 * Take a snapshot of this histogram. The snapshot is not atomic with respect to concurrent recording.
+	 *
+	 * @return a new snapshot.
+	 */
+	public final Snapshot snapshot() {
+		long[] copy = new long[BUCKET_COUNT];
+		long count = 0;
+		for (int i = 0; i < BUCKET_COUNT; ++i) {
+			count += copy[i] = counts.get(i);
+		}
+		return new Snapshot(copy, count, sum.sum(), max.get());
+	}
+
+	/**
+	 * An immutable copy of a histogram's state.
+	 */
+	public static final class Snapshot {
+
+		private final long[] counts;
+
+		/**
+		 * The number of recorded values.
+		 */
+		public final long count;
+
+		/**
+		 * The sum of recorded values, in nanoseconds.
+		 */
+		public final long sum;
+
+		/**
+		 * The largest recorded value, in nanoseconds.
+		 */
+		public final long max;
+
+		Snapshot(long[] counts, long count, long sum, long max) {
+			this.counts = counts;
+			this.count = count;
+			this.sum = sum;
+			this.max = max;
+		}
+
+		/**
+		 * @return the mean of recorded values in nanoseconds, or {@code 0} if there are none.
+		 */
+		public final double mean() {
+			return count == 0 ? 0.0 : (double) sum / count;
+		}
+
+		/**
+		 * Get the value at the specified percentile.
+		 *
+		 * @param percentile the percentile, from {@code 0} to {@code 100}.
+		 *
+		 * @return the (approximate) value in nanoseconds that is greater or equal to
+		 * the specified percentage of recorded values, or {@code 0} if there are none.
+		 *
+		 * @throws IllegalArgumentException if {@code percentile} is not within {@code [0, 100]}.
+		 */
+		public final long valueAtPercentile(double percentile) {
+			if (!(percentile >= 0.0 && percentile <= 100.0)) {
+				throw new IllegalArgumentException("bad percentile: " + percentile);
+			}
+			if (count == 0) {
+				return 0;
+			}
+			long target = Math.max(1, (long) Math.ceil(percentile / 100.0 * count));
+			long seen = 0;
+			for (int i = 0; i < counts.length; ++i) {
+				seen += counts[i];
+				if (seen >= target) {
+					return Math.min(highestEquivalentValue(i), max);
+				}
+			}
+			return max;
+		}
+
+		@Override
+		public final String toString() {
+			return "count=" + count +
+					" mean=" + (long) mean() +
+					" p50=" + valueAtPercentile(50) +
+					" p99=" + valueAtPercentile(99) +
+					" p99.9=" + valueAtPercentile(99.9) +
+					" max=" + max;
+		}
+
+	}
+
+}
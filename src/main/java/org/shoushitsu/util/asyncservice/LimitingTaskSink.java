@@ -0,0 +1,130 @@
+package org.shoushitsu.util.asyncservice;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <p>A wrapper around a {@link TaskSink} that limits the number of computations in flight
+ * (queued or running) with an adaptive {@link ConcurrencyLimit}.</p>
+ *
+ * <p>Every submission is timed until its completion, and the latency is fed to the limit algorithm.
+ * When the limit is reached, {@link #offer(Callable, Callback) offer()} is rejected immediately,
+ * without touching the task queue; so when the service slows down, excess load is shed
+ * before the queue fills up and the latency explodes.</p>
+ *
+ * <p>Obtain the instances of this class with {@link TaskSink#withConcurrencyLimit(ConcurrencyLimit)}.</p>
+ */
+public final class LimitingTaskSink {
+
+	private final TaskSink sink;
+
+	private final ConcurrencyLimit limit;
+
+	/* Updated by every submitter and worker; padded to keep it off the cache lines of other objects. */
+	private final PaddedAtomicLong inFlight = new PaddedAtomicLong();
+
+	private final LongAdder rejected = new LongAdder();
+
+	LimitingTaskSink(TaskSink sink, ConcurrencyLimit limit) {
+		this.sink = sink;
+		this.limit = limit;
+	}
+
+	/**
+	 * Submit a computation if the limit allows it and there is space in the queue.
+	 *
+	 * @return {@code false} if the limit is reached or the task queue is overflowing and the task can't be processed
+	 * (that is, no method on the callback will be invoked), {@code true} otherwise.
+	 *
+	 * @see TaskSink#offer(Callable, Callback)
+	 */
+	public final <R> boolean offer(Callable<? extends R> computation, Callback<? super R> callback) {
+		int admitted;
+		do {
+			admitted = (int) inFlight.get();
+			if (admitted >= limit.getLimit()) {
+				rejected.increment();
+				return false;
+			}
+		} while (!inFlight.compareAndSet(admitted, admitted + 1));
+
+		Measured<R> measured = new Measured<>(callback, admitted + 1);
+		boolean accepted = false;
+		try {
+			accepted = sink.offer(computation, measured);
+		} finally {
+			if (!accepted) {
+				inFlight.decrementAndGet();
+				limit.onSample(System.nanoTime() - measured.submittedAt, measured.inFlight, true);
+				rejected.increment();
+			}
+		}
+		return accepted;
+	}
+
+	/**
+	 * @return the current number of computations in flight.
+	 */
+	public final int inFlight() {
+		return (int) inFlight.get();
+	}
+
+	/**
+	 * @return the current limit on the number of computations in flight.
+	 */
+	public final int limit() {
+		return limit.getLimit();
+	}
+
+	/**
+	 * @return how many offers were rejected, either because of the limit or because the queue was full.
+	 */
+	public final long rejectedCount() {
+		return rejected.sum();
+	}
+
+	private final class Measured<R> implements Callback<R> {
+
+		private final Callback<? super R> callback;
+
+		private final int inFlight;
+
+		private final long submittedAt = System.nanoTime();
+
+		Measured(Callback<? super R> callback, int inFlight) {
+			this.callback = callback;
+			this.inFlight = inFlight;
+		}
+
+		private void sample() {
+			LimitingTaskSink.this.inFlight.decrementAndGet();
+			limit.onSample(System.nanoTime() - submittedAt, inFlight, false);
+		}
+
+		@Override
+		public final void success(R data) {
+			sample();
+			if (callback != null) {
+				callback.success(data);
+			}
+		}
+
+		@Override
+		public final void failure(Throwable exception) {
+			sample();
+			if (callback != null) {
+				callback.failure(exception);
+			}
+		}
+
+		@Override
+		public final void terminated() {
+			LimitingTaskSink.this.inFlight.decrementAndGet();
+			if (callback != null) {
+				callback.terminated();
+			}
+		}
+
+	}
+
+}
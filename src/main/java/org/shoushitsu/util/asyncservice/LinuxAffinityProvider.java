@@ -0,0 +1,122 @@
+package org.shoushitsu.util.asyncservice;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.BitSet;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>An {@link AffinityProvider} for Linux that needs no native code.</p>
+ *
+ * <p>The thread's kernel id is read from {@code /proc/thread-self} (Linux 3.17+), and the thread is pinned
+ * by running {@code taskset -p} on it. Starting a process is expensive, but it is only done once per worker thread.
+ * If {@code /proc/thread-self} or {@code taskset} is not available, pinning fails and the threads run unpinned.</p>
+ */
+public final class LinuxAffinityProvider implements AffinityProvider {
+
+	private static final LinuxAffinityProvider INSTANCE = new LinuxAffinityProvider();
+
+	private static final long TASKSET_TIMEOUT_SECONDS = 5;
+
+	/**
+	 * @return the provider.
+	 */
+	public static LinuxAffinityProvider instance() {
+		return INSTANCE;
+	}
+
+	private LinuxAffinityProvider() {
+	}
+
+	@Override
+	public final boolean pinCurrentThread(BitSet cpus) {
+		try {
+			// the link points to "<pid>/task/<tid>"
+			Path threadSelf = Files.readSymbolicLink(Paths.get("/proc/thread-self"));
+			String tid = threadSelf.getFileName().toString();
+			Process taskset = new ProcessBuilder("taskset", "-p", "-c", toCpuList(cpus), tid)
+					.redirectErrorStream(true)
+					.redirectOutput(ProcessBuilder.Redirect.to(new File("/dev/null")))
+					.start();
+			if (!taskset.waitFor(TASKSET_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+				taskset.destroy();
+				return false;
+			}
+			return taskset.exitValue() == 0;
+		} catch (IOException | UnsupportedOperationException e) {
+			return false;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+	}
+
+	/**
+	 * Get the CPUs of a NUMA node.
+	 *
+	 * @param node the index of the node.
+	 *
+	 * @return the CPUs of the node.
+	 *
+	 * @throws IOException if the node's CPU list can't be read from {@code /sys/devices/system/node}.
+	 */
+	public static BitSet cpusOfNode(int node) throws IOException {
+		Path path = Paths.get("/sys/devices/system/node/node" + node + "/cpulist");
+		return parseCpuList(new String(Files.readAllBytes(path), StandardCharsets.US_ASCII).trim());
+	}
+
+	/**
+	 * Parse a CPU list in the kernel format, such as {@code "0-3,8,10-11"}.
+	 *
+	 * @param list the CPU list.
+	 *
+	 * @return the CPUs in the list.
+	 *
+	 * @throws IllegalArgumentException if the list is malformed.
+	 */
+	public static BitSet parseCpuList(String list) {
+		BitSet cpus = new BitSet();
+		if (list.isEmpty()) {
+			return cpus;
+		}
+		try {
+			for (String range : list.split(",")) {
+				int dash = range.indexOf('-');
+				if (dash < 0) {
+					cpus.set(Integer.parseInt(range.trim()));
+				} else {
+					int from = Integer.parseInt(range.substring(0, dash).trim());
+					int to = Integer.parseInt(range.substring(dash + 1).trim());
+					if (to < from) {
+						throw new IllegalArgumentException("bad CPU range: " + range);
+					}
+					cpus.set(from, to + 1);
+				}
+			}
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("bad CPU list: " + list, e);
+		}
+		return cpus;
+	}
+
+	static String toCpuList(BitSet cpus) {
+		StringBuilder sb = new StringBuilder();
+		for (int from = cpus.nextSetBit(0); from >= 0; ) {
+			int to = cpus.nextClearBit(from) - 1;
+			if (sb.length() > 0) {
+				sb.append(',');
+			}
+			sb.append(from);
+			if (to > from) {
+				sb.append('-').append(to);
+			}
+			from = cpus.nextSetBit(to + 1);
+		}
+		return sb.toString();
+	}
+
+}
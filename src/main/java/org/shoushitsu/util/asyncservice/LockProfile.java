@@ -0,0 +1,225 @@
+package org.shoushitsu.util.asyncservice;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * <p>Contention profile of the lock of a task queue.</p>
+ *
+ * <p>Lock profiling is disabled by default; enable it with {@link ATaskQueue#enableLockProfiling()}.
+ * Once enabled, every acquisition of the queue lock is attributed to a {@linkplain Site call site}, and
+ * the time spent waiting for the lock and holding it is measured, along with the number of condition signals,
+ * condition waits and spurious wakeups (waits that ended without the awaited state change).</p>
+ *
+ * <p>Measurements are accumulated in a fixed number of stripes, and every thread writes to the stripe picked by
+ * its id, so profiling adds little contention of its own, and its footprint doesn't grow with the number of threads
+ * that ever used the queue. The stripes are only summed up when a {@linkplain #snapshot() snapshot} is taken.
+ * The snapshot is also included in the {@linkplain QueueMetrics.Snapshot#lockProfile queue metrics snapshot}.</p>
+ */
+public final class LockProfile {
+
+	/**
+	 * Places where the queue lock is acquired.
+	 */
+	public enum Site {
+		/** {@link TaskSink#offer(java.util.concurrent.Callable, Callback)} */
+		OFFER,
+		/** {@link TaskSink#put(java.util.concurrent.Callable, Callback)} */
+		PUT,
+		/** A worker taking a task from the queue. */
+		TAKE,
+		/** A worker notifying the queue that a task is complete. */
+		AFTER_CALLBACK,
+		/** Draining the queue when the service is closed. */
+		DRAIN
+	}
+
+	private static final int SITES = Site.values().length;
+
+	private static final int ACQUISITIONS = 0;
+	private static final int WAIT_NANOS = 1;
+	private static final int MAX_WAIT_NANOS = 2;
+	private static final int HOLD_NANOS = 3;
+	private static final int MAX_HOLD_NANOS = 4;
+	private static final int SIGNALS = 5;
+	private static final int AWAITS = 6;
+	private static final int SPURIOUS_WAKEUPS = 7;
+	private static final int FIELDS = 8;
+
+	private static final int STRIPES = Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 2 - 1) << 1;
+
+	/* Separate objects, so that the stripes don't share cache lines with each other. */
+	private final AtomicLongArray[] stripes = new AtomicLongArray[STRIPES];
+
+	LockProfile() {
+		for (int i = 0; i < STRIPES; ++i) {
+			stripes[i] = new AtomicLongArray(SITES * FIELDS);
+		}
+	}
+
+	private AtomicLongArray accumulator() {
+		long id = Thread.currentThread().getId();
+		// spread sequential thread ids over the stripes
+		return stripes[(int) ((id * 0x9E3779B97F4A7C15L) >>> 32) & (STRIPES - 1)];
+	}
+
+	/* Threads that share a stripe may write it concurrently, so updates are atomic. */
+
+	private static void add(AtomicLongArray array, Site site, int field, long delta) {
+		array.getAndAdd(site.ordinal() * FIELDS + field, delta);
+	}
+
+	private static void max(AtomicLongArray array, Site site, int field, long value) {
+		int index = site.ordinal() * FIELDS + field;
+		long current;
+		while (value > (current = array.get(index)) && !array.compareAndSet(index, current, value)) {
+			// retry
+		}
+	}
+
+	final void acquired(Site site, long requestedAt, long acquiredAt) {
+		AtomicLongArray array = accumulator();
+		long wait = acquiredAt - requestedAt;
+		add(array, site, ACQUISITIONS, 1);
+		add(array, site, WAIT_NANOS, wait);
+		max(array, site, MAX_WAIT_NANOS, wait);
+	}
+
+	final void released(Site site, long heldNanos) {
+		AtomicLongArray array = accumulator();
+		add(array, site, HOLD_NANOS, heldNanos);
+		max(array, site, MAX_HOLD_NANOS, heldNanos);
+	}
+
+	final void signalled(Site site) {
+		add(accumulator(), site, SIGNALS, 1);
+	}
+
+	final void awaited(Site site, boolean spurious) {
+		AtomicLongArray array = accumulator();
+		add(array, site, AWAITS, 1);
+		if (spurious) {
+			add(array, site, SPURIOUS_WAKEUPS, 1);
+		}
+	}
+
+	/**
+	 * Take a snapshot of the profile. The snapshot is not atomic with respect to concurrent lock operations.
+	 *
+	 * @return a new snapshot.
+	 */
+	public final Snapshot snapshot() {
+		long[] sums = new long[SITES * FIELDS];
+		for (AtomicLongArray array : stripes) {
+			for (int i = 0; i < sums.length; ++i) {
+				if (i % FIELDS == MAX_WAIT_NANOS || i % FIELDS == MAX_HOLD_NANOS) {
+					sums[i] = Math.max(sums[i], array.get(i));
+				} else {
+					sums[i] += array.get(i);
+				}
+			}
+		}
+		EnumMap<Site, SiteSnapshot> sites = new EnumMap<>(Site.class);
+		for (Site site : Site.values()) {
+			int base = site.ordinal() * FIELDS;
+			sites.put(site, new SiteSnapshot(
+					sums[base + ACQUISITIONS],
+					sums[base + WAIT_NANOS],
+					sums[base + MAX_WAIT_NANOS],
+					sums[base + HOLD_NANOS],
+					sums[base + MAX_HOLD_NANOS],
+					sums[base + SIGNALS],
+					sums[base + AWAITS],
+					sums[base + SPURIOUS_WAKEUPS]
+			));
+		}
+		return new Snapshot(Collections.unmodifiableMap(sites));
+	}
+
+	/**
+	 * An immutable copy of a lock profile.
+	 */
+	public static final class Snapshot {
+
+		/**
+		 * The statistics of each call site.
+		 */
+		public final Map<Site, SiteSnapshot> sites;
+
+		Snapshot(Map<Site, SiteSnapshot> sites) {
+			this.sites = sites;
+		}
+
+		@Override
+		public final String toString() {
+			StringBuilder sb = new StringBuilder("lock:");
+			sites.forEach((site, stats) -> sb.append("\n    ").append(site).append(": ").append(stats));
+			return sb.toString();
+		}
+
+	}
+
+	/**
+	 * Lock statistics of a single call site. All durations are in nanoseconds.
+	 */
+	public static final class SiteSnapshot {
+
+		/** How many times the lock was acquired. */
+		public final long acquisitions;
+
+		/** Total time spent waiting to acquire the lock. */
+		public final long waitNanos;
+
+		/** Longest wait to acquire the lock. */
+		public final long maxWaitNanos;
+
+		/** Total time the lock was held, excluding the time spent in condition waits. */
+		public final long holdNanos;
+
+		/** Longest time the lock was held, excluding the time spent in condition waits. */
+		public final long maxHoldNanos;
+
+		/** How many condition signals were sent. */
+		public final long signals;
+
+		/** How many times a thread waited on a condition. */
+		public final long awaits;
+
+		/** How many condition waits ended without the awaited state change. */
+		public final long spuriousWakeups;
+
+		SiteSnapshot(
+				long acquisitions,
+				long waitNanos,
+				long maxWaitNanos,
+				long holdNanos,
+				long maxHoldNanos,
+				long signals,
+				long awaits,
+				long spuriousWakeups
+		) {
+			this.acquisitions = acquisitions;
+			this.waitNanos = waitNanos;
+			this.maxWaitNanos = maxWaitNanos;
+			this.holdNanos = holdNanos;
+			this.maxHoldNanos = maxHoldNanos;
+			this.signals = signals;
+			this.awaits = awaits;
+			this.spuriousWakeups = spuriousWakeups;
+		}
+
+		@Override
+		public final String toString() {
+			return "acquisitions=" + acquisitions +
+					" wait=" + waitNanos + " (max " + maxWaitNanos + ")" +
+					" hold=" + holdNanos + " (max " + maxHoldNanos + ")" +
+					" signals=" + signals +
+					" awaits=" + awaits +
+					" spurious=" + spuriousWakeups;
+		}
+
+	}
+
+}
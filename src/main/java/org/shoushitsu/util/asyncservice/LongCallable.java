@@ -0,0 +1,36 @@
+package org.shoushitsu.util.asyncservice;
+
+import java.util.concurrent.Callable;
+
+/**
+ * <p>A computation that returns a primitive {@code long}.</p>
+ *
+ * <p>When such a computation is submitted with an {@link LongCallback}, the worker passes the result
+ * to {@link LongCallback#success(long)} directly, without boxing it. It is still a {@code Callable<Long>},
+ * so it can be submitted, wrapped and split like any other computation; the result is only boxed
+ * when something on the way needs it as an object.</p>
+ *
+ * @see TaskSink#offerLong(LongCallable, LongCallback)
+ */
+@FunctionalInterface
+public interface LongCallable extends Callable<Long> {
+
+	/**
+	 * Compute the result.
+	 *
+	 * @return the result.
+	 *
+	 * @throws Exception if unable to compute the result.
+	 */
+	long callLong() throws Exception;
+
+	/**
+	 * @implSpec
+	 * The default implementation boxes the result of {@link #callLong()}.
+	 */
+	@Override
+	default Long call() throws Exception {
+		return callLong();
+	}
+
+}
@@ -0,0 +1,103 @@
+package org.shoushitsu.util.asyncservice;
+
+import java.util.function.Consumer;
+import java.util.function.LongConsumer;
+
+/**
+ * <p>A callback for computations that produce a primitive {@code long}.</p>
+ *
+ * <p>The result of an {@link LongCallable} is reported to {@link #success(long)} without boxing.
+ * This callback is still a {@code Callback<Long>}, so it can be used wherever a generic callback is expected;
+ * boxed results are unboxed by {@link #success(Long)}. Conversely, {@link #from(Callback)} adapts
+ * a generic callback to this interface.</p>
+ */
+public interface LongCallback extends Callback<Long> {
+
+	/**
+	 * Called when a computation completes successfully.
+	 *
+	 * @param data the result of the computation.
+	 */
+	void success(long data);
+
+	/**
+	 * @implSpec
+	 * The default implementation unboxes the result and calls {@link #success(long)}.
+	 *
+	 * @throws NullPointerException if {@code data == null}.
+	 */
+	@Override
+	default void success(Long data) {
+		success(data.longValue());
+	}
+
+
+	/**
+	 * Adapt a generic callback to this interface.
+	 *
+	 * @param callback the callback to adapt.
+	 *
+	 * @return {@code callback} itself if it already is a {@code LongCallback} (or is {@code null}),
+	 * otherwise a new callback that boxes the results and delegates everything to {@code callback}.
+	 */
+	static LongCallback from(Callback<? super Long> callback) {
+		if (callback == null || callback instanceof LongCallback) {
+			return (LongCallback) callback;
+		}
+		return new LongCallback() {
+			@Override
+			public void success(long data) {
+				callback.success(data);
+			}
+
+			@Override
+			public void failure(Throwable exception) {
+				callback.failure(exception);
+			}
+
+			@Override
+			public void terminated() {
+				callback.terminated();
+			}
+		};
+	}
+
+	/**
+	 * A factory method that makes a callback out of three functional objects (for use with lambdas).
+	 * Any of the parameters can be {@code null}; that is equivalent to a do-nothing method.
+	 *
+	 * @param onSuccess will be called if the asynchronous task {@linkplain #success(long) succeeds}.
+	 * @param onFailure will be called if the asynchronous task {@linkplain #failure(Throwable) fails}.
+	 * @param onTermination will be called if the asynchronous service is {@linkplain #terminated() terminated}
+	 * before the task is finished.
+	 *
+	 * @return a callback object that calls one of the provided functions depending on the situation.
+	 *
+	 * @see Callback#madeOf(Consumer, Consumer, Runnable)
+	 */
+	static LongCallback madeOf(LongConsumer onSuccess, Consumer<Throwable> onFailure, Runnable onTermination) {
+		return new LongCallback() {
+			@Override
+			public void success(long data) {
+				if (onSuccess != null) {
+					onSuccess.accept(data);
+				}
+			}
+
+			@Override
+			public void failure(Throwable exception) {
+				if (onFailure != null) {
+					onFailure.accept(exception);
+				}
+			}
+
+			@Override
+			public void terminated() {
+				if (onTermination != null) {
+					onTermination.run();
+				}
+			}
+		};
+	}
+
+}
@@ -0,0 +1,20 @@
+package org.shoushitsu.util.asyncservice;
+
+/**
+ * An {@link AsyncChain.Function} made with {@link AsyncChain#fromLong(AsyncChain.LongFunction)},
+ * which the chain recognizes in order to pass it the previous result without boxing.
+ */
+final class LongInputFunction<O> implements AsyncChain.Function<Long, O> {
+
+	final AsyncChain.LongFunction<O> function;
+
+	LongInputFunction(AsyncChain.LongFunction<O> function) {
+		this.function = function;
+	}
+
+	@Override
+	public final void compute(Long input, Callback<? super O> callback) throws Exception {
+		function.compute(input, callback);
+	}
+
+}
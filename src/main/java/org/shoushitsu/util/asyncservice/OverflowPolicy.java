@@ -0,0 +1,109 @@
+package org.shoushitsu.util.asyncservice;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>What a bounded task queue does with a task that doesn't fit.</p>
+ *
+ * <p>By default, {@linkplain #block() bounded queues apply backpressure}: {@link TaskSink#offer(java.util.concurrent.Callable, Callback) offer()}
+ * fails and {@link TaskSink#put(java.util.concurrent.Callable, Callback) put()} waits for space. Under sustained overload,
+ * this means that every task waits behind a full queue of stale work. The other policies shed load instead,
+ * which keeps the latency of the accepted tasks bounded. With those policies, {@code offer()} never fails
+ * and {@code put()} never blocks because of the queue being full.</p>
+ *
+ * <p>Tasks shed by a policy are {@linkplain Callback#terminated() terminated}, or run by the caller;
+ * either happens after the queue lock is released, in the thread that submitted the new task
+ * (or, with {@link #coDel(long, long, TimeUnit) CoDel}, in the worker that took the task).
+ * Policies are immutable and may be shared between queues.</p>
+ */
+public final class OverflowPolicy {
+
+	enum Kind {
+		BLOCK, DROP_OLDEST, DROP_NEWEST, CODEL, CALLER_RUNS
+	}
+
+	private static final OverflowPolicy BLOCK = new OverflowPolicy(Kind.BLOCK, 0, 0);
+
+	private static final OverflowPolicy DROP_OLDEST = new OverflowPolicy(Kind.DROP_OLDEST, 0, 0);
+
+	private static final OverflowPolicy DROP_NEWEST = new OverflowPolicy(Kind.DROP_NEWEST, 0, 0);
+
+	private static final OverflowPolicy CALLER_RUNS = new OverflowPolicy(Kind.CALLER_RUNS, 0, 0);
+
+	final Kind kind;
+
+	final long targetNanos;
+
+	final long intervalNanos;
+
+	private OverflowPolicy(Kind kind, long targetNanos, long intervalNanos) {
+		this.kind = kind;
+		this.targetNanos = targetNanos;
+		this.intervalNanos = intervalNanos;
+	}
+
+	/**
+	 * Reject new tasks when the queue is full. This is the default.
+	 *
+	 * @return the policy.
+	 */
+	public static OverflowPolicy block() {
+		return BLOCK;
+	}
+
+	/**
+	 * Evict the oldest task in the queue (the one at its head) to make space for the new one.
+	 *
+	 * @return the policy.
+	 */
+	public static OverflowPolicy dropOldest() {
+		return DROP_OLDEST;
+	}
+
+	/**
+	 * Accept and immediately terminate the new task when the queue is full.
+	 *
+	 * @return the policy.
+	 */
+	public static OverflowPolicy dropNewest() {
+		return DROP_NEWEST;
+	}
+
+	/**
+	 * Run the new task in the submitting thread when the queue is full.
+	 * This slows the producers down without blocking them on the queue.
+	 *
+	 * @return the policy.
+	 */
+	public static OverflowPolicy callerRuns() {
+		return CALLER_RUNS;
+	}
+
+	/**
+	 * <p>Drop tasks based on how long they stayed in the queue, as in the CoDel (Controlled Delay) algorithm.</p>
+	 *
+	 * <p>When a worker takes a task, the time it spent in the queue is checked. If it has stayed above
+	 * {@code target} for at least {@code interval}, the queue enters the dropping state and the task is terminated
+	 * instead of being run. In the dropping state, further tasks are dropped at an increasing rate
+	 * (after intervals shrinking as {@code interval / sqrt(drops)}), until a task's queueing time falls below
+	 * the target. Short bursts pass through unharmed, while a standing queue is drained down to the target delay.</p>
+	 *
+	 * <p>When the queue is full, new tasks are rejected as with {@link #block()}.</p>
+	 *
+	 * @param target the acceptable queueing time.
+	 * @param interval how long the queueing time may stay above the target before tasks are dropped;
+	 * should be on the order of the worst-case task run time.
+	 * @param unit the time unit of {@code target} and {@code interval}.
+	 *
+	 * @return the policy.
+	 *
+	 * @throws IllegalArgumentException if {@code target <= 0} or {@code interval <= 0}.
+	 */
+	public static OverflowPolicy coDel(long target, long interval, TimeUnit unit) {
+		if (target <= 0 || interval <= 0) {
+			throw new IllegalArgumentException("bad CoDel parameters: target " + target + ", interval " + interval);
+		}
+		return new OverflowPolicy(Kind.CODEL, unit.toNanos(target), unit.toNanos(interval));
+	}
+
+}
@@ -0,0 +1,166 @@
+package org.shoushitsu.util.asyncservice;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <p>Instrumentation of a task queue and its sinks.</p>
+ *
+ * <p>Metrics are disabled by default; enable them with {@link ATaskQueue#enableMetrics()}.
+ * Once enabled, the sinks record submission timestamps on the tasks and count accepted, rejected and terminated
+ * submissions, and the workers of the asynchronous service record how long the tasks waited in the queue
+ * and how long they ran (including the callback). Counters are {@link LongAdder}s, and durations are recorded
+ * into {@linkplain LatencyHistogram histograms}, so recording scales well with the number of threads.
+ * While metrics are disabled, the only cost on the hot path is a volatile read.</p>
+ */
+public final class QueueMetrics {
+
+	private final ATaskQueue queue;
+
+	final List<SinkMetrics> sinks = new CopyOnWriteArrayList<>();
+
+	final LatencyHistogram waitTime = new LatencyHistogram();
+
+	final LatencyHistogram runTime = new LatencyHistogram();
+
+	final LongAdder taken = new LongAdder();
+
+	final LongAdder terminatedOnClose = new LongAdder();
+
+	final LongAdder shed = new LongAdder();
+
+	QueueMetrics(ATaskQueue queue) {
+		this.queue = queue;
+	}
+
+	final void recordTaken(Task<?> task, long now) {
+		taken.increment();
+		if (task.enqueuedAt != Task.NOT_TIMESTAMPED) {
+			waitTime.record(now - task.enqueuedAt);
+		}
+	}
+
+	/**
+	 * Take a snapshot of the metrics. The snapshot is not atomic with respect to concurrent queue operations,
+	 * except for the queue size.
+	 *
+	 * @return a new snapshot.
+	 */
+	public final Snapshot snapshot() {
+		List<SinkMetrics.Snapshot> sinkSnapshots = new ArrayList<>(sinks.size());
+		for (SinkMetrics sink : sinks) {
+			sinkSnapshots.add(sink.snapshot());
+		}
+		return new Snapshot(
+				queue.getClass().getSimpleName(),
+				queue.lockedSize(),
+				taken.sum(),
+				terminatedOnClose.sum(),
+				shed.sum(),
+				waitTime.snapshot(),
+				runTime.snapshot(),
+				Collections.unmodifiableList(sinkSnapshots),
+				queue.lockProfile == null ? null : queue.lockProfile.snapshot()
+		);
+	}
+
+	/**
+	 * An immutable copy of a queue's metrics.
+	 */
+	public static final class Snapshot {
+
+		/**
+		 * The simple class name of the queue.
+		 */
+		public final String queueType;
+
+		/**
+		 * The number of tasks in the queue at the moment of the snapshot,
+		 * or {@code -1} if the queue {@linkplain ATaskQueue#size() doesn't report its size}.
+		 */
+		public final int size;
+
+		/**
+		 * How many tasks were taken from the queue by the workers.
+		 * (Queues that merge tasks count each merged task once.)
+		 */
+		public final long taken;
+
+		/**
+		 * How many tasks left in the queue were terminated when the service was closed.
+		 */
+		public final long terminatedOnClose;
+
+		/**
+		 * How many tasks were terminated by the {@linkplain OverflowPolicy overflow policy} of the queue.
+		 */
+		public final long shed;
+
+		/**
+		 * How long the tasks waited in the queue before being taken by a worker.
+		 */
+		public final LatencyHistogram.Snapshot waitTime;
+
+		/**
+		 * How long the workers spent running the tasks, including the callbacks.
+		 */
+		public final LatencyHistogram.Snapshot runTime;
+
+		/**
+		 * The counters of the sinks of the queue, in the order of sink creation.
+		 */
+		public final List<SinkMetrics.Snapshot> sinks;
+
+		/**
+		 * The lock contention profile of the queue,
+		 * or {@code null} if {@linkplain ATaskQueue#enableLockProfiling() lock profiling} is not enabled.
+		 */
+		public final LockProfile.Snapshot lockProfile;
+
+		Snapshot(
+				String queueType,
+				int size,
+				long taken,
+				long terminatedOnClose,
+				long shed,
+				LatencyHistogram.Snapshot waitTime,
+				LatencyHistogram.Snapshot runTime,
+				List<SinkMetrics.Snapshot> sinks,
+				LockProfile.Snapshot lockProfile
+		) {
+			this.queueType = queueType;
+			this.size = size;
+			this.taken = taken;
+			this.terminatedOnClose = terminatedOnClose;
+			this.shed = shed;
+			this.waitTime = waitTime;
+			this.runTime = runTime;
+			this.sinks = sinks;
+			this.lockProfile = lockProfile;
+		}
+
+		@Override
+		public final String toString() {
+			StringBuilder sb = new StringBuilder()
+					.append(queueType)
+					.append(": size=").append(size)
+					.append(" taken=").append(taken)
+					.append(" terminatedOnClose=").append(terminatedOnClose)
+					.append(" shed=").append(shed)
+					.append("\n  wait: ").append(waitTime)
+					.append("\n  run: ").append(runTime);
+			for (SinkMetrics.Snapshot sink : sinks) {
+				sb.append("\n  ").append(sink);
+			}
+			if (lockProfile != null) {
+				sb.append("\n  ").append(lockProfile);
+			}
+			return sb.toString();
+		}
+
+	}
+
+}
@@ -0,0 +1,96 @@
+package org.shoushitsu.util.asyncservice;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>Describes a per-key rate limit for a {@link RateLimitingTaskSink}.</p>
+ *
+ * <p>Every key gets its own token bucket that holds up to {@code burst} tokens and is refilled
+ * at a constant rate; every submission takes one token. A submission that finds the bucket empty is either
+ * rejected (the default) or, if a {@linkplain #delaying(long, TimeUnit) maximum delay} is set,
+ * postponed until its token arrives.</p>
+ *
+ * <p>Buckets are created on the first submission with a key. Their number is bounded by
+ * {@link #withMaxKeys(int)}; when the bound is exceeded, buckets that have refilled completely are evicted
+ * (which doesn't change the limiting, since a full bucket is the same as a new one).</p>
+ */
+public final class RateLimit {
+
+	private static final int DEFAULT_MAX_KEYS = 10_000;
+
+	/**
+	 * Allow the specified number of submissions per second for every key, with bursts of up to {@code burst}
+	 * submissions.
+	 *
+	 * @param permitsPerSecond the refill rate of the buckets.
+	 * @param burst the capacity of the buckets.
+	 *
+	 * @return a rate limit object.
+	 *
+	 * @throws IllegalArgumentException if {@code permitsPerSecond} or {@code burst} is not positive.
+	 */
+	public static RateLimit perSecond(double permitsPerSecond, int burst) {
+		if (!(permitsPerSecond > 0)) {
+			throw new IllegalArgumentException("permits per second must be positive");
+		}
+		if (burst < 1) {
+			throw new IllegalArgumentException("burst must be positive");
+		}
+		long intervalNanos = Math.max(1, (long) (TimeUnit.SECONDS.toNanos(1) / permitsPerSecond));
+		return new RateLimit(intervalNanos, burst, DEFAULT_MAX_KEYS, 0);
+	}
+
+	final long intervalNanos;
+
+	final int burst;
+
+	final int maxKeys;
+
+	final long maxDelayNanos;
+
+	private RateLimit(long intervalNanos, int burst, int maxKeys, long maxDelayNanos) {
+		this.intervalNanos = intervalNanos;
+		this.burst = burst;
+		this.maxKeys = maxKeys;
+		this.maxDelayNanos = maxDelayNanos;
+	}
+
+	/**
+	 * Set the maximum number of tracked keys. The default is {@code 10000}.
+	 * If all the tracked buckets are in use when a new key arrives, the bucket closest to full is evicted,
+	 * so the keys that are the most active stay limited.
+	 *
+	 * @param maxKeys the maximum number of buckets.
+	 *
+	 * @return a rate limit object that has the same specs as this, except for the maximum number of keys.
+	 *
+	 * @throws IllegalArgumentException if {@code maxKeys} is not positive.
+	 */
+	public RateLimit withMaxKeys(int maxKeys) {
+		if (maxKeys < 1) {
+			throw new IllegalArgumentException("max keys must be positive");
+		}
+		return new RateLimit(intervalNanos, burst, maxKeys, maxDelayNanos);
+	}
+
+	/**
+	 * Postpone the submissions that find their bucket empty instead of rejecting them, unless they would have
+	 * to wait for longer than {@code maxDelay}. Postponed submissions are parked in the
+	 * {@link ScheduledExecutorService} of the sink, so neither the submitter nor the task queue waits for them.
+	 *
+	 * @param maxDelay the longest delay; {@code 0} means that the submissions are rejected.
+	 * @param unit the time unit of {@code maxDelay}.
+	 *
+	 * @return a rate limit object that has the same specs as this, except for the maximum delay.
+	 *
+	 * @throws IllegalArgumentException if {@code maxDelay} is negative.
+	 */
+	public RateLimit delaying(long maxDelay, TimeUnit unit) {
+		if (maxDelay < 0) {
+			throw new IllegalArgumentException("max delay must be non-negative");
+		}
+		return new RateLimit(intervalNanos, burst, maxKeys, unit.toNanos(maxDelay));
+	}
+
+}
@@ -0,0 +1,247 @@
+package org.shoushitsu.util.asyncservice;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * <p>A wrapper around a {@link TaskSink} that limits the rate of submissions per key
+ * (for example, per tenant) with token buckets, as described by a {@link RateLimit}.</p>
+ *
+ * <p>The buckets are lock-free: a bucket is a single {@link AtomicLong} holding the time at which it will be full
+ * again, and taking a token is a compare-and-set on it, so the refill is computed from the clock instead of
+ * being performed by a timer. The task queue is only touched by the submissions that got their tokens.</p>
+ *
+ * <p>If the rate limit {@linkplain RateLimit#delaying(long, TimeUnit) allows delays}, a submission
+ * that has to wait for its token is parked in the scheduler, and is submitted from the scheduler's thread with
+ * {@link TaskSink#offer(Callable, Callback) offer()} when the token arrives. If the queue has no space
+ * for it at that moment, a {@link RejectedExecutionException} is reported to the callback.
+ * If the scheduler rejects the submission (most likely because it has been shut down),
+ * the callback's {@link Callback#terminated() terminated()} method is invoked.</p>
+ *
+ * <p>The keys must be suitable for use as {@link java.util.Map} keys; {@code null} is a valid key.</p>
+ *
+ * <p>Obtain the instances of this class with {@link TaskSink#withRateLimit(RateLimit, ScheduledExecutorService)}.</p>
+ */
+public final class RateLimitingTaskSink {
+
+	private static final Object NULL_KEY = new Object();
+
+	private final TaskSink sink;
+
+	private final RateLimit limit;
+
+	private final ScheduledExecutorService scheduler;
+
+	/* How far into the future a bucket may be booked: the time to refill a bucket from empty. */
+	private final long burstNanos;
+
+	private final ConcurrentHashMap<Object, AtomicLong> buckets = new ConcurrentHashMap<>();
+
+	private final ReentrantLock evictionLock = new ReentrantLock();
+
+	/* How many buckets an eviction removes beyond the maximum, so that its scan is amortized over as many new keys. */
+	private final int evictionBatch;
+
+	private final LongAdder rejected = new LongAdder();
+
+	private final LongAdder delayed = new LongAdder();
+
+	RateLimitingTaskSink(TaskSink sink, RateLimit limit, ScheduledExecutorService scheduler) {
+		this.sink = sink;
+		this.limit = limit;
+		this.scheduler = scheduler;
+		long burstNanos = limit.intervalNanos * limit.burst;
+		this.burstNanos = burstNanos / limit.burst == limit.intervalNanos ? burstNanos : Long.MAX_VALUE / 2;
+		this.evictionBatch = limit.maxKeys / 8;
+	}
+
+	/**
+	 * Submit a computation if the rate limit of the key allows it and there is space in the queue.
+	 * If the limit allows delays and the computation has to wait for its token, it is accepted
+	 * and submitted later.
+	 *
+	 * @param key the rate-limiting key of the computation.
+	 *
+	 * @return {@code false} if the rate limit is exceeded or the task queue is overflowing and the task can't
+	 * be processed (that is, no method on the callback will be invoked), {@code true} otherwise.
+	 *
+	 * @see TaskSink#offer(Callable, Callback)
+	 */
+	public final <R> boolean offer(Object key, Callable<? extends R> computation, Callback<? super R> callback) {
+		AtomicLong bucket = bucket(key);
+		long wait = acquire(bucket, limit.maxDelayNanos);
+		if (wait < 0) {
+			rejected.increment();
+			return false;
+		}
+		if (wait > 0) {
+			delayed.increment();
+			try {
+				scheduler.schedule(() -> {
+					if (!sink.offer(computation, callback) && callback != null) {
+						callback.failure(new RejectedExecutionException("the task queue is full"));
+					}
+				}, wait, TimeUnit.NANOSECONDS);
+			} catch (RejectedExecutionException e) {
+				if (callback != null) {
+					callback.terminated();
+				}
+			}
+			return true;
+		}
+		if (sink.offer(computation, callback)) {
+			return true;
+		}
+		// the token wasn't used, give it back
+		bucket.addAndGet(-limit.intervalNanos);
+		rejected.increment();
+		return false;
+	}
+
+	/**
+	 * Submit a computation, waiting for the token of the key and then for the queue to have space if necessary.
+	 * The calling thread waits for the token regardless of the {@linkplain RateLimit#delaying(long, TimeUnit)
+	 * maximum delay}, without holding any lock.
+	 *
+	 * @param key the rate-limiting key of the computation.
+	 *
+	 * @throws InterruptedException if interrupted while waiting for the token or for the space in the queue.
+	 *
+	 * @see TaskSink#put(Callable, Callback)
+	 */
+	public final <R> void put(Object key, Callable<? extends R> computation, Callback<? super R> callback) throws InterruptedException {
+		long wait = acquire(bucket(key), Long.MAX_VALUE);
+		if (wait > 0) {
+			delayed.increment();
+			TimeUnit.NANOSECONDS.sleep(wait);
+		}
+		sink.put(computation, callback);
+	}
+
+	/**
+	 * @return how many submissions were rejected because of the rate limit or the queue overflow.
+	 */
+	public final long rejectedCount() {
+		return rejected.sum();
+	}
+
+	/**
+	 * @return how many submissions had to wait for their tokens.
+	 */
+	public final long delayedCount() {
+		return delayed.sum();
+	}
+
+	/**
+	 * @return the number of keys with a bucket.
+	 */
+	public final int trackedKeys() {
+		return buckets.size();
+	}
+
+	/**
+	 * Take a token from the bucket, booking a future one if the bucket is empty.
+	 *
+	 * @return how long to wait for the token, or {@code -1} if it is more than {@code maxWaitNanos}
+	 * (in which case the bucket is left as it was).
+	 */
+	private long acquire(AtomicLong bucket, long maxWaitNanos) {
+		long now = System.nanoTime();
+		while (true) {
+			long fullAt = bucket.get();
+			long booked = (fullAt - now > 0 ? fullAt : now) + limit.intervalNanos;
+			long wait = booked - now - burstNanos;
+			if (wait > maxWaitNanos) {
+				return -1;
+			}
+			if (bucket.compareAndSet(fullAt, booked)) {
+				return Math.max(wait, 0);
+			}
+		}
+	}
+
+	private AtomicLong bucket(Object key) {
+		Object mapKey = key == null ? NULL_KEY : key;
+		AtomicLong bucket = buckets.get(mapKey);
+		if (bucket != null) {
+			return bucket;
+		}
+		AtomicLong created = new AtomicLong(System.nanoTime());
+		bucket = buckets.putIfAbsent(mapKey, created);
+		if (bucket != null) {
+			return bucket;
+		}
+		if (buckets.size() > limit.maxKeys) {
+			evict(mapKey);
+		}
+		return created;
+	}
+
+	/*
+	 * A full bucket is indistinguishable from a new one, so all the full buckets are dropped. If that is not enough,
+	 * the buckets closest to full are dropped until there is room for evictionBatch more keys, which lets their keys
+	 * burst again a little earlier than they should. Scanning the map is linear in the number of keys, but it happens
+	 * once per evictionBatch new keys, and only one submitter does it at a time; the others don't wait for it.
+	 * A submission that is taking a token from a bucket being evicted may have its token forgotten; the limit is
+	 * approximate in this respect.
+	 */
+	private void evict(Object keep) {
+		if (!evictionLock.tryLock()) {
+			// someone else is making room
+			return;
+		}
+		try {
+			long now = System.nanoTime();
+			List<Candidate> busy = new ArrayList<>();
+			for (Map.Entry<Object, AtomicLong> entry : buckets.entrySet()) {
+				if (entry.getKey() == keep) {
+					continue;
+				}
+				AtomicLong bucket = entry.getValue();
+				long untilFull = bucket.get() - now;
+				if (untilFull <= 0) {
+					buckets.remove(entry.getKey(), bucket);
+				} else {
+					busy.add(new Candidate(entry.getKey(), bucket, untilFull));
+				}
+			}
+			int excess = buckets.size() - (limit.maxKeys - evictionBatch);
+			if (excess > 0) {
+				busy.sort((a, b) -> Long.compare(a.untilFull, b.untilFull));
+				for (int i = 0; i < excess && i < busy.size(); ++i) {
+					Candidate victim = busy.get(i);
+					buckets.remove(victim.key, victim.bucket);
+				}
+			}
+		} finally {
+			evictionLock.unlock();
+		}
+	}
+
+	private static final class Candidate {
+
+		final Object key;
+
+		final AtomicLong bucket;
+
+		/* Snapshot, so that the order doesn't change while sorting. */
+		final long untilFull;
+
+		Candidate(Object key, AtomicLong bucket, long untilFull) {
+			this.key = key;
+			this.bucket = bucket;
+			this.untilFull = untilFull;
+		}
+
+	}
+
+}
@@ -0,0 +1,228 @@
+package org.shoushitsu.util.asyncservice;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+/**
+ * <p>Describes how failed computations should be retried.</p>
+ *
+ * <p>A policy limits the total number of attempts, specifies an exponential backoff between them
+ * (optionally randomized with jitter), and decides which failures are worth retrying at all.
+ * Delayed retries are parked in a {@link ScheduledExecutorService} supplied by the user,
+ * so no worker thread of an asynchronous service is occupied while waiting for the next attempt.</p>
+ *
+ * <p>A policy can be attached to a sink with {@link TaskSink#withRetry(RetryPolicy, ScheduledExecutorService)}
+ * or to an {@link AsyncChain} stage with {@link #retrying(AsyncChain.Function, ScheduledExecutorService)}.</p>
+ */
+public final class RetryPolicy {
+
+	/*
+	 * Interrupts and cancellations are requests to stop, and errors are not expected to go away on their own.
+	 */
+	private static final Predicate<Throwable> DEFAULT_RETRYABLE = t ->
+			!(t instanceof InterruptedException || t instanceof CancellationException || t instanceof Error);
+
+	/**
+	 * Make at most the specified number of attempts (including the first one), retrying immediately.
+	 * All failures except {@link InterruptedException}s, {@link CancellationException}s and {@link Error}s
+	 * are considered retryable.
+	 *
+	 * @param maxAttempts the maximum number of attempts.
+	 *
+	 * @return a retry policy object.
+	 *
+	 * @throws IllegalArgumentException if {@code maxAttempts} is not positive.
+	 */
+	public static RetryPolicy maxAttempts(int maxAttempts) {
+		return new RetryPolicy(maxAttempts, 0, 0, 0.0, DEFAULT_RETRYABLE);
+	}
+
+	private final int maxAttempts;
+
+	private final long initialDelayNanos;
+
+	private final long maxDelayNanos;
+
+	private final double jitter;
+
+	private final Predicate<? super Throwable> retryable;
+
+	/**
+	 * @throws IllegalArgumentException if {@code maxAttempts} is not positive.
+	 */
+	private RetryPolicy(int maxAttempts, long initialDelayNanos, long maxDelayNanos, double jitter, Predicate<? super Throwable> retryable) {
+		if (maxAttempts < 1) {
+			throw new IllegalArgumentException("max attempts must be positive");
+		}
+		this.maxAttempts = maxAttempts;
+		this.initialDelayNanos = initialDelayNanos;
+		this.maxDelayNanos = maxDelayNanos;
+		this.jitter = jitter;
+		this.retryable = retryable;
+	}
+
+	/**
+	 * Set an exponential backoff for the retries. The delay before the first retry is {@code initialDelay};
+	 * every subsequent delay is twice the previous one, but never more than {@code maxDelay}.
+	 *
+	 * @param initialDelay the delay before the first retry.
+	 * @param maxDelay the upper bound for the delay between retries.
+	 * @param unit the time unit of both delays.
+	 *
+	 * @return a retry policy object that has the same specs as this, except for the backoff.
+	 *
+	 * @throws IllegalArgumentException if either delay is negative, or if {@code initialDelay > maxDelay}.
+	 */
+	public RetryPolicy withBackoff(long initialDelay, long maxDelay, TimeUnit unit) {
+		if (initialDelay < 0 || initialDelay > maxDelay) {
+			throw new IllegalArgumentException("bad backoff delays: " + initialDelay + ", " + maxDelay);
+		}
+		return new RetryPolicy(maxAttempts, unit.toNanos(initialDelay), unit.toNanos(maxDelay), jitter, retryable);
+	}
+
+	/**
+	 * <p>Randomize the backoff delays. Every delay is multiplied by a random factor
+	 * from {@code 1 - jitter} (inclusive) to {@code 1} (exclusive).</p>
+	 *
+	 * <p>Jitter spreads out the retries of computations that failed at the same moment
+	 * (for example, because of a dependency outage), so that they don't hit the dependency all at once again.</p>
+	 *
+	 * @param jitter the jitter fraction, from {@code 0} (no randomization) to {@code 1} ("full jitter").
+	 *
+	 * @return a retry policy object that has the same specs as this, except for the jitter.
+	 *
+	 * @throws IllegalArgumentException if {@code jitter} is not within {@code [0, 1]}.
+	 */
+	public RetryPolicy withJitter(double jitter) {
+		if (!(jitter >= 0.0 && jitter <= 1.0)) {
+			throw new IllegalArgumentException("bad jitter: " + jitter);
+		}
+		return new RetryPolicy(maxAttempts, initialDelayNanos, maxDelayNanos, jitter, retryable);
+	}
+
+	/**
+	 * Only retry the failures that match the specified predicate.
+	 * Other failures are reported to the callback immediately.
+	 *
+	 * @param retryable the predicate that decides whether a failure should be retried.
+	 *
+	 * @return a retry policy object that has the same specs as this, except for the retryable failures.
+	 *
+	 * @throws IllegalArgumentException if {@code retryable == null}.
+	 */
+	public RetryPolicy retryingOn(Predicate<? super Throwable> retryable) {
+		if (retryable == null) {
+			throw new IllegalArgumentException("retryable must be non-null");
+		}
+		return new RetryPolicy(maxAttempts, initialDelayNanos, maxDelayNanos, jitter, retryable);
+	}
+
+	/**
+	 * @param failedAttempts how many attempts have been made and failed so far.
+	 * @param exception the failure of the last attempt.
+	 */
+	final boolean shouldRetry(int failedAttempts, Throwable exception) {
+		return failedAttempts < maxAttempts && retryable.test(exception);
+	}
+
+	/**
+	 * @param failedAttempts how many attempts have been made and failed so far; must be positive.
+	 */
+	final long delayNanos(int failedAttempts) {
+		if (initialDelayNanos == 0) {
+			return 0;
+		}
+		long delay = maxDelayNanos;
+		int shift = failedAttempts - 1;
+		if (shift < Long.numberOfLeadingZeros(initialDelayNanos) - 1) {
+			delay = Math.min(delay, initialDelayNanos << shift);
+		}
+		if (jitter != 0.0) {
+			delay -= (long) (delay * jitter * ThreadLocalRandom.current().nextDouble());
+		}
+		return delay;
+	}
+
+	/**
+	 * Wrap a chain stage so that it is retried according to this policy.
+	 * Failures thrown by {@code function} itself are handled the same way as the ones reported to its callback.
+	 *
+	 * @param function the stage to retry.
+	 * @param scheduler the executor to park delayed retries in. The retries will be started on its threads.
+	 *
+	 * @param <I> the type of the stage's parameter.
+	 * @param <O> the type of the stage's result.
+	 *
+	 * @return a stage that behaves like {@code function}, but retries its failures.
+	 */
+	public <I, O> AsyncChain.Function<I, O> retrying(AsyncChain.Function<I, O> function, ScheduledExecutorService scheduler) {
+		return (input, callback) -> new StageAttempt<>(this, scheduler, function, input, callback).run();
+	}
+
+	private static final class StageAttempt<I, O> implements Callback<O>, Runnable {
+
+		private final RetryPolicy policy;
+
+		private final ScheduledExecutorService scheduler;
+
+		private final AsyncChain.Function<I, O> function;
+
+		private final I input;
+
+		private final Callback<? super O> callback;
+
+		private int failedAttempts;
+
+		StageAttempt(
+				RetryPolicy policy,
+				ScheduledExecutorService scheduler,
+				AsyncChain.Function<I, O> function,
+				I input,
+				Callback<? super O> callback
+		) {
+			this.policy = policy;
+			this.scheduler = scheduler;
+			this.function = function;
+			this.input = input;
+			this.callback = callback;
+		}
+
+		@Override
+		public final void run() {
+			try {
+				function.compute(input, this);
+			} catch (Exception e) {
+				failure(e);
+			}
+		}
+
+		@Override
+		public final void success(O data) {
+			callback.success(data);
+		}
+
+		@Override
+		public final void failure(Throwable exception) {
+			if (!policy.shouldRetry(++failedAttempts, exception)) {
+				callback.failure(exception);
+				return;
+			}
+			try {
+				scheduler.schedule(this, policy.delayNanos(failedAttempts), TimeUnit.NANOSECONDS);
+			} catch (RejectedExecutionException e) {
+				callback.terminated();
+			}
+		}
+
+		@Override
+		public final void terminated() {
+			callback.terminated();
+		}
+
+	}
+
+}
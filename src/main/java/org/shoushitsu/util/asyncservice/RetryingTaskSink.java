@@ -0,0 +1,112 @@
+package org.shoushitsu.util.asyncservice;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>A wrapper around a {@link TaskSink} that resubmits failed computations according to a {@link RetryPolicy}.</p>
+ *
+ * <p>Only the final outcome of a computation is reported to its callback. While waiting for the next attempt,
+ * the computation is parked in the scheduler, and is resubmitted from the scheduler's thread with
+ * {@link TaskSink#offer(Callable, Callback) offer()}. If the queue has no space for the retry at that moment,
+ * the failure of the last attempt is reported to the callback.
+ * If the scheduler rejects a retry (most likely because it has been shut down),
+ * the callback's {@link Callback#terminated() terminated()} method is invoked.</p>
+ *
+ * <p>Obtain the instances of this class with {@link TaskSink#withRetry(RetryPolicy, ScheduledExecutorService)}.</p>
+ */
+public final class RetryingTaskSink {
+
+	private final TaskSink sink;
+
+	private final RetryPolicy policy;
+
+	private final ScheduledExecutorService scheduler;
+
+	RetryingTaskSink(TaskSink sink, RetryPolicy policy, ScheduledExecutorService scheduler) {
+		this.sink = sink;
+		this.policy = policy;
+		this.scheduler = scheduler;
+	}
+
+	/**
+	 * Submit a computation if there is space in the queue.
+	 *
+	 * @return {@code false} if the task queue is overflowing and the task can't be processed
+	 * (that is, no method on the callback will be invoked), {@code true} otherwise.
+	 *
+	 * @see TaskSink#offer(Callable, Callback)
+	 */
+	public final <R> boolean offer(Callable<? extends R> computation, Callback<? super R> callback) {
+		return sink.offer(computation, new Attempt<R>(computation, callback));
+	}
+
+	/**
+	 * Submit a computation, waiting for the queue to have space if necessary.
+	 * Only the first attempt may wait; retries never block the scheduler's threads.
+	 *
+	 * @throws InterruptedException if interrupted while waiting for the space in the queue to become available.
+	 *
+	 * @see TaskSink#put(Callable, Callback)
+	 */
+	public final <R> void put(Callable<? extends R> computation, Callback<? super R> callback) throws InterruptedException {
+		sink.put(computation, new Attempt<R>(computation, callback));
+	}
+
+	private final class Attempt<R> implements Callback<R>, Runnable {
+
+		private final Callable<? extends R> computation;
+
+		private final Callback<? super R> callback;
+
+		private int failedAttempts;
+
+		private Throwable lastFailure;
+
+		Attempt(Callable<? extends R> computation, Callback<? super R> callback) {
+			this.computation = computation;
+			this.callback = callback;
+		}
+
+		@Override
+		public final void run() {
+			if (!sink.offer(computation, this) && callback != null) {
+				callback.failure(lastFailure);
+			}
+		}
+
+		@Override
+		public final void success(R data) {
+			if (callback != null) {
+				callback.success(data);
+			}
+		}
+
+		@Override
+		public final void failure(Throwable exception) {
+			if (!policy.shouldRetry(++failedAttempts, exception)) {
+				if (callback != null) {
+					callback.failure(exception);
+				}
+				return;
+			}
+			lastFailure = exception;
+			try {
+				scheduler.schedule(this, policy.delayNanos(failedAttempts), TimeUnit.NANOSECONDS);
+			} catch (RejectedExecutionException e) {
+				terminated();
+			}
+		}
+
+		@Override
+		public final void terminated() {
+			if (callback != null) {
+				callback.terminated();
+			}
+		}
+
+	}
+
+}
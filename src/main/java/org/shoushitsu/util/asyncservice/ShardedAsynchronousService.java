@@ -0,0 +1,104 @@
+package org.shoushitsu.util.asyncservice;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Function;
+import java.util.function.IntFunction;
+import java.util.function.Supplier;
+
+/**
+ * <p>An asynchronous service made of several independent shards, each with its own task queue and workers.</p>
+ *
+ * <p>The lock of a task queue serializes all operations on it, which caps the throughput of a single service
+ * at roughly one core's worth of queue operations. A sharded service spreads the load over several queues
+ * and locks, so the throughput scales with the number of shards. Submit computations through the
+ * {@linkplain #sink routing sink}: computations with a key always go to the same shard, so computations
+ * with equal keys are ordered with respect to each other (as far as the shard's queue preserves order);
+ * keyless computations go to the less loaded of two randomly chosen shards.</p>
+ *
+ * @param <Q> the type of the task queues of the shards.
+ */
+public final class ShardedAsynchronousService<Q extends ATaskQueue> implements AutoCloseable {
+
+	/**
+	 * The shards of this service, in the order of their indices.
+	 */
+	public final List<DummyAsynchronousService<Q>> shards;
+
+	/**
+	 * The sink that routes computations to the shards.
+	 */
+	public final ShardedTaskSink sink;
+
+	/**
+	 * Create a sharded service.
+	 *
+	 * @param shardCount the number of shards.
+	 * @param queueFactory creates the task queue of each shard.
+	 * @param sinkSelector chooses the sink of a shard's queue that the routing sink feeds into.
+	 * @param threadingByShard specifies how many threads to use in each shard and how to create them,
+	 * by the index of the shard.
+	 * @param terminationTimeout how long to wait for the workers of each shard to complete pending tasks
+	 * when {@linkplain #close() closing} the service.
+	 *
+	 * @throws IllegalArgumentException if {@code shardCount < 1}, or any of the functions is {@code null}.
+	 */
+	public ShardedAsynchronousService(
+			int shardCount,
+			Supplier<? extends Q> queueFactory,
+			Function<? super Q, TaskSink> sinkSelector,
+			IntFunction<Threading> threadingByShard,
+			int terminationTimeout
+	) {
+		if (shardCount < 1) {
+			throw new IllegalArgumentException("bad shardCount: " + shardCount);
+		}
+		if (queueFactory == null || sinkSelector == null || threadingByShard == null) {
+			throw new IllegalArgumentException("queueFactory, sinkSelector and threadingByShard must be non-null");
+		}
+		List<DummyAsynchronousService<Q>> services = new ArrayList<>(shardCount);
+		TaskSink[] sinks = new TaskSink[shardCount];
+		try {
+			for (int i = 0; i < shardCount; ++i) {
+				Q queue = queueFactory.get();
+				sinks[i] = sinkSelector.apply(queue);
+				services.add(new DummyAsynchronousService<>(queue, threadingByShard.apply(i), terminationTimeout));
+			}
+		} catch (RuntimeException | Error e) {
+			services.forEach(DummyAsynchronousService::close);
+			throw e;
+		}
+		shards = Collections.unmodifiableList(services);
+		sink = new ShardedTaskSink(sinks);
+	}
+
+	/**
+	 * Take snapshots of the {@linkplain ATaskQueue#enableMetrics() metrics} of the shards' queues.
+	 *
+	 * @return the snapshots in the order of shard indices, with {@code null}s for the shards that don't have
+	 * metrics enabled.
+	 */
+	public final List<QueueMetrics.Snapshot> metricsSnapshots() {
+		List<QueueMetrics.Snapshot> snapshots = new ArrayList<>(shards.size());
+		for (DummyAsynchronousService<Q> shard : shards) {
+			snapshots.add(shard.metricsSnapshot());
+		}
+		return snapshots;
+	}
+
+	/**
+	 * Close all the shards. The shards stop accepting tasks at once; then they are closed one by one,
+	 * each waiting for its workers for up to the termination timeout.
+	 */
+	@Override
+	public final void close() {
+		for (DummyAsynchronousService<Q> shard : shards) {
+			shard.queue.terminate();
+		}
+		for (DummyAsynchronousService<Q> shard : shards) {
+			shard.close();
+		}
+	}
+
+}
@@ -0,0 +1,167 @@
+package org.shoushitsu.util.asyncservice;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * <p>The routing sink of a {@link ShardedAsynchronousService}.</p>
+ *
+ * <p>Computations submitted with a key are routed to the shard chosen by the key's hash code.
+ * Keyless computations are routed using the "power of two choices": two shards are picked at random,
+ * and the one with fewer computations in flight gets the computation. The number of computations in flight
+ * is tracked by this sink without touching the queue locks, so it doesn't count the tasks submitted
+ * to the shards' queues directly.</p>
+ */
+public final class ShardedTaskSink {
+
+	private final TaskSink[] sinks;
+
+	/* The counters are padded, so that the counters of neighbouring shards don't share a cache line. */
+	private final PaddedAtomicLong[] inFlight;
+
+	ShardedTaskSink(TaskSink[] sinks) {
+		this(sinks, PaddedAtomicLong.PADDING);
+	}
+
+	/**
+	 * @param padding see {@link PaddedAtomicLong#PaddedAtomicLong(int)}.
+	 */
+	ShardedTaskSink(TaskSink[] sinks, int padding) {
+		this.sinks = sinks;
+		this.inFlight = new PaddedAtomicLong[sinks.length];
+		for (int i = 0; i < inFlight.length; ++i) {
+			inFlight[i] = new PaddedAtomicLong(padding);
+		}
+	}
+
+	/**
+	 * Get the index of the shard computations with the specified key are routed to.
+	 *
+	 * @param key the key; may be {@code null}, in which case it is routed as any other key.
+	 *
+	 * @return the index of the shard.
+	 */
+	public final int shardOf(Object key) {
+		int h = key == null ? 0 : key.hashCode();
+		h ^= h >>> 16;
+		return Math.floorMod(h * 0x9E3779B9, sinks.length);
+	}
+
+	private int leastLoadedShard() {
+		int n = sinks.length;
+		if (n == 1) {
+			return 0;
+		}
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		int a = random.nextInt(n);
+		int b = random.nextInt(n - 1);
+		if (b >= a) {
+			++b;
+		}
+		return inFlight[a].get() <= inFlight[b].get() ? a : b;
+	}
+
+	/**
+	 * Submit a computation to the shard of the specified key, if there is space in its queue.
+	 *
+	 * @see TaskSink#offer(Callable, Callback)
+	 */
+	public final <R> boolean offer(Object key, Callable<? extends R> computation, Callback<? super R> callback) {
+		return offerTo(shardOf(key), computation, callback);
+	}
+
+	/**
+	 * Submit a computation to the less loaded of two random shards, if there is space in its queue.
+	 *
+	 * @see TaskSink#offer(Callable, Callback)
+	 */
+	public final <R> boolean offer(Callable<? extends R> computation, Callback<? super R> callback) {
+		return offerTo(leastLoadedShard(), computation, callback);
+	}
+
+	/**
+	 * Submit a computation to the shard of the specified key, waiting for its queue to have space if necessary.
+	 *
+	 * @throws InterruptedException if interrupted while waiting for the space in the queue to become available.
+	 *
+	 * @see TaskSink#put(Callable, Callback)
+	 */
+	public final <R> void put(Object key, Callable<? extends R> computation, Callback<? super R> callback) throws InterruptedException {
+		putTo(shardOf(key), computation, callback);
+	}
+
+	/**
+	 * Submit a computation to the less loaded of two random shards, waiting for its queue to have space if necessary.
+	 *
+	 * @throws InterruptedException if interrupted while waiting for the space in the queue to become available.
+	 *
+	 * @see TaskSink#put(Callable, Callback)
+	 */
+	public final <R> void put(Callable<? extends R> computation, Callback<? super R> callback) throws InterruptedException {
+		putTo(leastLoadedShard(), computation, callback);
+	}
+
+	private <R> boolean offerTo(int shard, Callable<? extends R> computation, Callback<? super R> callback) {
+		inFlight[shard].incrementAndGet();
+		boolean accepted = false;
+		try {
+			accepted = sinks[shard].offer(computation, new Counting<>(shard, callback));
+		} finally {
+			if (!accepted) {
+				inFlight[shard].decrementAndGet();
+			}
+		}
+		return accepted;
+	}
+
+	private <R> void putTo(int shard, Callable<? extends R> computation, Callback<? super R> callback) throws InterruptedException {
+		inFlight[shard].incrementAndGet();
+		boolean accepted = false;
+		try {
+			sinks[shard].put(computation, new Counting<>(shard, callback));
+			accepted = true;
+		} finally {
+			if (!accepted) {
+				inFlight[shard].decrementAndGet();
+			}
+		}
+	}
+
+	private final class Counting<R> implements Callback<R> {
+
+		private final int shard;
+
+		private final Callback<? super R> callback;
+
+		Counting(int shard, Callback<? super R> callback) {
+			this.shard = shard;
+			this.callback = callback;
+		}
+
+		@Override
+		public final void success(R data) {
+			inFlight[shard].decrementAndGet();
+			if (callback != null) {
+				callback.success(data);
+			}
+		}
+
+		@Override
+		public final void failure(Throwable exception) {
+			inFlight[shard].decrementAndGet();
+			if (callback != null) {
+				callback.failure(exception);
+			}
+		}
+
+		@Override
+		public final void terminated() {
+			inFlight[shard].decrementAndGet();
+			if (callback != null) {
+				callback.terminated();
+			}
+		}
+
+	}
+
+}
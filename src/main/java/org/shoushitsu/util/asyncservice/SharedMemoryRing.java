@@ -0,0 +1,298 @@
+package org.shoushitsu.util.asyncservice;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * <p>A multi-producer, multi-consumer ring buffer of variable-length records in a memory-mapped file,
+ * shared between the processes that map the file.</p>
+ *
+ * <p>The file starts with a header: the magic number and the capacity of the data area, then the head and
+ * the tail positions, each on its own cache line. Positions grow freely and are taken modulo the capacity.
+ * A record is its length (an {@code int}) followed by its bytes, aligned to 8 bytes; a record that doesn't fit
+ * before the end of the data area is preceded by a padding marker and starts at the beginning.</p>
+ *
+ * <p>Java 8 has no atomic operations on mapped memory, so the ring is guarded by a {@link FileLock} on the header
+ * instead of compare-and-set loops. The lock is an {@code fcntl} lock, which also orders the memory accesses
+ * of the processes; within a process, a monitor per file orders them and keeps the threads from colliding on
+ * the lock, which is held per process. Every operation holds the lock for a few memory accesses.</p>
+ */
+final class SharedMemoryRing implements Closeable {
+
+	private static final int MAGIC = 0x53484d52;
+
+	private static final int MAGIC_OFFSET = 0;
+	private static final int CAPACITY_OFFSET = 4;
+	private static final int HEAD_OFFSET = 64;
+	private static final int TAIL_OFFSET = 128;
+	private static final int HEADER_SIZE = 192;
+
+	private static final int PADDING = -1;
+
+	/* One monitor per file in this process, see the class comment; removed when the last ring of the file is closed. */
+	static final ConcurrentHashMap<Path, Monitor> MONITORS = new ConcurrentHashMap<>();
+
+	private static final class Monitor {
+
+		/* The number of open rings of the file; guarded by MONITORS. */
+		private int users;
+
+	}
+
+	private static Monitor acquireMonitor(Path realPath) {
+		return MONITORS.compute(realPath, (path, monitor) -> {
+			if (monitor == null) {
+				monitor = new Monitor();
+			}
+			++monitor.users;
+			return monitor;
+		});
+	}
+
+	private static void releaseMonitor(Path realPath) {
+		MONITORS.computeIfPresent(realPath, (path, monitor) -> --monitor.users == 0 ? null : monitor);
+	}
+
+	/**
+	 * Open the ring in the specified file, creating and initializing the file if necessary.
+	 *
+	 * @param capacity the size of the data area in bytes, rounded up to a multiple of 8.
+	 *
+	 * @throws IllegalArgumentException if {@code capacity < 16}, or the file holds a ring of another capacity.
+	 * @throws IOException if the file can't be opened or is not a ring.
+	 */
+	static SharedMemoryRing create(Path file, int capacity) throws IOException {
+		if (capacity < 16 || capacity > Integer.MAX_VALUE - HEADER_SIZE - 8) {
+			throw new IllegalArgumentException("bad ring capacity: " + capacity);
+		}
+		return new SharedMemoryRing(file, align(capacity), true);
+	}
+
+	/**
+	 * Open the ring in the specified file, which must have been {@linkplain #create(Path, int) created} already.
+	 *
+	 * @throws IOException if the file can't be opened or is not a ring.
+	 */
+	static SharedMemoryRing open(Path file) throws IOException {
+		return new SharedMemoryRing(file, 0, false);
+	}
+
+	private static int align(int size) {
+		return (size + 7) & ~7;
+	}
+
+	private final Path file;
+
+	private final Path realPath;
+
+	private final Monitor monitor;
+
+	private final int capacity;
+
+	private final MappedByteBuffer buffer;
+
+	/* Guarded by the monitor. Reopened if a thread is interrupted while waiting for the lock. */
+	private FileChannel channel;
+
+	/* Guarded by the monitor. */
+	private boolean closed;
+
+	private SharedMemoryRing(Path file, int capacity, boolean create) throws IOException {
+		this.file = file;
+		channel = create
+				? FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)
+				: FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		try {
+			realPath = file.toRealPath();
+		} catch (IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+		monitor = acquireMonitor(realPath);
+		try {
+			synchronized (monitor) {
+				FileLock lock = lock();
+				try {
+					ByteBuffer header = ByteBuffer.allocate(8);
+					while (header.hasRemaining() && channel.read(header, header.position()) >= 0) {
+					}
+					int magic = header.getInt(MAGIC_OFFSET);
+					if (magic == 0 && create) {
+						header.putInt(MAGIC_OFFSET, MAGIC).putInt(CAPACITY_OFFSET, capacity).clear();
+						channel.write(ByteBuffer.allocate(1), HEADER_SIZE + capacity - 1);
+						while (header.hasRemaining()) {
+							channel.write(header, header.position());
+						}
+					} else if (magic != MAGIC) {
+						throw new IOException("not a ring: " + file);
+					} else if (create && header.getInt(CAPACITY_OFFSET) != capacity) {
+						throw new IllegalArgumentException(
+								"the ring has the capacity of " + header.getInt(CAPACITY_OFFSET) + ": " + file
+						);
+					} else {
+						capacity = header.getInt(CAPACITY_OFFSET);
+					}
+				} finally {
+					lock.release();
+				}
+			}
+			this.capacity = capacity;
+			buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + capacity);
+		} catch (IOException | RuntimeException e) {
+			channel.close();
+			releaseMonitor(realPath);
+			throw e;
+		}
+	}
+
+	/**
+	 * Must be called under the monitor. Waiting for the lock is not interruptible; an interrupt is preserved.
+	 */
+	private FileLock lock() throws IOException {
+		if (closed) {
+			throw new IOException("the ring is closed: " + file);
+		}
+		boolean interrupted = Thread.interrupted();
+		try {
+			while (true) {
+				try {
+					return channel.lock(0, HEADER_SIZE, false);
+				} catch (ClosedByInterruptException e) {
+					// the interrupt closed the channel, and the mapping outlives it
+					interrupted = true;
+					Thread.interrupted();
+					channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+				}
+			}
+		} finally {
+			if (interrupted) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/**
+	 * @return the largest record this ring can hold.
+	 */
+	final int maxRecordLength() {
+		return capacity - 4;
+	}
+
+	/**
+	 * Append a record if there is space for it.
+	 *
+	 * @return {@code false} if the ring is full.
+	 *
+	 * @throws IllegalArgumentException if the record is longer than {@link #maxRecordLength()}.
+	 * @throws IOException if the ring is closed or can't be locked.
+	 */
+	final boolean offer(byte[] record) throws IOException {
+		if (record.length > maxRecordLength()) {
+			throw new IllegalArgumentException("the record is too long: " + record.length);
+		}
+		int size = align(4 + record.length);
+		synchronized (monitor) {
+			FileLock lock = lock();
+			try {
+				long head = buffer.getLong(HEAD_OFFSET);
+				long tail = buffer.getLong(TAIL_OFFSET);
+				int index = (int) (tail % capacity);
+				int padding = size > capacity - index ? capacity - index : 0;
+				if (tail + padding + size - head > capacity) {
+					return false;
+				}
+				if (padding > 0) {
+					buffer.putInt(HEADER_SIZE + index, PADDING);
+					tail += padding;
+					index = 0;
+				}
+				buffer.putInt(HEADER_SIZE + index, record.length);
+				ByteBuffer data = buffer.duplicate();
+				data.position(HEADER_SIZE + index + 4);
+				data.put(record);
+				buffer.putLong(TAIL_OFFSET, tail + size);
+				return true;
+			} finally {
+				lock.release();
+			}
+		}
+	}
+
+	/**
+	 * Remove the first record.
+	 *
+	 * @return the record, or {@code null} if the ring is empty.
+	 *
+	 * @throws IOException if the ring is closed or can't be locked, or the record is corrupt.
+	 * The position of the records after a corrupt one is unknown, so all of them are dropped.
+	 */
+	final byte[] poll() throws IOException {
+		synchronized (monitor) {
+			FileLock lock = lock();
+			try {
+				long head = buffer.getLong(HEAD_OFFSET);
+				long tail = buffer.getLong(TAIL_OFFSET);
+				if (head == tail) {
+					return null;
+				}
+				int index = (int) (head % capacity);
+				int length = buffer.getInt(HEADER_SIZE + index);
+				if (length == PADDING) {
+					head += capacity - index;
+					index = 0;
+					length = buffer.getInt(HEADER_SIZE);
+				}
+				if (length < 0 || length > capacity - index - 4 || head + align(4 + length) > tail) {
+					buffer.putLong(HEAD_OFFSET, tail);
+					throw new IOException("corrupt record of length " + length + " at " + head + ": " + file);
+				}
+				byte[] record = new byte[length];
+				ByteBuffer data = buffer.duplicate();
+				data.position(HEADER_SIZE + index + 4);
+				data.get(record);
+				buffer.putLong(HEAD_OFFSET, head + align(4 + length));
+				return record;
+			} finally {
+				lock.release();
+			}
+		}
+	}
+
+	/**
+	 * Check whether the ring looks empty, without locking it. The answer may be stale;
+	 * {@link #poll()} is authoritative.
+	 */
+	final boolean isEmpty() {
+		synchronized (monitor) {
+			return closed || buffer.getLong(HEAD_OFFSET) == buffer.getLong(TAIL_OFFSET);
+		}
+	}
+
+	/**
+	 * Close the file. The mapping stays until the ring is garbage collected, but the ring can't be used anymore.
+	 */
+	@Override
+	public final void close() throws IOException {
+		synchronized (monitor) {
+			if (closed) {
+				return;
+			}
+			// closing any channel of the file releases the locks of this process on it, so it's done under the monitor
+			closed = true;
+			try {
+				channel.close();
+			} finally {
+				releaseMonitor(realPath);
+			}
+		}
+	}
+
+}
@@ -0,0 +1,261 @@
+package org.shoushitsu.util.asyncservice;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Function;
+
+/**
+ * <p>A task queue fed by other processes on the same host through memory-mapped files.</p>
+ *
+ * <p>The queue lives in a directory. Clients (usually in other JVMs) submit task descriptors
+ * with a {@link SharedMemoryTaskSink} to the {@code requests} ring in the directory; the queue decodes every
+ * descriptor into a computation with the decoder specified at creation time, and the workers of the
+ * asynchronous service run it. The outcome of the computation is written to the {@code results-<clientId>}
+ * ring of the client that submitted it, where the client picks it up and reports it to the callback.
+ * Descriptors and results are opaque byte arrays; their encoding is up to the user.</p>
+ *
+ * <p>Other processes can't signal the workers, so the workers poll the ring at the interval specified at creation
+ * time while the queue is empty. A failure of the decoder is reported to the client as a failure of the computation.
+ * If the results ring of a client is full, the worker waits for it to get space for up to
+ * {@value #RESULT_TIMEOUT_SECONDS} seconds; if it doesn't, or the ring can't be opened (for example, because
+ * the client is gone), the result is dropped. After a timeout, the results for that client are dropped
+ * without waiting until its ring has space again, so a stuck client doesn't hold up every worker.
+ * Records in the {@code requests} ring that are too short to be requests are skipped.
+ * The tasks left in the ring when the service is closed are {@linkplain Callback#terminated() terminated}.</p>
+ *
+ * <p>This queue has no sinks in this process, and it doesn't report its size.
+ * {@linkplain #close() Close} the queue after closing its service to release the files.</p>
+ *
+ * @see SharedMemoryRing
+ */
+public final class SharedMemoryTaskQueue extends ATaskQueue implements Closeable {
+
+	static final String REQUESTS = "requests";
+
+	static final byte SUCCESS = 0;
+	static final byte FAILURE = 1;
+	static final byte TERMINATED = 2;
+
+	static final int RESULT_TIMEOUT_SECONDS = 5;
+
+	/* The client ID and the request ID. */
+	private static final int REQUEST_HEADER_LENGTH = 12;
+
+	static String resultsFileName(int clientId) {
+		return "results-" + clientId;
+	}
+
+	private final Path directory;
+
+	private final SharedMemoryRing requests;
+
+	private final Function<? super byte[], ? extends Callable<byte[]>> decoder;
+
+	private final long pollIntervalNanos;
+
+	private final ConcurrentHashMap<Integer, SharedMemoryRing> results = new ConcurrentHashMap<>();
+
+	/* The clients whose results rings stayed full for the whole timeout. */
+	private final Set<Integer> stalled = ConcurrentHashMap.newKeySet();
+
+	/**
+	 * Create a queue, creating its {@code requests} ring if necessary.
+	 *
+	 * @param directory the directory to keep the rings in. It must exist.
+	 * @param capacity the size of the {@code requests} ring in bytes.
+	 * @param decoder turns a task descriptor into a computation; the result of the computation
+	 * is sent back to the client. Calls to the decoder are synchronized by the queue.
+	 * @param pollInterval how often the idle workers check the ring for new tasks.
+	 * @param unit the time unit of {@code pollInterval}.
+	 *
+	 * @throws IllegalArgumentException if {@code decoder == null}, {@code pollInterval} is not positive,
+	 * {@code capacity} is too small, or the ring exists with another capacity.
+	 * @throws IOException if the ring can't be opened.
+	 */
+	public SharedMemoryTaskQueue(
+			Path directory,
+			int capacity,
+			Function<? super byte[], ? extends Callable<byte[]>> decoder,
+			long pollInterval,
+			TimeUnit unit
+	) throws IOException {
+		if (decoder == null) {
+			throw new IllegalArgumentException("decoder must be non-null");
+		}
+		if (pollInterval <= 0) {
+			throw new IllegalArgumentException("poll interval must be positive");
+		}
+		this.directory = directory;
+		this.decoder = decoder;
+		this.pollIntervalNanos = unit.toNanos(pollInterval);
+		requests = SharedMemoryRing.create(directory.resolve(REQUESTS), capacity);
+	}
+
+	@Override
+	protected final boolean isEmpty() {
+		return requests.isEmpty();
+	}
+
+	@Override
+	protected final long nanosUntilReady() {
+		return pollIntervalNanos;
+	}
+
+	/*
+	 * A request is the ID of the client (int), the ID of the request (long), and the descriptor.
+	 * A ring that fails looks empty. Records too short to hold the IDs are skipped.
+	 */
+	@Override
+	protected final Task<?> poll() {
+		byte[] record;
+		do {
+			try {
+				record = requests.poll();
+			} catch (IOException e) {
+				return null;
+			}
+			if (record == null) {
+				return null;
+			}
+		} while (record.length < REQUEST_HEADER_LENGTH);
+		ByteBuffer buffer = ByteBuffer.wrap(record);
+		int clientId = buffer.getInt();
+		long requestId = buffer.getLong();
+		byte[] descriptor = Arrays.copyOfRange(record, buffer.position(), record.length);
+		Callable<byte[]> computation;
+		try {
+			computation = decoder.apply(descriptor);
+		} catch (RuntimeException e) {
+			computation = () -> {
+				throw e;
+			};
+		}
+		return new Task<>(computation, new Reply(clientId, requestId));
+	}
+
+	@Override
+	protected final void doDrainTo(Collection<Task<?>> sink) {
+		Task<?> task;
+		while ((task = poll()) != null) {
+			sink.add(task);
+		}
+	}
+
+	/**
+	 * Close the {@code requests} ring and the {@code results} rings of the clients.
+	 * The files are left in the directory.
+	 *
+	 * @throws IOException if closing any of the rings fails.
+	 */
+	@Override
+	public final void close() throws IOException {
+		IOException failure = null;
+		for (SharedMemoryRing ring : results.values()) {
+			try {
+				ring.close();
+			} catch (IOException e) {
+				failure = e;
+			}
+		}
+		requests.close();
+		if (failure != null) {
+			throw failure;
+		}
+	}
+
+	/*
+	 * A result is the ID of the request (long), the outcome (byte), and the result bytes (or the description
+	 * of the failure in UTF-8).
+	 */
+	private final class Reply implements Callback<byte[]> {
+
+		private final int clientId;
+
+		private final long requestId;
+
+		Reply(int clientId, long requestId) {
+			this.clientId = clientId;
+			this.requestId = requestId;
+		}
+
+		@Override
+		public final void success(byte[] data) {
+			send(SUCCESS, data == null ? new byte[0] : data);
+		}
+
+		@Override
+		public final void failure(Throwable exception) {
+			send(FAILURE, String.valueOf(exception).getBytes(StandardCharsets.UTF_8));
+		}
+
+		@Override
+		public final void terminated() {
+			send(TERMINATED, new byte[0]);
+		}
+
+		private void send(byte outcome, byte[] payload) {
+			SharedMemoryRing ring;
+			try {
+				ring = results.get(clientId);
+				if (ring == null) {
+					SharedMemoryRing opened = SharedMemoryRing.open(directory.resolve(resultsFileName(clientId)));
+					ring = results.putIfAbsent(clientId, opened);
+					if (ring == null) {
+						ring = opened;
+					} else {
+						opened.close();
+					}
+				}
+			} catch (IOException e) {
+				// the client is gone
+				return;
+			}
+			if (9 + payload.length > ring.maxRecordLength()) {
+				outcome = FAILURE;
+				payload = "the result doesn't fit in the ring".getBytes(StandardCharsets.UTF_8);
+			}
+			byte[] record = ByteBuffer.allocate(9 + payload.length)
+					.putLong(requestId)
+					.put(outcome)
+					.put(payload)
+					.array();
+			try {
+				if (ring.offer(record)) {
+					stalled.remove(clientId);
+					return;
+				}
+				if (stalled.contains(clientId)) {
+					return;
+				}
+				long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(RESULT_TIMEOUT_SECONDS);
+				do {
+					long left = deadline - System.nanoTime();
+					if (left <= 0) {
+						// the client is stuck or gone without removing its ring
+						stalled.add(clientId);
+						return;
+					}
+					LockSupport.parkNanos(Math.min(left, pollIntervalNanos));
+					if (Thread.currentThread().isInterrupted()) {
+						return;
+					}
+				} while (!ring.offer(record));
+				stalled.remove(clientId);
+			} catch (IOException e) {
+				// the ring is closed
+			}
+		}
+
+	}
+
+}
@@ -0,0 +1,284 @@
+package org.shoushitsu.util.asyncservice;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * <p>The client side of a {@link SharedMemoryTaskQueue}: submits task descriptors to a queue in another process
+ * on the same host, and reports the results to the callbacks.</p>
+ *
+ * <p>Every client has an ID, unique among the clients of the queue, and its own {@code results-<clientId>} ring
+ * in the directory of the queue, which it creates when opened (or reuses, discarding stale results).
+ * A daemon thread of the client polls the ring at the specified interval and invokes the callbacks. A failed computation is reported as a
+ * {@link RemoteFailure} that describes the original exception.</p>
+ *
+ * <p>When the client is {@linkplain #close() closed}, the callbacks of the computations that are still pending
+ * are {@linkplain Callback#terminated() terminated}, and further submissions are terminated immediately.</p>
+ */
+public final class SharedMemoryTaskSink implements Closeable {
+
+	/**
+	 * Open a client of the queue in the specified directory. The queue must have been created already.
+	 *
+	 * @param directory the directory of the queue.
+	 * @param clientId the ID of the client.
+	 * @param resultsCapacity the size of the {@code results} ring of the client in bytes.
+	 * @param pollInterval how often the client checks its {@code results} ring,
+	 * and how often {@link #put(byte[], Callback) put()} checks the {@code requests} ring for space.
+	 * @param unit the time unit of {@code pollInterval}.
+	 *
+	 * @return a new client.
+	 *
+	 * @throws IllegalArgumentException if {@code pollInterval} is not positive, {@code resultsCapacity}
+	 * is too small, or the {@code results} ring exists with another capacity.
+	 * @throws IOException if the rings can't be opened.
+	 */
+	public static SharedMemoryTaskSink open(
+			Path directory,
+			int clientId,
+			int resultsCapacity,
+			long pollInterval,
+			TimeUnit unit
+	) throws IOException {
+		if (pollInterval <= 0) {
+			throw new IllegalArgumentException("poll interval must be positive");
+		}
+		SharedMemoryRing results = SharedMemoryRing.create(
+				directory.resolve(SharedMemoryTaskQueue.resultsFileName(clientId)),
+				resultsCapacity
+		);
+		try {
+			// the queue may have the file open, so the ring is reused rather than recreated
+			while (results.poll() != null) {
+			}
+			SharedMemoryRing requests = SharedMemoryRing.open(directory.resolve(SharedMemoryTaskQueue.REQUESTS));
+			return new SharedMemoryTaskSink(clientId, requests, results, unit.toNanos(pollInterval));
+		} catch (IOException | RuntimeException e) {
+			results.close();
+			throw e;
+		}
+	}
+
+	/* The ID of the request and the outcome. */
+	private static final int RESULT_HEADER_LENGTH = 9;
+
+	private final int clientId;
+
+	private final SharedMemoryRing requests;
+
+	private final SharedMemoryRing results;
+
+	private final long pollIntervalNanos;
+
+	/* Starts from the clock, so that late results for an earlier client with the same ID are ignored. */
+	private final AtomicLong lastRequestId = new AtomicLong(System.currentTimeMillis() << 20);
+
+	private final ConcurrentHashMap<Long, Callback<? super byte[]>> pending = new ConcurrentHashMap<>();
+
+	private final Thread reader;
+
+	private volatile boolean closed;
+
+	private SharedMemoryTaskSink(int clientId, SharedMemoryRing requests, SharedMemoryRing results, long pollIntervalNanos) {
+		this.clientId = clientId;
+		this.requests = requests;
+		this.results = results;
+		this.pollIntervalNanos = pollIntervalNanos;
+		reader = new Thread(this::readResults, "shm-results-" + clientId);
+		reader.setDaemon(true);
+		reader.start();
+	}
+
+	/**
+	 * Submit a task descriptor if there is space in the {@code requests} ring.
+	 *
+	 * @param descriptor the descriptor, to be decoded by the queue.
+	 * @param callback the callback for the result.
+	 *
+	 * @return {@code false} if the ring is full and the task can't be processed
+	 * (that is, no method on the callback will be invoked), {@code true} otherwise.
+	 *
+	 * @throws IllegalArgumentException if the descriptor doesn't fit in the ring.
+	 */
+	public final boolean offer(byte[] descriptor, Callback<? super byte[]> callback) {
+		return submit(descriptor, callback);
+	}
+
+	/**
+	 * Submit a task descriptor, waiting for the {@code requests} ring to have space if necessary.
+	 *
+	 * @param descriptor the descriptor, to be decoded by the queue.
+	 * @param callback the callback for the result.
+	 *
+	 * @throws IllegalArgumentException if the descriptor doesn't fit in the ring.
+	 * @throws InterruptedException if interrupted while waiting for the space in the ring.
+	 */
+	public final void put(byte[] descriptor, Callback<? super byte[]> callback) throws InterruptedException {
+		while (!submit(descriptor, callback)) {
+			LockSupport.parkNanos(pollIntervalNanos);
+			if (Thread.interrupted()) {
+				throw new InterruptedException();
+			}
+		}
+	}
+
+	/*
+	 * A request is the ID of the client (int), the ID of the request (long), and the descriptor.
+	 */
+	private boolean submit(byte[] descriptor, Callback<? super byte[]> callback) {
+		Callback<? super byte[]> target = callback == null ? NoCallback.INSTANCE : callback;
+		if (closed) {
+			target.terminated();
+			return true;
+		}
+		long requestId = lastRequestId.incrementAndGet();
+		byte[] record = ByteBuffer.allocate(12 + descriptor.length)
+				.putInt(clientId)
+				.putLong(requestId)
+				.put(descriptor)
+				.array();
+		pending.put(requestId, target);
+		boolean accepted;
+		try {
+			accepted = requests.offer(record);
+		} catch (IOException e) {
+			pending.remove(requestId);
+			target.terminated();
+			return true;
+		} catch (RuntimeException e) {
+			pending.remove(requestId);
+			throw e;
+		}
+		if (!accepted) {
+			pending.remove(requestId);
+			return false;
+		}
+		if (closed && pending.remove(requestId) != null) {
+			target.terminated();
+		}
+		return true;
+	}
+
+	/*
+	 * A result is the ID of the request (long), the outcome (byte), and the result bytes (or the description
+	 * of the failure in UTF-8).
+	 */
+	private void readResults() {
+		try {
+			while (!closed) {
+				byte[] record;
+				try {
+					record = results.poll();
+				} catch (IOException e) {
+					break;
+				}
+				if (record == null) {
+					LockSupport.parkNanos(pollIntervalNanos);
+					continue;
+				}
+				if (record.length < RESULT_HEADER_LENGTH) {
+					// malformed
+					continue;
+				}
+				ByteBuffer buffer = ByteBuffer.wrap(record);
+				Callback<? super byte[]> callback = pending.remove(buffer.getLong());
+				if (callback == null) {
+					continue;
+				}
+				byte outcome = buffer.get();
+				byte[] payload = Arrays.copyOfRange(record, buffer.position(), record.length);
+				try {
+					if (outcome == SharedMemoryTaskQueue.SUCCESS) {
+						callback.success(payload);
+					} else if (outcome == SharedMemoryTaskQueue.FAILURE) {
+						callback.failure(new RemoteFailure(new String(payload, StandardCharsets.UTF_8)));
+					} else {
+						callback.terminated();
+					}
+				} catch (RuntimeException e) {
+					// a broken callback must not stop the delivery of the other results
+				}
+			}
+		} finally {
+			terminatePending();
+		}
+	}
+
+	private void terminatePending() {
+		for (Map.Entry<Long, Callback<? super byte[]>> entry : pending.entrySet()) {
+			if (pending.remove(entry.getKey(), entry.getValue())) {
+				entry.getValue().terminated();
+			}
+		}
+	}
+
+	/**
+	 * Stop the client: terminate the pending computations and close the rings.
+	 * The computations may still be run by the queue, but their results are ignored.
+	 *
+	 * @throws IOException if closing the rings fails.
+	 */
+	@Override
+	public final void close() throws IOException {
+		closed = true;
+		boolean interrupted = false;
+		while (true) {
+			try {
+				reader.join();
+				break;
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		terminatePending();
+		try {
+			requests.close();
+		} finally {
+			results.close();
+			if (interrupted) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/**
+	 * Reports the failure of a computation in the process of the queue.
+	 */
+	public static final class RemoteFailure extends Exception {
+
+		private static final long serialVersionUID = 1L;
+
+		RemoteFailure(String description) {
+			super(description);
+		}
+
+	}
+
+	private static final class NoCallback implements Callback<Object> {
+
+		static final NoCallback INSTANCE = new NoCallback();
+
+		@Override
+		public final void success(Object data) {
+		}
+
+		@Override
+		public final void failure(Throwable exception) {
+		}
+
+		@Override
+		public final void terminated() {
+		}
+
+	}
+
+}
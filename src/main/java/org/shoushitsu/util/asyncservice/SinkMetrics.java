@@ -0,0 +1,71 @@
+package org.shoushitsu.util.asyncservice;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters of a single {@link TaskSink}. See {@link QueueMetrics}.
+ */
+public final class SinkMetrics {
+
+	private final String name;
+
+	final LongAdder accepted = new LongAdder();
+
+	final LongAdder rejected = new LongAdder();
+
+	final LongAdder terminated = new LongAdder();
+
+	SinkMetrics(String name) {
+		this.name = name;
+	}
+
+	/**
+	 * Take a snapshot of the counters. The snapshot is not atomic with respect to concurrent submissions.
+	 *
+	 * @return a new snapshot.
+	 */
+	public final Snapshot snapshot() {
+		return new Snapshot(name, accepted.sum(), rejected.sum(), terminated.sum());
+	}
+
+	/**
+	 * An immutable copy of a sink's counters.
+	 */
+	public static final class Snapshot {
+
+		/**
+		 * The name of the sink, as specified by the task queue.
+		 */
+		public final String name;
+
+		/**
+		 * How many tasks were accepted into the queue.
+		 */
+		public final long accepted;
+
+		/**
+		 * How many {@link TaskSink#offer(java.util.concurrent.Callable, Callback) offers} were rejected
+		 * because the queue was full.
+		 */
+		public final long rejected;
+
+		/**
+		 * How many submissions were answered with {@link Callback#terminated()} because the queue was terminated.
+		 */
+		public final long terminated;
+
+		Snapshot(String name, long accepted, long rejected, long terminated) {
+			this.name = name;
+			this.accepted = accepted;
+			this.rejected = rejected;
+			this.terminated = terminated;
+		}
+
+		@Override
+		public final String toString() {
+			return name + ": accepted=" + accepted + " rejected=" + rejected + " terminated=" + terminated;
+		}
+
+	}
+
+}
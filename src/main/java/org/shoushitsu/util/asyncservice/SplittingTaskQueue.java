@@ -1,10 +1,9 @@
 package org.shoushitsu.util.asyncservice;
 
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
-import java.util.LinkedList;
-import java.util.Queue;
 import java.util.concurrent.Callable;
 import java.util.function.Function;
 
@@ -27,11 +26,14 @@ public final class SplittingTaskQueue extends ATaskQueue {
 
 	private final Function<Callable<?>, ?> splitter;
 
-	private final Queue<Task<?>> tasks = new LinkedList<>();
+	private final TaskList tasks = new TaskList();
 
 	/* This set must support null elements. */
 	private final HashSet<Object> lockedBuckets = new HashSet<>();
 
+	/* The number of queued tasks of each bucket that has any. This map must support null keys. */
+	private final HashMap<Object, int[]> queuedTasks = new HashMap<>();
+
 	/**
 	 * The sink that feeds into this queue.
 	 */
@@ -51,7 +53,26 @@ public final class SplittingTaskQueue extends ATaskQueue {
 	 */
 	public SplittingTaskQueue(Function<Callable<?>, ?> splitter) {
 		this.splitter = splitter == null ? (callable -> null) : splitter;
-		sink = createSink(new UnboundedQueueSinkImpl(tasks));
+		sink = createSink(this::add);
+	}
+
+	private boolean add(Task<?> task) {
+		tasks.offer(task);
+		Object bucket = splitter.apply(task.getComputation());
+		int[] count = queuedTasks.get(bucket);
+		if (count == null) {
+			count = new int[1];
+			queuedTasks.put(bucket, count);
+		}
+		++count[0];
+		return true;
+	}
+
+	private void dequeued(Object bucket) {
+		int[] count = queuedTasks.get(bucket);
+		if (--count[0] == 0) {
+			queuedTasks.remove(bucket);
+		}
 	}
 
 	@Override
@@ -67,6 +88,11 @@ public final class SplittingTaskQueue extends ATaskQueue {
 		return true;
 	}
 
+	@Override
+	protected final int size() {
+		return tasks.size();
+	}
+
 	@Override
 	protected final Task<?> poll() {
 		if (tasks.isEmpty()) {
@@ -78,22 +104,44 @@ public final class SplittingTaskQueue extends ATaskQueue {
 			if (!lockedBuckets.contains(bucket)) {
 				lockedBuckets.add(bucket);
 				it.remove();
+				dequeued(bucket);
 				return task;
 			}
 		}
 		return null;
 	}
 
+	@Override
+	protected final boolean admitInline(Task<?> task) {
+		Object bucket = splitter.apply(task.getComputation());
+		// running the task now would overtake the queued tasks of its bucket
+		if (lockedBuckets.contains(bucket) || queuedTasks.containsKey(bucket)) {
+			return false;
+		}
+		lockedBuckets.add(bucket);
+		return true;
+	}
+
 	@Override
 	protected final boolean afterCallback(Task<?> task) {
 		lockedBuckets.remove(splitter.apply(task.getComputation()));
 		return true;
 	}
 
+	@Override
+	protected final boolean remove(Task<?> task) {
+		if (!tasks.unlink(task)) {
+			return false;
+		}
+		dequeued(splitter.apply(task.getComputation()));
+		return true;
+	}
+
 	@Override
 	protected final void doDrainTo(Collection<Task<?>> sink) {
 		sink.addAll(tasks);
 		tasks.clear();
+		queuedTasks.clear();
 	}
 
 }
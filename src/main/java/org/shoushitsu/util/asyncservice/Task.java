@@ -1,6 +1,7 @@
 package org.shoushitsu.util.asyncservice;
 
 import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
@@ -8,15 +9,65 @@ import java.util.concurrent.atomic.AtomicBoolean;
 
  * @param <R> the type of the encapsulated computation's result.
  */
-public final class Task<R> {
+public final class Task<R> implements TaskHandle {
 
 	private final Callable<? extends R> computation;
 	private final Callback<? super R> callback;
 	private final AtomicBoolean completed = new AtomicBoolean();
 
+	private static final byte BOXED = 0;
+	private static final byte INT = 1;
+	private static final byte LONG = 2;
+
+	/**
+	 * Whether the result is passed from the computation to the callback as a primitive.
+	 */
+	private final byte resultKind;
+
+	static final long NOT_TIMESTAMPED = Long.MIN_VALUE;
+
+	/**
+	 * When this task was put into a queue, according to {@link System#nanoTime()}.
+	 * Only recorded if {@linkplain QueueMetrics metrics} are enabled; written and read under the queue lock.
+	 */
+	long enqueuedAt = NOT_TIMESTAMPED;
+
+	/**
+	 * The sink this task was submitted through, or {@code null} for tasks created by the queues themselves.
+	 */
+	TaskSink sink;
+
+	/**
+	 * The data structure of a queue that holds this task, if it records that; written and read under the queue lock.
+	 */
+	Object container;
+
+	/**
+	 * Links of a {@link TaskList}.
+	 */
+	Task<?> prev, next;
+
+	/* Guarded by this. */
+	private Thread runner;
+
+	/* Guarded by this. */
+	private boolean interruptedByCancel;
+
+	/**
+	 * Whether this task is to be {@linkplain ATaskQueue#runInCaller(Task) run by the submitting thread}.
+	 */
+	boolean runByCaller;
+
 	Task(Callable<? extends R> computation, Callback<? super R> callback) {
 		this.computation = computation;
 		this.callback = callback;
+		if (computation instanceof IntCallable && (callback == null || callback instanceof IntCallback)) {
+			resultKind = INT;
+		} else if (computation instanceof LongCallable && (callback == null || callback instanceof LongCallback)) {
+			resultKind = LONG;
+		} else {
+			resultKind = BOXED;
+		}
 	}
 
 	/**
@@ -32,29 +83,147 @@ public final class Task<R> {
 	}
 
 	final void run() {
+		synchronized (this) {
+			if (completed.get()) {
+				// cancelled while queued
+				return;
+			}
+			runner = Thread.currentThread();
+		}
 		R result = null;
+		long primitive = 0;
 		Throwable exception = null;
 		try {
-			result = computation.call();
+			switch (resultKind) {
+				case INT:
+					primitive = ((IntCallable) computation).callInt();
+					break;
+				case LONG:
+					primitive = ((LongCallable) computation).callLong();
+					break;
+				default:
+					result = computation.call();
+			}
 		} catch (Throwable t) {
 			exception = t;
 		}
+		boolean clearInterrupt;
+		synchronized (this) {
+			runner = null;
+			clearInterrupt = interruptedByCancel;
+		}
+		if (clearInterrupt) {
+			// the interrupt was meant for this computation, not for the worker, unless the worker is being stopped too
+			ATaskQueue workerQueue = ATaskQueue.WORKER_QUEUE.get();
+			if (workerQueue == null || workerQueue.isRunning()) {
+				Thread.interrupted();
+			}
+		}
+		if (resultKind == BOXED || exception != null) {
+			complete(result, exception);
+		} else {
+			completePrimitive(primitive);
+		}
+	}
+
+	/**
+	 * Report the outcome of the computation to the callback, unless the task has already been completed.
+	 * This is for queues that execute the computation by other means than {@link #run()}.
+	 */
+	final void complete(R result, Throwable exception) {
 		if (completed.getAndSet(true)) {
 			return;
 		}
 		if (callback != null) {
-			if (exception != null) {
-				callback.failure(exception);
+			Object span = traceDispatch(exception != null ? "failure" : "success");
+			try {
+				if (exception != null) {
+					callback.failure(exception);
+				} else {
+					callback.success(result);
+				}
+			} finally {
+				if (span != null) {
+					Tracing.TRACER.end(span);
+				}
+			}
+		}
+	}
+
+	private void completePrimitive(long result) {
+		if (completed.getAndSet(true) || callback == null) {
+			return;
+		}
+		Object span = traceDispatch("success");
+		try {
+			if (resultKind == INT) {
+				((IntCallback) callback).success((int) result);
 			} else {
-				callback.success(result);
+				((LongCallback) callback).success(result);
+			}
+		} finally {
+			if (span != null) {
+				Tracing.TRACER.end(span);
 			}
 		}
 	}
 
 	final void terminate() {
 		if (completed.compareAndSet(false, true) && callback != null) {
-			callback.terminated();
+			Object span = traceDispatch("terminated");
+			try {
+				callback.terminated();
+			} finally {
+				if (span != null) {
+					Tracing.TRACER.end(span);
+				}
+			}
+		}
+	}
+
+	@Override
+	public final boolean cancel(boolean mayInterruptIfRunning) {
+		if (completed.get() || !completed.compareAndSet(false, true)) {
+			return false;
+		}
+		TaskSink sink = this.sink;
+		if (sink != null) {
+			sink.queue.cancelled(this);
+		}
+		if (mayInterruptIfRunning) {
+			synchronized (this) {
+				if (runner != null) {
+					// an interrupt that is already pending was not requested by this cancel, so it must not be cleared
+					interruptedByCancel = !runner.isInterrupted();
+					runner.interrupt();
+				}
+			}
+		}
+		if (callback != null) {
+			Object span = traceDispatch("failure");
+			try {
+				callback.failure(new CancellationException());
+			} finally {
+				if (span != null) {
+					Tracing.TRACER.end(span);
+				}
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public final boolean isDone() {
+		return completed.get();
+	}
+
+	private Object traceDispatch(String outcome) {
+		TaskTracer tracer = Tracing.TRACER;
+		if (tracer == null) {
+			return null;
 		}
+		TaskSink sink = this.sink;
+		return sink == null ? tracer.callbackDispatch(null, null, outcome) : tracer.callbackDispatch(sink.queue.id, sink.name, outcome);
 	}
 
 }
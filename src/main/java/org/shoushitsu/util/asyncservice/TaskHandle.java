@@ -0,0 +1,34 @@
+package org.shoushitsu.util.asyncservice;
+
+/**
+ * <p>A handle to a submitted computation, which allows cancelling it.</p>
+ *
+ * <p>Obtain the handles with {@link TaskSink#offerCancellable(java.util.concurrent.Callable, Callback)}
+ * and {@link TaskSink#putCancellable(java.util.concurrent.Callable, Callback)}.</p>
+ */
+public interface TaskHandle {
+
+	/**
+	 * <p>Cancel the computation, unless it has already completed.</p>
+	 *
+	 * <p>If the computation hasn't started yet, it is removed from the queue (or marked to be skipped,
+	 * depending on the queue) and will never run. If it is running, it is allowed to finish, or interrupted
+	 * if {@code mayInterruptIfRunning} is {@code true}; either way, its result is discarded.
+	 * In both cases, the callback's {@link Callback#failure(Throwable) failure()} method is invoked
+	 * with a {@link java.util.concurrent.CancellationException}, on the calling thread, before this method returns.
+	 * The callback is invoked exactly once in any case, so no other outcome is reported after a successful cancellation.</p>
+	 *
+	 * @param mayInterruptIfRunning whether to interrupt the worker thread running the computation.
+	 *
+	 * @return {@code true} if the computation was cancelled, {@code false} if it had already completed
+	 * or been cancelled or terminated.
+	 */
+	boolean cancel(boolean mayInterruptIfRunning);
+
+	/**
+	 * @return {@code true} if the outcome of the computation has been reported to the callback,
+	 * or is being reported, including if the computation was cancelled or terminated.
+	 */
+	boolean isDone();
+
+}
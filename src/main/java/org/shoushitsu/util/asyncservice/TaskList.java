@@ -0,0 +1,149 @@
+package org.shoushitsu.util.asyncservice;
+
+import java.util.AbstractQueue;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * <p>An unbounded FIFO queue of tasks, linked through the tasks themselves.</p>
+ *
+ * <p>Unlike {@link java.util.LinkedList}, this queue doesn't allocate a node per element,
+ * and it can {@linkplain #unlink(Task) remove} a task in constant time, which is what makes
+ * {@linkplain TaskHandle#cancel(boolean) cancellation} cheap. A task may be in at most one such queue at a time.
+ * Not thread safe; queues are accessed under the lock of their task queue.</p>
+ */
+final class TaskList extends AbstractQueue<Task<?>> {
+
+	private Task<?> head;
+
+	private Task<?> tail;
+
+	private int size;
+
+	private int modCount;
+
+	@Override
+	public final boolean offer(Task<?> task) {
+		if (task.container != null) {
+			throw new IllegalArgumentException("task is already queued");
+		}
+		task.container = this;
+		task.prev = tail;
+		task.next = null;
+		if (tail == null) {
+			head = task;
+		} else {
+			tail.next = task;
+		}
+		tail = task;
+		++size;
+		++modCount;
+		return true;
+	}
+
+	@Override
+	public final Task<?> poll() {
+		Task<?> task = head;
+		if (task != null) {
+			unlink(task);
+		}
+		return task;
+	}
+
+	@Override
+	public final Task<?> peek() {
+		return head;
+	}
+
+	/**
+	 * Remove a task from this queue.
+	 *
+	 * @return {@code true} if the task was in this queue, {@code false} otherwise.
+	 */
+	final boolean unlink(Task<?> task) {
+		if (task.container != this) {
+			return false;
+		}
+		Task<?> prev = task.prev;
+		Task<?> next = task.next;
+		if (prev == null) {
+			head = next;
+		} else {
+			prev.next = next;
+		}
+		if (next == null) {
+			tail = prev;
+		} else {
+			next.prev = prev;
+		}
+		task.prev = null;
+		task.next = null;
+		task.container = null;
+		--size;
+		++modCount;
+		return true;
+	}
+
+	@Override
+	public final int size() {
+		return size;
+	}
+
+	@Override
+	public final boolean isEmpty() {
+		return size == 0;
+	}
+
+	@Override
+	public final void clear() {
+		while (head != null) {
+			unlink(head);
+		}
+	}
+
+	@Override
+	public final Iterator<Task<?>> iterator() {
+		return new Iterator<Task<?>>() {
+
+			private Task<?> next = head;
+
+			private Task<?> last;
+
+			private int expectedModCount = modCount;
+
+			@Override
+			public boolean hasNext() {
+				return next != null;
+			}
+
+			@Override
+			public Task<?> next() {
+				if (modCount != expectedModCount) {
+					throw new ConcurrentModificationException();
+				}
+				if (next == null) {
+					throw new NoSuchElementException();
+				}
+				last = next;
+				next = next.next;
+				return last;
+			}
+
+			@Override
+			public void remove() {
+				if (last == null) {
+					throw new IllegalStateException();
+				}
+				if (modCount != expectedModCount) {
+					throw new ConcurrentModificationException();
+				}
+				unlink(last);
+				last = null;
+				expectedModCount = modCount;
+			}
+
+		};
+	}
+
+}
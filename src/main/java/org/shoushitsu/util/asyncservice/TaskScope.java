@@ -0,0 +1,234 @@
+package org.shoushitsu.util.asyncservice;
+
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <p>A group of related computations that succeeds if all of them succeed, and fails as soon as one of them fails.</p>
+ *
+ * <p>Computations are forked into the scope with {@link #offer(Callable, Callback) offer()} or
+ * {@link #put(Callable, Callback) put()}, and each of them reports its own outcome to its own callback,
+ * as usual. Once all the computations are forked, the scope must be {@linkplain #close() closed}; after that,
+ * when all of them have succeeded, the callback of the scope receives {@code success(null)}.</p>
+ *
+ * <p>When a computation fails (or is terminated), the scope reports that to its callback at once, and
+ * {@linkplain TaskHandle#cancel(boolean) cancels} the other computations: the queued ones are removed from the queue,
+ * and the running ones are interrupted if the scope was opened with {@code interruptRunning}.
+ * The callbacks of the cancelled computations receive {@link java.util.concurrent.CancellationException}s.
+ * Computations forked after that are not submitted, and their callbacks are terminated.</p>
+ *
+ * <p>The scope doesn't lock: it counts the computations in flight with an atomic counter, and its outcome
+ * is decided by a compare-and-set. Closing the scope doesn't wait for anything, so it suits try-with-resources.</p>
+ *
+ * <p>Obtain the instances of this class with {@link TaskSink#openScope(boolean, Callback)}.</p>
+ */
+public final class TaskScope implements AutoCloseable {
+
+	private final TaskSink sink;
+
+	private final boolean interruptRunning;
+
+	private final Callback<? super Void> callback;
+
+	/* The computations in flight, plus one until the scope is closed. */
+	private final AtomicInteger pending = new AtomicInteger(1);
+
+	private final AtomicBoolean closed = new AtomicBoolean();
+
+	private final AtomicBoolean done = new AtomicBoolean();
+
+	/* The handles of the computations that haven't succeeded yet, to cancel them on failure. */
+	final Set<TaskHandle> children = ConcurrentHashMap.newKeySet();
+
+	TaskScope(TaskSink sink, boolean interruptRunning, Callback<? super Void> callback) {
+		this.sink = sink;
+		this.interruptRunning = interruptRunning;
+		this.callback = callback;
+	}
+
+	/**
+	 * Fork a computation into this scope if there is space in the queue.
+	 *
+	 * @return {@code false} if the task queue is overflowing and the task can't be processed
+	 * (that is, no method on the callback will be invoked), {@code true} otherwise.
+	 * A rejected computation doesn't affect the scope.
+	 *
+	 * @throws IllegalStateException if the scope is closed.
+	 *
+	 * @see TaskSink#offer(Callable, Callback)
+	 */
+	public final <R> boolean offer(Callable<? extends R> computation, Callback<? super R> callback) {
+		Child<R> child = fork(callback);
+		if (child == null) {
+			return true;
+		}
+		TaskHandle handle = null;
+		try {
+			handle = sink.offerCancellable(computation, child);
+		} finally {
+			if (handle == null) {
+				// the computation will never complete
+				decrement();
+			} else {
+				register(child, handle);
+			}
+		}
+		return handle != null;
+	}
+
+	/**
+	 * Fork a computation into this scope, waiting for the queue to have space if necessary.
+	 *
+	 * @throws IllegalStateException if the scope is closed.
+	 * @throws InterruptedException if interrupted while waiting for the space in the queue to become available.
+	 * An interrupted submission doesn't affect the scope.
+	 *
+	 * @see TaskSink#put(Callable, Callback)
+	 */
+	public final <R> void put(Callable<? extends R> computation, Callback<? super R> callback) throws InterruptedException {
+		Child<R> child = fork(callback);
+		if (child == null) {
+			return;
+		}
+		TaskHandle handle = null;
+		try {
+			handle = sink.putCancellable(computation, child);
+		} finally {
+			if (handle == null) {
+				decrement();
+			} else {
+				register(child, handle);
+			}
+		}
+	}
+
+	/**
+	 * Stop forking computations into this scope. The scope succeeds when all the forked computations succeed
+	 * (immediately, if there are none). Closing the scope again has no effect.
+	 */
+	@Override
+	public final void close() {
+		if (closed.compareAndSet(false, true)) {
+			decrement();
+		}
+	}
+
+	/**
+	 * @return {@code true} if the outcome of this scope has been reported to its callback.
+	 */
+	public final boolean isDone() {
+		return done.get();
+	}
+
+	/**
+	 * @return the callback for a new computation, or {@code null} if the scope has already failed
+	 * (in which case the computation's callback has been terminated).
+	 */
+	private <R> Child<R> fork(Callback<? super R> callback) {
+		if (closed.get()) {
+			throw new IllegalStateException("the scope is closed");
+		}
+		if (done.get()) {
+			if (callback != null) {
+				callback.terminated();
+			}
+			return null;
+		}
+		pending.incrementAndGet();
+		return new Child<>(callback);
+	}
+
+	private void register(Child<?> child, TaskHandle handle) {
+		child.handle = handle;
+		children.add(handle);
+		if (child.succeeded) {
+			// the computation succeeded while it was being submitted, and may have missed its handle
+			children.remove(handle);
+		}
+		if (done.get()) {
+			// the scope failed while the computation was being submitted, and may have missed it
+			handle.cancel(interruptRunning);
+		}
+	}
+
+	private void decrement() {
+		if (pending.decrementAndGet() == 0 && done.compareAndSet(false, true) && callback != null) {
+			callback.success(null);
+		}
+	}
+
+	private void fail(Throwable exception) {
+		if (!done.compareAndSet(false, true)) {
+			return;
+		}
+		if (callback != null) {
+			if (exception != null) {
+				callback.failure(exception);
+			} else {
+				callback.terminated();
+			}
+		}
+		for (Iterator<TaskHandle> it = children.iterator(); it.hasNext(); ) {
+			TaskHandle handle = it.next();
+			it.remove();
+			handle.cancel(interruptRunning);
+		}
+	}
+
+	private final class Child<R> implements Callback<R> {
+
+		private final Callback<? super R> callback;
+
+		private volatile TaskHandle handle;
+
+		private volatile boolean succeeded;
+
+		Child(Callback<? super R> callback) {
+			this.callback = callback;
+		}
+
+		@Override
+		public final void success(R data) {
+			succeeded = true;
+			TaskHandle handle = this.handle;
+			if (handle != null) {
+				children.remove(handle);
+			}
+			try {
+				if (callback != null) {
+					callback.success(data);
+				}
+			} finally {
+				decrement();
+			}
+		}
+
+		@Override
+		public final void failure(Throwable exception) {
+			try {
+				if (callback != null) {
+					callback.failure(exception);
+				}
+			} finally {
+				fail(exception);
+			}
+		}
+
+		@Override
+		public final void terminated() {
+			try {
+				if (callback != null) {
+					callback.terminated();
+				}
+			} finally {
+				fail(null);
+			}
+		}
+
+	}
+
+}
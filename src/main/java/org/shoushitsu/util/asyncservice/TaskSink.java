@@ -1,9 +1,12 @@
 package org.shoushitsu.util.asyncservice;
 
+import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.Lock;
-import java.util.function.BooleanSupplier;
 
 /**
  * <p>Task sinks are used to submit and order computations for asynchronous services.</p>
@@ -14,9 +17,11 @@ import java.util.function.BooleanSupplier;
  */
 public final class TaskSink {
 
-	private final Lock lock;
+	final ATaskQueue queue;
+
+	final String name;
 
-	private final BooleanSupplier isRunning;
+	private final Lock lock;
 
 	private final TaskSinkImplementation implementation;
 
@@ -24,18 +29,15 @@ public final class TaskSink {
 
 	private final Condition notEmptyOrTerminated;
 
-	TaskSink(
-			Lock lock,
-			BooleanSupplier isRunning,
-			TaskSinkImplementation implementation,
-			Condition notFullOrTerminated,
-			Condition notEmptyOrTerminated
-	) {
-		this.lock = lock;
-		this.isRunning = isRunning;
+	private volatile SinkMetrics metrics;
+
+	TaskSink(ATaskQueue queue, String name, TaskSinkImplementation implementation) {
+		this.queue = queue;
+		this.name = name;
+		this.lock = queue.lock;
 		this.implementation = implementation;
-		this.notFullOrTerminated = notFullOrTerminated;
-		this.notEmptyOrTerminated = notEmptyOrTerminated;
+		this.notFullOrTerminated = queue.notFullOrTerminated;
+		this.notEmptyOrTerminated = queue.notEmptyOrTerminated;
 	}
 
 	/**
@@ -45,22 +47,81 @@ public final class TaskSink {
 	 * (that is, no method on the callback will be invoked), {@code true} otherwise.
 	 */
 	public final <R> boolean offer(Callable<? extends R> computation, Callback<? super R> callback) {
+		return offer(computation, callback, null) != null;
+	}
+
+	/**
+	 * Submit a computation if there is space in the queue, and get a handle to cancel it.
+	 *
+	 * @return {@code null} if the task queue is overflowing and the task can't be processed
+	 * (that is, no method on the callback will be invoked), the handle of the task otherwise.
+	 * If the queue is terminated, the returned handle is already {@linkplain TaskHandle#isDone() done}.
+	 */
+	public final <R> TaskHandle offerCancellable(Callable<? extends R> computation, Callback<? super R> callback) {
+		return offer(computation, callback, null);
+	}
+
+	/**
+	 * @return the task, or {@code null} if it was rejected.
+	 */
+	final <R> Task<R> offer(Callable<? extends R> computation, Callback<? super R> callback, InliningTaskSink inlining) {
+		SinkMetrics metrics = this.metrics;
+		LockProfile profile = queue.lockProfile;
+		long requestedAt = profile == null ? 0 : System.nanoTime();
 		lock.lock();
+		long acquiredAt = 0;
+		if (profile != null) {
+			acquiredAt = System.nanoTime();
+			profile.acquired(LockProfile.Site.OFFER, requestedAt, acquiredAt);
+		}
 		try {
-			if (isRunning.getAsBoolean()) {
-				boolean success = implementation.offer(new Task<>(computation, callback));
-				if (success) {
-					notEmptyOrTerminated.signal();
+			if (queue.isAccepting()) {
+				Task<R> task = newTask(computation, callback);
+				boolean success;
+				if (inlining != null && inlining.shouldInline(queue, false) && queue.admitInline(task)) {
+					queue.runInCaller(task);
+					success = true;
+				} else {
+					if (metrics != null) {
+						task.enqueuedAt = System.nanoTime();
+					}
+					success = implementation.offer(task);
+					if (success) {
+						if (!queue.isDiverted(task)) {
+							notEmptyOrTerminated.signal();
+							if (profile != null) {
+								profile.signalled(LockProfile.Site.OFFER);
+							}
+							if (Tracing.TRACER != null) {
+								Tracing.TRACER.taskEnqueued(queue.id, name);
+							}
+						}
+					} else if (inlining != null && inlining.shouldInline(queue, true) && queue.admitInline(task)) {
+						queue.runInCaller(task);
+						success = true;
+					}
+				}
+				if (metrics != null) {
+					(success ? metrics.accepted : metrics.rejected).increment();
 				}
-				return success;
+				return success ? task : null;
 			}
 		} finally {
+			List<Task<?>> overflow = queue.takeOverflow();
+			if (profile != null) {
+				profile.released(LockProfile.Site.OFFER, System.nanoTime() - acquiredAt);
+			}
 			lock.unlock();
+			if (overflow != null) {
+				queue.disposeOverflow(overflow);
+			}
 		}
-		if (callback != null) {
-			callback.terminated();
+		if (metrics != null) {
+			metrics.terminated.increment();
 		}
-		return true;
+		Task<R> task = newTask(computation, callback);
+		task.terminate();
+		return task;
 	}
 
 	/**
@@ -69,23 +130,472 @@ public final class TaskSink {
 	 * @throws InterruptedException if interrupted while waiting for the space in the queue to become available.
 	 */
 	public final <R> void put(Callable<? extends R> computation, Callback<? super R> callback) throws InterruptedException {
+		put(computation, callback, null);
+	}
+
+	/**
+	 * Submit a computation, waiting for the queue to have space if necessary, and get a handle to cancel it.
+	 *
+	 * @return the handle of the task. If the queue is terminated, the handle is already
+	 * {@linkplain TaskHandle#isDone() done}.
+	 *
+	 * @throws InterruptedException if interrupted while waiting for the space in the queue to become available.
+	 */
+	public final <R> TaskHandle putCancellable(Callable<? extends R> computation, Callback<? super R> callback) throws InterruptedException {
+		return put(computation, callback, null);
+	}
+
+	/**
+	 * Submit a computation that returns an {@code int} if there is space in the queue.
+	 * The result is reported to the callback without boxing.
+	 *
+	 * @return {@code false} if the task queue is overflowing and the task can't be processed
+	 * (that is, no method on the callback will be invoked), {@code true} otherwise.
+	 *
+	 * @see #offer(Callable, Callback)
+	 */
+	public final boolean offerInt(IntCallable computation, IntCallback callback) {
+		return offer(computation, callback, null) != null;
+	}
+
+	/**
+	 * Submit a computation that returns an {@code int}, waiting for the queue to have space if necessary.
+	 * The result is reported to the callback without boxing.
+	 *
+	 * @throws InterruptedException if interrupted while waiting for the space in the queue to become available.
+	 *
+	 * @see #put(Callable, Callback)
+	 */
+	public final void putInt(IntCallable computation, IntCallback callback) throws InterruptedException {
+		put(computation, callback, null);
+	}
+
+	/**
+	 * Submit a computation that returns a {@code long} if there is space in the queue.
+	 * The result is reported to the callback without boxing.
+	 *
+	 * @return {@code false} if the task queue is overflowing and the task can't be processed
+	 * (that is, no method on the callback will be invoked), {@code true} otherwise.
+	 *
+	 * @see #offer(Callable, Callback)
+	 */
+	public final boolean offerLong(LongCallable computation, LongCallback callback) {
+		return offer(computation, callback, null) != null;
+	}
+
+	/**
+	 * Submit a computation that returns a {@code long}, waiting for the queue to have space if necessary.
+	 * The result is reported to the callback without boxing.
+	 *
+	 * @throws InterruptedException if interrupted while waiting for the space in the queue to become available.
+	 *
+	 * @see #put(Callable, Callback)
+	 */
+	public final void putLong(LongCallable computation, LongCallback callback) throws InterruptedException {
+		put(computation, callback, null);
+	}
+
+	final <R> Task<R> put(Callable<? extends R> computation, Callback<? super R> callback, InliningTaskSink inlining) throws InterruptedException {
+		Task<R> task = newTask(computation, callback);
+		SinkMetrics metrics = this.metrics;
+		LockProfile profile = queue.lockProfile;
+		Object blockedSpan = null;
+		long requestedAt = profile == null ? 0 : System.nanoTime();
 		lock.lock();
+		long acquiredAt = 0;
+		long awaitedNanos = 0;
+		if (profile != null) {
+			acquiredAt = System.nanoTime();
+			profile.acquired(LockProfile.Site.PUT, requestedAt, acquiredAt);
+		}
 		try {
-			Task<R> task = new Task<>(computation, callback);
-			while (isRunning.getAsBoolean()) {
+			boolean woken = false;
+			if (queue.isAccepting() && inlining != null && inlining.shouldInline(queue, false) && queue.admitInline(task)) {
+				queue.runInCaller(task);
+				if (metrics != null) {
+					metrics.accepted.increment();
+				}
+				return task;
+			}
+			while (queue.isAccepting()) {
+				if (metrics != null) {
+					task.enqueuedAt = System.nanoTime();
+				}
 				if (implementation.offer(task)) {
-					notEmptyOrTerminated.signal();
-					return;
+					if (woken && profile != null) {
+						profile.awaited(LockProfile.Site.PUT, false);
+					}
+					if (metrics != null) {
+						metrics.accepted.increment();
+					}
+					if (!queue.isDiverted(task)) {
+						notEmptyOrTerminated.signal();
+						if (profile != null) {
+							profile.signalled(LockProfile.Site.PUT);
+						}
+						if (Tracing.TRACER != null) {
+							Tracing.TRACER.taskEnqueued(queue.id, name);
+						}
+					}
+					return task;
+				} else if (inlining != null && inlining.shouldInline(queue, true) && queue.admitInline(task)) {
+					if (woken && profile != null) {
+						profile.awaited(LockProfile.Site.PUT, false);
+					}
+					queue.runInCaller(task);
+					if (metrics != null) {
+						metrics.accepted.increment();
+					}
+					return task;
 				} else {
-					notFullOrTerminated.await();
+					if (woken && profile != null) {
+						profile.awaited(LockProfile.Site.PUT, true);
+					}
+					if (Tracing.TRACER != null && blockedSpan == null) {
+						blockedSpan = Tracing.TRACER.putBlocked(queue.id, name);
+					}
+					long awaitStart = profile == null ? 0 : System.nanoTime();
+					try {
+						notFullOrTerminated.await();
+						woken = true;
+					} finally {
+						if (profile != null) {
+							awaitedNanos += System.nanoTime() - awaitStart;
+						}
+					}
 				}
 			}
+			if (woken && profile != null) {
+				profile.awaited(LockProfile.Site.PUT, false);
+			}
 		} finally {
+			List<Task<?>> overflow = queue.takeOverflow();
+			if (profile != null) {
+				profile.released(LockProfile.Site.PUT, System.nanoTime() - acquiredAt - awaitedNanos);
+			}
 			lock.unlock();
+			if (blockedSpan != null) {
+				Tracing.TRACER.end(blockedSpan);
+			}
+			if (overflow != null) {
+				queue.disposeOverflow(overflow);
+			}
 		}
-		if (callback != null) {
-			callback.terminated();
+		if (metrics != null) {
+			metrics.terminated.increment();
 		}
+		task.terminate();
+		return task;
+	}
+
+	/**
+	 * Submit a computation, waiting for the queue to have space if necessary, but no longer than the specified timeout.
+	 * If there is space in the queue, the task is accepted right away, without waiting.
+	 *
+	 * @param timeout how long to wait for the space in the queue to become available.
+	 * @param unit the time unit of {@code timeout}.
+	 *
+	 * @return {@code false} if the timeout elapsed before the task could be put into the queue
+	 * (that is, no method on the callback will be invoked), {@code true} otherwise.
+	 *
+	 * @throws InterruptedException if interrupted while waiting for the space in the queue to become available.
+	 */
+	public final <R> boolean offer(
+			Callable<? extends R> computation,
+			Callback<? super R> callback,
+			long timeout,
+			TimeUnit unit
+	) throws InterruptedException {
+		return offerAll(Collections.singletonList(computation), Collections.singletonList(callback), timeout, unit) == 1;
+	}
+
+	/**
+	 * <p>Submit several computations in order, waiting for the queue to have space if necessary,
+	 * but no longer than the specified timeout in total. The queue lock is only acquired once for the whole batch.</p>
+	 *
+	 * <p>If the timeout elapses, the computations that were not submitted yet are dropped, and no method
+	 * on their callbacks will be invoked. If the queue is terminated, the callbacks of the computations
+	 * that were not submitted yet are notified of the termination.</p>
+	 *
+	 * <p>If the thread is interrupted while waiting after some of the computations have been submitted,
+	 * the method returns their number, with the interrupt status of the thread set, so that the caller knows
+	 * which callbacks will be invoked.</p>
+	 *
+	 * @param computations the computations to submit.
+	 * @param callbacks the callbacks of the respective computations; may contain {@code null}s.
+	 * @param timeout how long to wait for the space in the queue to become available.
+	 * @param unit the time unit of {@code timeout}.
+	 *
+	 * @return the number of computations whose callbacks will be invoked; they form a prefix of
+	 * {@code computations}.
+	 *
+	 * @throws InterruptedException if interrupted while waiting for the space in the queue
+	 * before any of the computations was submitted.
+	 * @throws IllegalArgumentException if the lists have different sizes.
+	 */
+	public final <R> int offerAll(
+			List<? extends Callable<? extends R>> computations,
+			List<? extends Callback<? super R>> callbacks,
+			long timeout,
+			TimeUnit unit
+	) throws InterruptedException {
+		if (computations.size() != callbacks.size()) {
+			throw new IllegalArgumentException("computations and callbacks must be of the same size");
+		}
+		SinkMetrics metrics = this.metrics;
+		LockProfile profile = queue.lockProfile;
+		Object blockedSpan = null;
+		long nanos = unit.toNanos(timeout);
+		int accepted = 0;
+		boolean terminated = false;
+		long requestedAt = profile == null ? 0 : System.nanoTime();
+		// as in put(), only waiting for the space is interruptible
+		lock.lock();
+		long acquiredAt = 0;
+		long awaitedNanos = 0;
+		if (profile != null) {
+			acquiredAt = System.nanoTime();
+			profile.acquired(LockProfile.Site.OFFER, requestedAt, acquiredAt);
+		}
+		try {
+			Task<R> task = null;
+			boolean woken = false;
+			while (accepted < computations.size()) {
+				if (!queue.isAccepting()) {
+					terminated = true;
+					break;
+				}
+				if (task == null) {
+					task = newTask(computations.get(accepted), callbacks.get(accepted));
+				}
+				if (metrics != null) {
+					task.enqueuedAt = System.nanoTime();
+				}
+				if (implementation.offer(task)) {
+					if (woken && profile != null) {
+						profile.awaited(LockProfile.Site.OFFER, false);
+					}
+					woken = false;
+					if (metrics != null) {
+						metrics.accepted.increment();
+					}
+					if (!queue.isDiverted(task)) {
+						notEmptyOrTerminated.signal();
+						if (profile != null) {
+							profile.signalled(LockProfile.Site.OFFER);
+						}
+						if (Tracing.TRACER != null) {
+							Tracing.TRACER.taskEnqueued(queue.id, name);
+						}
+					}
+					task = null;
+					++accepted;
+					continue;
+				}
+				if (woken && profile != null) {
+					profile.awaited(LockProfile.Site.OFFER, true);
+				}
+				if (nanos <= 0) {
+					if (metrics != null) {
+						metrics.rejected.add(computations.size() - accepted);
+					}
+					break;
+				}
+				if (Tracing.TRACER != null && blockedSpan == null) {
+					blockedSpan = Tracing.TRACER.putBlocked(queue.id, name);
+				}
+				long awaitStart = profile == null ? 0 : System.nanoTime();
+				try {
+					nanos = notFullOrTerminated.awaitNanos(nanos);
+					// a timeout is not a spurious wakeup; the offer is retried once more anyway
+					woken = nanos > 0;
+					if (!woken && profile != null) {
+						profile.awaited(LockProfile.Site.OFFER, false);
+					}
+				} catch (InterruptedException e) {
+					if (accepted == 0) {
+						throw e;
+					}
+					// report the submitted prefix instead of losing its size
+					Thread.currentThread().interrupt();
+					if (metrics != null) {
+						metrics.rejected.add(computations.size() - accepted);
+					}
+					break;
+				} finally {
+					if (profile != null) {
+						awaitedNanos += System.nanoTime() - awaitStart;
+					}
+				}
+			}
+			if (woken && profile != null) {
+				profile.awaited(LockProfile.Site.OFFER, false);
+			}
+		} finally {
+			List<Task<?>> overflow = queue.takeOverflow();
+			if (profile != null) {
+				profile.released(LockProfile.Site.OFFER, System.nanoTime() - acquiredAt - awaitedNanos);
+			}
+			lock.unlock();
+			if (blockedSpan != null) {
+				Tracing.TRACER.end(blockedSpan);
+			}
+			if (overflow != null) {
+				queue.disposeOverflow(overflow);
+			}
+		}
+		if (!terminated) {
+			return accepted;
+		}
+		int remaining = computations.size() - accepted;
+		if (metrics != null) {
+			metrics.terminated.add(remaining);
+		}
+		for (int i = accepted; i < computations.size(); ++i) {
+			Callback<? super R> callback = callbacks.get(i);
+			if (callback != null) {
+				callback.terminated();
+			}
+		}
+		return computations.size();
+	}
+
+	private <R> Task<R> newTask(Callable<? extends R> computation, Callback<? super R> callback) {
+		Task<R> task = new Task<>(computation, callback);
+		task.sink = this;
+		return task;
+	}
+
+	/* Called under the queue lock. */
+	final void enableMetrics(QueueMetrics queueMetrics) {
+		SinkMetrics sinkMetrics = new SinkMetrics(name);
+		queueMetrics.sinks.add(sinkMetrics);
+		metrics = sinkMetrics;
+	}
+
+	/**
+	 * Get a view of this sink that retries failed computations according to the specified policy.
+	 *
+	 * @param policy the retry policy.
+	 * @param scheduler the executor to park delayed retries in.
+	 *
+	 * @return a retrying wrapper around this sink.
+	 *
+	 * @throws IllegalArgumentException if {@code policy} or {@code scheduler} is {@code null}.
+	 */
+	public final RetryingTaskSink withRetry(RetryPolicy policy, ScheduledExecutorService scheduler) {
+		if (policy == null || scheduler == null) {
+			throw new IllegalArgumentException("policy and scheduler must be non-null");
+		}
+		return new RetryingTaskSink(this, policy, scheduler);
+	}
+
+	/**
+	 * Get a view of this sink that coalesces computations with equal keys while they are in flight.
+	 * Every invocation of this method creates a new view with its own set of keys.
+	 *
+	 * @return a coalescing wrapper around this sink.
+	 */
+	public final CoalescingTaskSink coalescing() {
+		return new CoalescingTaskSink(this);
+	}
+
+	/**
+	 * Get a view of this sink that caches the results of computations by key.
+	 * Concurrent cache misses with equal keys are {@linkplain #coalescing() coalesced}.
+	 *
+	 * @param maximumSize the maximum number of cached results.
+	 * @param ttl how long a successful result stays in the cache.
+	 * @param negativeTtl how long a failure stays in the cache; {@code 0} disables caching of failures.
+	 * @param unit the time unit of both time-to-live values.
+	 *
+	 * @return a caching wrapper around this sink.
+	 *
+	 * @throws IllegalArgumentException if {@code maximumSize < 1}, {@code ttl <= 0} or {@code negativeTtl < 0}.
+	 */
+	public final CachingTaskSink caching(int maximumSize, long ttl, long negativeTtl, TimeUnit unit) {
+		return new CachingTaskSink(coalescing(), maximumSize, ttl, negativeTtl, unit);
+	}
+
+	/**
+	 * Get a view of this sink that adaptively limits the number of computations in flight.
+	 *
+	 * @param limit the limit algorithm.
+	 *
+	 * @return a limiting wrapper around this sink.
+	 *
+	 * @throws IllegalArgumentException if {@code limit == null}.
+	 */
+	public final LimitingTaskSink withConcurrencyLimit(ConcurrencyLimit limit) {
+		if (limit == null) {
+			throw new IllegalArgumentException("limit must be non-null");
+		}
+		return new LimitingTaskSink(this, limit);
+	}
+
+	/**
+	 * Get a view of this sink that limits the rate of submissions per key.
+	 * Every invocation of this method creates a new view with its own set of buckets.
+	 *
+	 * @param limit the rate limit.
+	 * @param scheduler the executor to park delayed submissions in.
+	 *
+	 * @return a rate-limiting wrapper around this sink.
+	 *
+	 * @throws IllegalArgumentException if {@code limit} or {@code scheduler} is {@code null}.
+	 */
+	public final RateLimitingTaskSink withRateLimit(RateLimit limit, ScheduledExecutorService scheduler) {
+		if (limit == null || scheduler == null) {
+			throw new IllegalArgumentException("limit and scheduler must be non-null");
+		}
+		return new RateLimitingTaskSink(this, limit, scheduler);
+	}
+
+	/**
+	 * Open a scope for a group of computations that fails as soon as one of them fails.
+	 *
+	 * @param interruptRunning whether to interrupt the running computations of the scope when it fails;
+	 * the queued ones are removed from the queue in any case.
+	 * @param callback the callback for the outcome of the whole scope.
+	 *
+	 * @return a new scope.
+	 */
+	public final TaskScope openScope(boolean interruptRunning, Callback<? super Void> callback) {
+		return new TaskScope(this, interruptRunning, callback);
+	}
+
+	/**
+	 * Get a view of this sink that has the callbacks invoked by the threads of a dispatcher.
+	 *
+	 * @param dispatcher the dispatcher.
+	 * @param ordered whether the callbacks of the computations submitted from one thread should be invoked
+	 * in the order of submission.
+	 *
+	 * @return a dispatching wrapper around this sink.
+	 *
+	 * @throws IllegalArgumentException if {@code dispatcher == null}.
+	 */
+	public final DispatchingTaskSink withCallbackDispatcher(CallbackDispatcher dispatcher, boolean ordered) {
+		if (dispatcher == null) {
+			throw new IllegalArgumentException("dispatcher must be non-null");
+		}
+		return new DispatchingTaskSink(this, dispatcher, ordered);
+	}
+
+	/**
+	 * Get a view of this sink that runs computations on the submitting thread, bypassing the queue,
+	 * under the specified conditions.
+	 *
+	 * @param maxDepth how many inline computations may be nested on the stack of a thread;
+	 * further submissions from the inline computations and their callbacks are queued.
+	 * @param conditions when to run computations inline.
+	 *
+	 * @return an inlining wrapper around this sink.
+	 *
+	 * @throws IllegalArgumentException if {@code maxDepth < 1}, or no conditions are specified.
+	 */
+	public final InliningTaskSink inlining(int maxDepth, InliningTaskSink.Condition... conditions) {
+		return new InliningTaskSink(this, maxDepth, conditions);
 	}
 
 }
@@ -0,0 +1,76 @@
+package org.shoushitsu.util.asyncservice;
+
+/**
+ * <p>Service provider interface for tracing the lifecycle of tasks, for example with Java Flight Recorder.</p>
+ *
+ * <p>The tracer is looked up once, with {@link java.util.ServiceLoader}, when the library is initialized;
+ * the first implementation found on the class path is used. If there is none, tracing is compiled away
+ * by the JIT compiler and costs nothing. The {@code asyncservice-jfr} artifact (Java 11+) provides an implementation
+ * that emits JFR events.</p>
+ *
+ * <p>Every event is described by the identity of the task queue (its simple class name and identity hash code)
+ * and, where applicable, the {@linkplain ATaskQueue#createSink(String, TaskSinkImplementation) name of the sink}
+ * the task was submitted through. Events that have a duration are reported as spans: the tracer returns
+ * an opaque span object when the event starts (or {@code null} if it is not interested in the event),
+ * and that object is passed to {@link #end(Object)} when the event ends.</p>
+ *
+ * <p>Implementations must be thread safe, must not throw, and should be as cheap as possible.
+ * They are invoked on the hot paths of the asynchronous services, sometimes under the lock of the task queue.</p>
+ */
+public interface TaskTracer {
+
+	/**
+	 * A task was put into a queue.
+	 */
+	void taskEnqueued(String queue, String sink);
+
+	/**
+	 * A worker took a task from a queue.
+	 */
+	void taskDequeued(String queue, String sink);
+
+	/**
+	 * A worker starts running a task. The span ends after the task's computation and callback complete.
+	 */
+	Object taskRun(String queue, String sink);
+
+	/**
+	 * A callback method is about to be invoked with the outcome of a task.
+	 * The span ends when the callback method returns.
+	 *
+	 * @param outcome {@code "success"}, {@code "failure"} or {@code "terminated"}.
+	 */
+	Object callbackDispatch(String queue, String sink, String outcome);
+
+	/**
+	 * A {@link TaskSink#put(java.util.concurrent.Callable, Callback) put()} is about to wait
+	 * for space in a full queue. The span ends when the task is accepted or the queue is terminated.
+	 */
+	Object putBlocked(String queue, String sink);
+
+	/**
+	 * A worker is about to wait while the queue holds tasks, none of which may be taken for execution now
+	 * (for example, because all of them are in locked buckets of a
+	 * {@link org.shoushitsu.util.asyncservice.SplittingTaskQueue}).
+	 * The span ends when the worker wakes up.
+	 *
+	 * @param queuedTasks the number of tasks in the queue.
+	 */
+	Object workerBlocked(String queue, int queuedTasks);
+
+	/**
+	 * Tasks left in a queue are about to be terminated because the service is being closed.
+	 * The span ends when all of them are terminated.
+	 *
+	 * @param drainedTasks the number of drained tasks.
+	 */
+	Object shutdownDrain(String queue, int drainedTasks);
+
+	/**
+	 * End a span.
+	 *
+	 * @param span the object returned by one of the span-starting methods of this tracer. Never {@code null}.
+	 */
+	void end(Object span);
+
+}
@@ -1,5 +1,6 @@
 package org.shoushitsu.util.asyncservice;
 
+import java.util.BitSet;
 import java.util.Optional;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -21,7 +22,7 @@ public final class Threading {
 	 * @throws IllegalArgumentException if {@code threadCount} is not positive.
 	 */
 	public static Threading defaultThreads(int threadCount) {
-		return new Threading(threadCount, null, null);
+		return new Threading(threadCount, null, null, null, null, null);
 	}
 
 	/**
@@ -45,7 +46,7 @@ public final class Threading {
 		if (namePattern == null) {
 			throw new IllegalArgumentException("namePattern must be non-null");
 		}
-		return new Threading(threadCount, index -> String.format(namePattern, index), null);
+		return new Threading(threadCount, index -> String.format(namePattern, index), null, null, null, null);
 	}
 
 	/**
@@ -61,7 +62,7 @@ public final class Threading {
 		if (name == null) {
 			throw new IllegalArgumentException("name must be non-null");
 		}
-		return new Threading(1, ix -> name, null);
+		return new Threading(1, ix -> name, null, null, null, null);
 	}
 
 	final int threadCount;
@@ -70,16 +71,32 @@ public final class Threading {
 
 	private final Optional<ClassLoader> contextClassLoader;
 
+	private final AffinityProvider affinityProvider;
+
+	private final IntFunction<BitSet> cpusByIndex;
+
+	private final WorkerContextFactory<?> contextFactory;
+
 	/**
 	 * @throws IllegalArgumentException if {@code threadCount} is not positive.
 	 */
-	private Threading(int threadCount, IntFunction<String> threadNameByIndex, Optional<ClassLoader> contextClassLoader) {
+	private Threading(
+			int threadCount,
+			IntFunction<String> threadNameByIndex,
+			Optional<ClassLoader> contextClassLoader,
+			AffinityProvider affinityProvider,
+			IntFunction<BitSet> cpusByIndex,
+			WorkerContextFactory<?> contextFactory
+	) {
 		if (threadCount < 1) {
 			throw new IllegalArgumentException("thread count must be positive");
 		}
 		this.threadCount = threadCount;
 		this.threadNameByIndex = threadNameByIndex;
 		this.contextClassLoader = contextClassLoader;
+		this.affinityProvider = affinityProvider;
+		this.cpusByIndex = cpusByIndex;
+		this.contextFactory = contextFactory;
 	}
 
 	/**
@@ -91,7 +108,66 @@ public final class Threading {
 	 * @return a threading specification object that has the same specs as this, except for the context class loader.
 	 */
 	public Threading withContextClassLoader(ClassLoader classLoader) {
-		return new Threading(this.threadCount, this.threadNameByIndex, Optional.ofNullable(classLoader));
+		return new Threading(
+				this.threadCount,
+				this.threadNameByIndex,
+				Optional.ofNullable(classLoader),
+				this.affinityProvider,
+				this.cpusByIndex,
+				this.contextFactory
+		);
+	}
+
+	/**
+	 * <p>Pin the threads to sets of CPUs.</p>
+	 *
+	 * <p>Each thread pins itself when it starts, before running any tasks. If the provider fails to pin a thread,
+	 * or the CPU set for a thread is {@code null} or empty, the thread runs unpinned. To keep the workers of
+	 * a service on one NUMA node, give them all the CPUs of the node, for example
+	 * {@code index -> cpusOfNode(0)} with {@link LinuxAffinityProvider#cpusOfNode(int)}; to spread them over
+	 * the nodes, map the indices to nodes round-robin. Combined with a service or a
+	 * {@linkplain ShardedAsynchronousService shard} per node, this keeps the queue memory and the tasks
+	 * local to the node.</p>
+	 *
+	 * @param provider the affinity provider.
+	 * @param cpusByIndex maps the index of a thread (from {@code 0}, inclusive, to the thread count, exclusive)
+	 * to the CPUs it may run on. Called once per thread, in the new thread.
+	 *
+	 * @return a threading specification object that has the same specs as this, except for the affinity.
+	 *
+	 * @throws IllegalArgumentException if {@code provider} or {@code cpusByIndex} is {@code null}.
+	 */
+	public Threading withAffinity(AffinityProvider provider, IntFunction<BitSet> cpusByIndex) {
+		if (provider == null || cpusByIndex == null) {
+			throw new IllegalArgumentException("provider and cpusByIndex must be non-null");
+		}
+		return new Threading(
+				this.threadCount, this.threadNameByIndex, this.contextClassLoader, provider, cpusByIndex, this.contextFactory
+		);
+	}
+
+	/**
+	 * <p>Give every thread a context: per-thread resources that the computations can use without
+	 * synchronization or lookups.</p>
+	 *
+	 * <p>The threads are {@link WorkerThread}s. Each of them creates its context with the factory when it starts,
+	 * after pinning itself to its {@linkplain #withAffinity(AffinityProvider, IntFunction) CPUs} (so the context
+	 * is allocated on the right NUMA node), and disposes of it when it exits. Computations get the context with
+	 * {@link WorkerThread#currentContext(Class)}.</p>
+	 *
+	 * @param factory the factory of the contexts.
+	 *
+	 * @return a threading specification object that has the same specs as this, except for the worker context.
+	 *
+	 * @throws IllegalArgumentException if {@code factory == null}.
+	 */
+	public Threading withWorkerContext(WorkerContextFactory<?> factory) {
+		if (factory == null) {
+			throw new IllegalArgumentException("factory must be non-null");
+		}
+		return new Threading(
+				this.threadCount, this.threadNameByIndex, this.contextClassLoader, this.affinityProvider, this.cpusByIndex, factory
+		);
 	}
 
 	final ThreadFactory createThreadFactory() {
@@ -104,11 +180,30 @@ public final class Threading {
 
 		@Override
 		public Thread newThread(Runnable target) {
+			int index = threadIndex.getAndIncrement();
+			if (contextFactory != null) {
+				Runnable contextless = target;
+				target = () -> ((WorkerThread) Thread.currentThread()).runWithContext(contextFactory, index, contextless);
+			}
+			if (affinityProvider != null) {
+				Runnable unpinned = target;
+				target = () -> {
+					BitSet cpus = cpusByIndex.apply(index);
+					if (cpus != null && !cpus.isEmpty()) {
+						affinityProvider.pinCurrentThread(cpus);
+					}
+					unpinned.run();
+				};
+			}
 			Thread thread;
-			if (threadNameByIndex == null) {
+			if (contextFactory != null) {
+				thread = threadNameByIndex == null
+						? new WorkerThread(target)
+						: new WorkerThread(target, threadNameByIndex.apply(index));
+			} else if (threadNameByIndex == null) {
 				thread = new Thread(target);
 			} else {
-				thread = new Thread(target, threadNameByIndex.apply(threadIndex.getAndIncrement()));
+				thread = new Thread(target, threadNameByIndex.apply(index));
 			}
 			if (contextClassLoader != null) {
 				thread.setContextClassLoader(contextClassLoader.orElse(null));
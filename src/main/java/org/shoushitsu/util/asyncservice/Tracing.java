@@ -0,0 +1,31 @@
+package org.shoushitsu.util.asyncservice;
+
+import java.util.Iterator;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+
+/**
+ * Holder of the {@link TaskTracer}, if there is one.
+ */
+final class Tracing {
+
+	/**
+	 * The tracer, or {@code null} if there is none.
+	 * This is a constant, so checking it on the hot path is free once the code is compiled.
+	 */
+	static final TaskTracer TRACER = load();
+
+	private static TaskTracer load() {
+		try {
+			Iterator<TaskTracer> tracers = ServiceLoader.load(TaskTracer.class, Tracing.class.getClassLoader()).iterator();
+			return tracers.hasNext() ? tracers.next() : null;
+		} catch (ServiceConfigurationError | LinkageError e) {
+			// a broken tracer must not break the services
+			return null;
+		}
+	}
+
+	private Tracing() {
+	}
+
+}
@@ -1,8 +1,6 @@
 package org.shoushitsu.util.asyncservice;
 
 import java.util.Collection;
-import java.util.LinkedList;
-import java.util.Queue;
 
 /**
  * <p>A task queue with two "levels": <em>external</em>, which is bounded, and <em>internal</em>, which is unbounded.
@@ -14,7 +12,7 @@ public final class TwoLevelTaskQueue extends ATaskQueue {
 
 	private final BoundedArrayQueue externalQueue;
 
-	private final Queue<Task<?>> internalQueue;
+	private final TaskList internalQueue;
 
 	/**
 	 * The sink to be used by "external" clients of the asynchronous service.
@@ -27,10 +25,44 @@ public final class TwoLevelTaskQueue extends ATaskQueue {
 	public final TaskSink internalSink;
 
 	public TwoLevelTaskQueue(int externalCapacityLog2) {
-		externalQueue = new BoundedArrayQueue(externalCapacityLog2);
-		internalQueue = new LinkedList<>();
-		externalSink = createSink(new BoundedArrayQueueSinkImpl(externalQueue));
-		internalSink = createSink(new UnboundedQueueSinkImpl(internalQueue));
+		this(externalCapacityLog2, OverflowPolicy.block());
+	}
+
+	/**
+	 * Create a two-level task queue with the specified overflow policy for the external level.
+	 *
+	 * @param externalCapacityLog2 binary logarithm of the desired maximum size of the external queue.
+	 * @param overflowPolicy what to do with external tasks that don't fit into the queue.
+	 * The policy only applies to the external level: internal tasks are never shed.
+	 *
+	 * @throws java.lang.IllegalArgumentException if {@code externalCapacityLog2 < 0 || externalCapacityLog2 > 30},
+	 * or {@code overflowPolicy == null}.
+	 */
+	public TwoLevelTaskQueue(int externalCapacityLog2, OverflowPolicy overflowPolicy) {
+		externalQueue = new BoundedArrayQueue(externalCapacityLog2, this, overflowPolicy);
+		internalQueue = new TaskList();
+		externalSink = createSink("external", new BoundedArrayQueueSinkImpl(externalQueue));
+		internalSink = createSink("internal", new UnboundedQueueSinkImpl(internalQueue));
+	}
+
+	/**
+	 * @return the maximum size of the external queue.
+	 */
+	public final int externalCapacity() {
+		return externalQueue.capacity();
+	}
+
+	/**
+	 * Change the maximum size of the external queue at runtime. The internal queue stays unbounded.
+	 *
+	 * @param capacity the new maximum size. It doesn't have to be a power of two.
+	 *
+	 * @throws java.lang.IllegalArgumentException if {@code capacity < 1 || capacity > 1 << 30}.
+	 *
+	 * @see BoundedArrayQueue#setCapacity(int)
+	 */
+	public final void setExternalCapacity(int capacity) {
+		externalQueue.setCapacity(capacity);
 	}
 
 	@Override
@@ -38,6 +70,11 @@ public final class TwoLevelTaskQueue extends ATaskQueue {
 		return internalQueue.isEmpty() && externalQueue.isEmpty();
 	}
 
+	@Override
+	protected final int size() {
+		return internalQueue.size() + externalQueue.size();
+	}
+
 	@Override
 	protected final Task<?> poll() {
 		if (!internalQueue.isEmpty()) {
@@ -49,6 +86,12 @@ public final class TwoLevelTaskQueue extends ATaskQueue {
 		}
 	}
 
+	@Override
+	protected final boolean remove(Task<?> task) {
+		// cancelled external tasks are left in place as tombstones and skipped when polled
+		return internalQueue.unlink(task) || externalQueue.remove(task);
+	}
+
 	@Override
 	protected final void doDrainTo(Collection<Task<?>> sink) {
 		sink.addAll(internalQueue);
@@ -1,15 +1,13 @@
 package org.shoushitsu.util.asyncservice;
 
 import java.util.Collection;
-import java.util.LinkedList;
-import java.util.Queue;
 
 /**
  * A simple unbounded task queue with a single {@linkplain #sink sink}.
  */
 public final class UnboundedTaskQueue extends ATaskQueue {
 
-	private final Queue<Task<?>> tasks = new LinkedList<>();
+	private final TaskList tasks = new TaskList();
 
 	/**
 	 * The sink that feeds into this queue.
@@ -25,11 +23,21 @@ public final class UnboundedTaskQueue extends ATaskQueue {
 		return tasks.isEmpty();
 	}
 
+	@Override
+	protected final int size() {
+		return tasks.size();
+	}
+
 	@Override
 	protected final Task<?> poll() {
 		return tasks.poll();
 	}
 
+	@Override
+	protected final boolean remove(Task<?> task) {
+		return tasks.unlink(task);
+	}
+
 	@Override
 	protected final void doDrainTo(Collection<Task<?>> sink) {
 		sink.addAll(tasks);
@@ -0,0 +1,46 @@
+package org.shoushitsu.util.asyncservice;
+
+/**
+ * <p>Creates and disposes of the context of every worker thread: the per-worker resources, such as connections,
+ * parsers or buffers, that would otherwise be looked up in {@link ThreadLocal}s or checked out of pools
+ * by every computation. Used by {@link Threading#withWorkerContext(WorkerContextFactory)}.</p>
+ *
+ * <p>Computations get the context of the worker that runs them with {@link WorkerThread#currentContext(Class)}.
+ * Only the worker uses its context, so the context needs no synchronization.</p>
+ *
+ * @param <C> the type of the context.
+ */
+@FunctionalInterface
+public interface WorkerContextFactory<C> {
+
+	/**
+	 * Create the context of a worker. This is called by the worker thread once, before it starts taking tasks.
+	 * If this method fails, the worker runs without a context, and {@link WorkerThread#currentContext(Class)}
+	 * throws an exception that describes the failure.
+	 *
+	 * @param workerIndex the index of the worker, from {@code 0}, inclusive, to the thread count, exclusive.
+	 *
+	 * @return the context.
+	 *
+	 * @throws Exception if the context can't be created.
+	 */
+	C open(int workerIndex) throws Exception;
+
+	/**
+	 * Dispose of the context of a worker. This is called by the worker thread once, when it stops taking tasks
+	 * after the service is closed (possibly shortly after the service's {@code close()} method returns).
+	 * Exceptions thrown by this method go to the thread's uncaught exception handler.
+	 *
+	 * @implNote This implementation closes the context if it is {@link AutoCloseable}.
+	 *
+	 * @param context the context created by {@link #open(int)}.
+	 *
+	 * @throws Exception if the context can't be disposed of.
+	 */
+	default void close(C context) throws Exception {
+		if (context instanceof AutoCloseable) {
+			((AutoCloseable) context).close();
+		}
+	}
+
+}
@@ -0,0 +1,76 @@
+package org.shoushitsu.util.asyncservice;
+
+/**
+ * <p>A worker thread that holds a context created by a {@link WorkerContextFactory}.</p>
+ *
+ * <p>Asynchronous services create threads of this class if their {@link Threading} specification
+ * has a {@linkplain Threading#withWorkerContext(WorkerContextFactory) worker context}.
+ * A computation reaches the context of its worker with {@link #currentContext(Class)}, which is a field read
+ * rather than a {@link ThreadLocal} lookup.</p>
+ */
+public final class WorkerThread extends Thread {
+
+	/**
+	 * Get the context of the current worker thread.
+	 *
+	 * @param type the type of the context.
+	 *
+	 * @param <C> the type of the context.
+	 *
+	 * @return the context, or {@code null} if the current thread is not a worker thread with a context.
+	 *
+	 * @throws IllegalStateException if the context of the current worker failed to open.
+	 * @throws ClassCastException if the context is not of the specified type.
+	 */
+	public static <C> C currentContext(Class<C> type) {
+		Thread thread = Thread.currentThread();
+		if (!(thread instanceof WorkerThread)) {
+			return null;
+		}
+		WorkerThread worker = (WorkerThread) thread;
+		if (worker.openFailure != null) {
+			throw new IllegalStateException("the worker context failed to open", worker.openFailure);
+		}
+		return type.cast(worker.context);
+	}
+
+	/* Only accessed by this thread. */
+	private Object context;
+
+	/* Only accessed by this thread. */
+	private Exception openFailure;
+
+	WorkerThread(Runnable target) {
+		super(target);
+	}
+
+	WorkerThread(Runnable target, String name) {
+		super(target, name);
+	}
+
+	/**
+	 * Run the worker with a context. Called by this thread.
+	 */
+	final <C> void runWithContext(WorkerContextFactory<C> factory, int index, Runnable worker) {
+		C context;
+		try {
+			context = factory.open(index);
+		} catch (Exception e) {
+			openFailure = e;
+			worker.run();
+			return;
+		}
+		this.context = context;
+		try {
+			worker.run();
+		} finally {
+			this.context = null;
+			try {
+				factory.close(context);
+			} catch (Exception e) {
+				getUncaughtExceptionHandler().uncaughtException(this, e);
+			}
+		}
+	}
+
+}
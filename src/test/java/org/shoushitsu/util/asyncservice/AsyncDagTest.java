@@ -0,0 +1,137 @@
+package org.shoushitsu.util.asyncservice;
+
+import org.testng.annotations.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.testng.Assert.*;
+
+public class AsyncDagTest {
+
+	@Test
+	public void nodesRunWhenTheirInputsAreReady() throws Exception {
+		try (DummyAsynchronousService<UnboundedTaskQueue> service =
+				new DummyAsynchronousService<>(new UnboundedTaskQueue(), Threading.defaultThreads(2), 1000)) {
+			TaskSink sink = service.queue.sink;
+			AsyncDag.Builder builder = AsyncDag.builder();
+			AsyncDag.Node<Integer> a = builder.source("a", callback -> callback.success(1), sink);
+			AsyncDag.Node<Integer> b = builder.source("b", callback -> {
+				Thread.sleep(20);
+				callback.success(2);
+			}, sink);
+			AsyncDag.Node<Integer> merge = builder.add(
+					"merge",
+					(inputs, callback) -> callback.success(inputs.get(a) + inputs.get(b)),
+					sink,
+					a, b
+			);
+			AsyncDag.Node<Integer> left = builder.then("left", merge, (input, callback) -> callback.success(input * 10), null);
+			AsyncDag.Node<String> right = builder.then("right", merge, (input, callback) -> callback.success("#" + input), sink);
+
+			Outcome outcome = new Outcome();
+			builder.build().execute(outcome);
+			AsyncDag.Result result = (AsyncDag.Result) outcome.get(10, TimeUnit.SECONDS);
+
+			assertEquals((int) result.get(merge), 3);
+			assertEquals((int) result.get(left), 30);
+			assertEquals(result.get(right), "#3");
+			assertEquals(result.timings.size(), 5);
+			assertEquals(result.criticalPath.get(0).name, "b", "the slow fetch must be on the critical path");
+			assertEquals(result.criticalPath.get(1).name, "merge");
+			assertEquals(result.criticalPath.size(), 3);
+			for (AsyncDag.Timing timing : result.timings) {
+				assertTrue(timing.readyNanos <= timing.startedNanos && timing.startedNanos <= timing.completedNanos, timing.toString());
+			}
+			assertFalse(result.timings.get(0).critical);
+		}
+	}
+
+	@Test
+	public void firstFailureStopsTheGraph() throws Exception {
+		AtomicInteger dispatched = new AtomicInteger();
+		AsyncDag.Builder builder = AsyncDag.builder();
+		IllegalStateException failure = new IllegalStateException();
+		AsyncDag.Node<Integer> a = builder.source("a", callback -> {
+			throw failure;
+		}, null);
+		builder.then("b", a, (input, callback) -> {
+			dispatched.incrementAndGet();
+			callback.success(input);
+		}, null);
+
+		Outcome outcome = new Outcome();
+		builder.build().execute(outcome);
+
+		assertSame(outcome.get(10, TimeUnit.SECONDS), failure);
+		assertEquals(dispatched.get(), 0);
+	}
+
+	@Test
+	public void fullQueueFailsTheNode() throws Exception {
+		BoundedTaskQueue queue = new BoundedTaskQueue(0);
+		queue.sink.offer(() -> null, null);
+		AsyncDag.Builder builder = AsyncDag.builder();
+		builder.source("a", callback -> callback.success(1), queue.sink);
+
+		Outcome outcome = new Outcome();
+		builder.build().execute(outcome);
+
+		assertTrue(outcome.get(10, TimeUnit.SECONDS) instanceof RejectedExecutionException);
+	}
+
+	@Test
+	public void graphCanBeExecutedConcurrently() throws Exception {
+		AsyncDag.Builder builder = AsyncDag.builder();
+		CountDownLatch release = new CountDownLatch(1);
+		AsyncDag.Node<Integer> a = builder.source("a", callback -> new Thread(() -> {
+			try {
+				release.await();
+			} catch (InterruptedException e) {
+				callback.failure(e);
+				return;
+			}
+			callback.success(1);
+		}).start(), null);
+		builder.then("b", a, (input, callback) -> callback.success(input + 1), null);
+		AsyncDag dag = builder.build();
+
+		Outcome first = new Outcome();
+		Outcome second = new Outcome();
+		dag.execute(first);
+		dag.execute(second);
+		release.countDown();
+
+		assertTrue(first.get(10, TimeUnit.SECONDS) instanceof AsyncDag.Result);
+		assertTrue(second.get(10, TimeUnit.SECONDS) instanceof AsyncDag.Result);
+	}
+
+	@Test(expectedExceptions = IllegalArgumentException.class)
+	public void nodesOfOtherBuildersAreRejected() {
+		AsyncDag.Node<Object> foreign = AsyncDag.builder().source("foreign", callback -> callback.success(null), null);
+		AsyncDag.builder().then("b", foreign, (input, callback) -> callback.success(input), null);
+	}
+
+	private static final class Outcome extends CompletableFuture<Object> implements Callback<AsyncDag.Result> {
+
+		@Override
+		public final void success(AsyncDag.Result data) {
+			complete(data);
+		}
+
+		@Override
+		public final void failure(Throwable exception) {
+			complete(exception);
+		}
+
+		@Override
+		public final void terminated() {
+			complete("terminated");
+		}
+
+	}
+
+}
@@ -0,0 +1,229 @@
+package org.shoushitsu.util.asyncservice;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.Mockito.*;
+import static org.testng.Assert.*;
+
+public class BatchingTaskQueueTest {
+
+	private static final class Lookup implements Callable<Integer> {
+		final String table;
+		final int id;
+
+		Lookup(String table, int id) {
+			this.table = table;
+			this.id = id;
+		}
+
+		@Override
+		public Integer call() {
+			throw new UnsupportedOperationException("must be batched");
+		}
+	}
+
+	private final List<List<Callable<?>>> batches = new ArrayList<>();
+
+	private BatchingTaskQueue.Batcher batcher;
+
+	@BeforeMethod
+	public void setUp() {
+		batches.clear();
+		batcher = new BatchingTaskQueue.Batcher() {
+			@Override
+			public Object batchKey(Callable<?> computation) {
+				return computation instanceof Lookup ? ((Lookup) computation).table : null;
+			}
+
+			@Override
+			public List<?> computeBatch(Object key, List<Callable<?>> computations) {
+				batches.add(computations);
+				List<Integer> results = new ArrayList<>();
+				for (Callable<?> computation : computations) {
+					results.add(((Lookup) computation).id * 10);
+				}
+				return results;
+			}
+		};
+	}
+
+	@SuppressWarnings("unchecked")
+	private Callback<Object> callback() {
+		return mock(Callback.class);
+	}
+
+	@Test
+	public void fullBatchIsReadyImmediately() {
+		BatchingTaskQueue queue = new BatchingTaskQueue(batcher, 2, 1, TimeUnit.HOURS);
+		Callback<Object> first = callback();
+		Callback<Object> second = callback();
+		queue.sink.offer(new Lookup("t", 1), first);
+		assertTrue(queue.isEmpty());
+		queue.sink.offer(new Lookup("t", 2), second);
+		assertFalse(queue.isEmpty());
+
+		queue.poll().run();
+
+		assertEquals(batches.size(), 1);
+		assertEquals(batches.get(0).size(), 2);
+		verify(first).success(10);
+		verify(second).success(20);
+	}
+
+	@Test
+	public void partialBatchWaitsForDeadline() {
+		BatchingTaskQueue queue = new BatchingTaskQueue(batcher, 10, 1, TimeUnit.HOURS);
+		queue.sink.offer(new Lookup("t", 1), callback());
+		assertTrue(queue.isEmpty());
+		assertNull(queue.poll());
+		long delay = queue.nanosUntilReady();
+		assertTrue(delay > 0 && delay <= TimeUnit.HOURS.toNanos(1));
+
+		BatchingTaskQueue eager = new BatchingTaskQueue(batcher, 10, 0, TimeUnit.NANOSECONDS);
+		eager.sink.offer(new Lookup("t", 1), callback());
+		assertFalse(eager.isEmpty());
+		assertNotNull(eager.poll());
+	}
+
+	@Test
+	public void keysAreBatchedSeparately() {
+		BatchingTaskQueue queue = new BatchingTaskQueue(batcher, 2, 1, TimeUnit.HOURS);
+		queue.sink.offer(new Lookup("a", 1), callback());
+		queue.sink.offer(new Lookup("b", 2), callback());
+		assertTrue(queue.isEmpty());
+		queue.sink.offer(new Lookup("b", 3), callback());
+
+		queue.poll().run();
+
+		assertEquals(batches.size(), 1);
+		assertEquals(((Lookup) batches.get(0).get(0)).table, "b");
+	}
+
+	@Test
+	public void runningKeyIsLocked() {
+		BatchingTaskQueue queue = new BatchingTaskQueue(batcher, 1, 1, TimeUnit.HOURS);
+		queue.sink.offer(new Lookup("t", 1), callback());
+		queue.sink.offer(new Lookup("t", 2), callback());
+
+		Task<?> task = queue.poll();
+		assertTrue(queue.isEmpty());
+		task.run();
+		assertTrue(queue.afterCallback(task));
+		assertFalse(queue.isEmpty());
+	}
+
+	@Test
+	public void unbatchableComputationsRunAlone() {
+		BatchingTaskQueue queue = new BatchingTaskQueue(batcher, 10, 1, TimeUnit.HOURS);
+		Callback<Object> callback = callback();
+		queue.sink.offer(() -> "single", callback);
+
+		Task<?> task = queue.poll();
+		task.run();
+		assertFalse(queue.afterCallback(task));
+		verify(callback).success("single");
+		assertTrue(batches.isEmpty());
+	}
+
+	@Test
+	public void failureIsReportedToAll() {
+		Exception exception = new Exception();
+		BatchingTaskQueue queue = new BatchingTaskQueue(
+				new BatchingTaskQueue.Batcher() {
+					@Override
+					public Object batchKey(Callable<?> computation) {
+						return "key";
+					}
+
+					@Override
+					public List<?> computeBatch(Object key, List<Callable<?>> computations) throws Exception {
+						throw exception;
+					}
+				},
+				2, 1, TimeUnit.HOURS
+		);
+		Callback<Object> first = callback();
+		Callback<Object> second = callback();
+		queue.sink.offer(() -> 1, first);
+		queue.sink.offer(() -> 2, second);
+
+		queue.poll().run();
+
+		verify(first).failure(exception);
+		verify(second).failure(exception);
+	}
+
+	@Test
+	public void drainReturnsOriginalTasks() {
+		BatchingTaskQueue queue = new BatchingTaskQueue(batcher, 10, 1, TimeUnit.HOURS);
+		Callback<Object> callback = callback();
+		queue.sink.offer(new Lookup("t", 1), callback);
+		queue.sink.offer(() -> "single", callback);
+
+		List<Task<?>> drained = new ArrayList<>();
+		queue.drainTo(drained);
+
+		assertEquals(drained.size(), 2);
+		assertTrue(queue.isEmpty());
+		assertEquals(queue.nanosUntilReady(), Long.MAX_VALUE);
+	}
+
+	@Test
+	public void cancelledComputationIsRemovedFromItsBatch() {
+		BatchingTaskQueue queue = new BatchingTaskQueue(batcher, 2, 1, TimeUnit.HOURS);
+		Callback<Object> cancelled = callback();
+		Callback<Object> callback = callback();
+		TaskHandle handle = queue.sink.offerCancellable(new Lookup("t", 1), cancelled);
+		assertTrue(handle.cancel(false));
+		assertEquals(queue.lockedSize(), 0);
+		queue.sink.offer(new Lookup("t", 2), callback);
+		queue.sink.offer(new Lookup("t", 3), callback);
+
+		queue.poll().run();
+
+		assertEquals(batches.size(), 1);
+		assertEquals(batches.get(0).size(), 2);
+		verify(callback).success(20);
+		verify(callback).success(30);
+		verify(cancelled).failure(isA(CancellationException.class));
+		verifyNoMoreInteractions(cancelled);
+	}
+
+	@Test
+	public void computationCancelledAfterItsBatchWasTakenIsNotRun() {
+		BatchingTaskQueue queue = new BatchingTaskQueue(batcher, 2, 1, TimeUnit.HOURS);
+		Callback<Object> cancelled = callback();
+		Callback<Object> callback = callback();
+		TaskHandle handle = queue.sink.offerCancellable(new Lookup("t", 1), cancelled);
+		queue.sink.offer(new Lookup("t", 2), callback);
+		Task<?> batch = queue.poll();
+
+		assertTrue(handle.cancel(false));
+		batch.run();
+
+		assertEquals(batches.size(), 1);
+		assertEquals(batches.get(0).size(), 1);
+		verify(callback).success(20);
+		verify(cancelled).failure(isA(CancellationException.class));
+		verifyNoMoreInteractions(cancelled);
+	}
+
+	@Test
+	public void batchEmptiedByCancellationIsDropped() {
+		BatchingTaskQueue queue = new BatchingTaskQueue(batcher, 10, 0, TimeUnit.HOURS);
+		TaskHandle handle = queue.sink.offerCancellable(new Lookup("t", 1), callback());
+		assertTrue(handle.cancel(false));
+
+		assertTrue(queue.isEmpty());
+		assertNull(queue.poll());
+		assertEquals(queue.nanosUntilReady(), Long.MAX_VALUE);
+	}
+
+}
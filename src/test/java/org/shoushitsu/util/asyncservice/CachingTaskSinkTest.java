@@ -0,0 +1,183 @@
+package org.shoushitsu.util.asyncservice;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.Mockito.*;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+public class CachingTaskSinkTest {
+
+	private UnboundedTaskQueue queue;
+
+	private Callback<Object> callback;
+
+	private Callable<Object> computation;
+
+	@SuppressWarnings("unchecked")
+	@BeforeMethod
+	public void setUp() throws Exception {
+		queue = new UnboundedTaskQueue();
+		callback = mock(Callback.class);
+		computation = mock(Callable.class);
+		when(computation.call()).thenReturn("data");
+	}
+
+	@Test
+	public void cachedResultIsReportedWithoutTheQueue() throws Exception {
+		CachingTaskSink sink = queue.sink.caching(10, 1, 0, TimeUnit.HOURS);
+		assertTrue(sink.offer("key", computation, callback));
+		queue.poll().run();
+
+		assertTrue(sink.offer("key", computation, callback));
+		sink.put("key", computation, callback);
+
+		assertNull(queue.poll());
+		verify(computation, times(1)).call();
+		verify(callback, times(3)).success("data");
+		assertEquals(sink.missCount(), 1);
+		assertEquals(sink.hitCount(), 2);
+	}
+
+	@Test
+	public void concurrentMissesAreCoalesced() throws Exception {
+		CachingTaskSink sink = queue.sink.caching(10, 1, 0, TimeUnit.HOURS);
+		sink.offer("key", computation, callback);
+		sink.offer("key", computation, callback);
+
+		queue.poll().run();
+
+		assertNull(queue.poll());
+		verify(computation, times(1)).call();
+		verify(callback, times(2)).success("data");
+		assertEquals(sink.missCount(), 2);
+	}
+
+	@Test
+	public void resultExpires() throws Exception {
+		CachingTaskSink sink = queue.sink.caching(10, 20, 0, TimeUnit.MILLISECONDS);
+		sink.offer("key", computation, callback);
+		queue.poll().run();
+
+		Thread.sleep(50);
+		sink.offer("key", computation, callback);
+
+		assertTrue(queue.poll() != null, "an expired result must be computed again");
+		assertEquals(sink.missCount(), 2);
+	}
+
+	@Test
+	public void failuresAreCachedForTheNegativeTtl() throws Exception {
+		IOException failure = new IOException();
+		when(computation.call()).thenThrow(failure);
+		CachingTaskSink sink = queue.sink.caching(10, 1, 20, TimeUnit.MILLISECONDS);
+		sink.offer("key", computation, callback);
+		queue.poll().run();
+
+		sink.offer("key", computation, callback);
+		assertNull(queue.poll());
+		verify(callback, times(2)).failure(failure);
+
+		Thread.sleep(50);
+		sink.offer("key", computation, callback);
+		assertTrue(queue.poll() != null, "an expired failure must be computed again");
+	}
+
+	@Test
+	public void failuresAreNotCachedWithoutNegativeTtl() throws Exception {
+		when(computation.call()).thenThrow(new IOException());
+		CachingTaskSink sink = queue.sink.caching(10, 1, 0, TimeUnit.HOURS);
+		sink.offer("key", computation, callback);
+		queue.poll().run();
+
+		sink.offer("key", computation, callback);
+		assertTrue(queue.poll() != null);
+		assertEquals(sink.hitCount(), 0);
+	}
+
+	@Test
+	public void leastRecentlyUsedEntryIsEvicted() throws Exception {
+		CachingTaskSink sink = queue.sink.caching(2, 1, 0, TimeUnit.HOURS);
+		for (String key : new String[]{"a", "b"}) {
+			sink.offer(key, computation, callback);
+			queue.poll().run();
+		}
+		sink.offer("a", computation, callback);
+		sink.offer("c", computation, callback);
+		queue.poll().run();
+
+		assertEquals(sink.evictionCount(), 1);
+		sink.offer("a", computation, callback);
+		assertNull(queue.poll(), "the recently used entry must stay");
+		sink.offer("b", computation, callback);
+		assertTrue(queue.poll() != null, "the least recently used entry must be evicted");
+	}
+
+	@Test
+	public void invalidatedResultIsComputedAgain() throws Exception {
+		CachingTaskSink sink = queue.sink.caching(10, 1, 0, TimeUnit.HOURS);
+		sink.offer("a", computation, callback);
+		queue.poll().run();
+		sink.offer("b", computation, callback);
+		queue.poll().run();
+
+		sink.invalidate("a");
+		sink.offer("a", computation, callback);
+		assertTrue(queue.poll() != null);
+		sink.offer("b", computation, callback);
+		assertNull(queue.poll());
+
+		sink.invalidateAll();
+		sink.offer("b", computation, callback);
+		assertTrue(queue.poll() != null);
+	}
+
+	@Test
+	public void resultOfComputationStartedBeforeInvalidationIsNotCached() throws Exception {
+		CachingTaskSink sink = queue.sink.caching(10, 1, 0, TimeUnit.HOURS);
+		sink.offer("a", computation, callback);
+		sink.offer("b", computation, callback);
+		sink.invalidate("a");
+		queue.poll().run();
+		queue.poll().run();
+		verify(callback, times(2)).success("data");
+
+		sink.offer("a", computation, callback);
+		assertTrue(queue.poll() != null, "the stale result must not be cached");
+		sink.offer("b", computation, callback);
+		assertNull(queue.poll(), "other keys are not affected");
+	}
+
+	@Test
+	public void submissionJoiningAnInvalidatedComputationDoesNotCacheItsResult() throws Exception {
+		CachingTaskSink sink = queue.sink.caching(10, 1, 0, TimeUnit.HOURS);
+		sink.offer("key", computation, callback);
+		sink.invalidate("key");
+		sink.offer("key", computation, callback);
+		queue.poll().run();
+		assertNull(queue.poll(), "the second submission joins the first one");
+		verify(callback, times(2)).success("data");
+
+		sink.offer("key", computation, callback);
+		assertTrue(queue.poll() != null, "the stale result must not be cached");
+		assertEquals(sink.hitCount(), 0);
+	}
+
+	@Test
+	public void resultOfComputationStartedBeforeInvalidateAllIsNotCached() throws Exception {
+		CachingTaskSink sink = queue.sink.caching(10, 1, 0, TimeUnit.HOURS);
+		sink.offer("a", computation, callback);
+		sink.invalidateAll();
+		queue.poll().run();
+
+		sink.offer("a", computation, callback);
+		assertTrue(queue.poll() != null);
+	}
+
+}
@@ -0,0 +1,129 @@
+package org.shoushitsu.util.asyncservice;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import static org.testng.Assert.*;
+
+public class CallbackDispatcherTest {
+
+	private CallbackDispatcher dispatcher;
+
+	@BeforeMethod
+	public void setUp() {
+		dispatcher = new CallbackDispatcher(Threading.formatThreadNames(2, "dispatcher-%d"));
+	}
+
+	@AfterMethod
+	public void tearDown() {
+		dispatcher.close();
+	}
+
+	@Test
+	public void callbacksRunOnDispatcherThreads() throws Exception {
+		try (DummyAsynchronousService<UnboundedTaskQueue> service =
+				new DummyAsynchronousService<>(new UnboundedTaskQueue(), Threading.defaultThreads(1), 1000)) {
+			DispatchingTaskSink sink = service.queue.sink.withCallbackDispatcher(dispatcher, false);
+			List<String> threads = Collections.synchronizedList(new ArrayList<>());
+			CountDownLatch done = new CountDownLatch(10);
+			for (int i = 0; i < 10; ++i) {
+				sink.put(() -> "data", new Recorder<>(data -> {
+					threads.add(Thread.currentThread().getName());
+					done.countDown();
+				}));
+			}
+			assertTrue(done.await(10, TimeUnit.SECONDS));
+			for (String thread : threads) {
+				assertTrue(thread.startsWith("dispatcher-"), thread);
+			}
+		}
+	}
+
+	@Test
+	public void orderedCallbacksFollowTheSubmissionOrder() throws Exception {
+		UnboundedTaskQueue queue = new UnboundedTaskQueue();
+		DispatchingTaskSink sink = queue.sink.withCallbackDispatcher(dispatcher, true);
+		List<Integer> order = Collections.synchronizedList(new ArrayList<>());
+		CountDownLatch done = new CountDownLatch(5);
+		for (int i = 0; i < 5; ++i) {
+			int index = i;
+			sink.offer(() -> index, new Recorder<Integer>(data -> {
+				order.add(data);
+				done.countDown();
+			}));
+		}
+		// complete the computations in reverse order
+		List<Task<?>> tasks = new ArrayList<>();
+		Task<?> task;
+		while ((task = queue.poll()) != null) {
+			tasks.add(task);
+		}
+		Collections.reverse(tasks);
+		for (Task<?> t : tasks) {
+			t.run();
+			Thread.sleep(5);
+		}
+		assertTrue(done.await(10, TimeUnit.SECONDS));
+		assertEquals(order, Arrays.asList(0, 1, 2, 3, 4));
+	}
+
+	@Test
+	public void rejectedSubmissionsDontHoldUpTheSequence() throws Exception {
+		BoundedTaskQueue queue = new BoundedTaskQueue(0);
+		DispatchingTaskSink sink = queue.sink.withCallbackDispatcher(dispatcher, true);
+		List<Integer> order = Collections.synchronizedList(new ArrayList<>());
+		CountDownLatch done = new CountDownLatch(1);
+		assertTrue(sink.offer(() -> 1, new Recorder<Integer>(data -> {
+			order.add(data);
+			done.countDown();
+		})));
+		assertFalse(sink.offer(() -> 2, new Recorder<Integer>(order::add)));
+		queue.poll().run();
+		assertTrue(done.await(10, TimeUnit.SECONDS));
+		assertEquals(order, Collections.singletonList(1));
+	}
+
+	@Test
+	public void callbacksRunDirectlyAfterClose() throws Exception {
+		UnboundedTaskQueue queue = new UnboundedTaskQueue();
+		DispatchingTaskSink sink = queue.sink.withCallbackDispatcher(dispatcher, false);
+		List<String> threads = new ArrayList<>();
+		sink.offer(() -> "data", new Recorder<>(data -> threads.add(Thread.currentThread().getName())));
+		dispatcher.close();
+		queue.poll().run();
+		assertEquals(threads, Collections.singletonList(Thread.currentThread().getName()));
+	}
+
+	private static final class Recorder<R> implements Callback<R> {
+
+		private final Consumer<R> onSuccess;
+
+		Recorder(Consumer<R> onSuccess) {
+			this.onSuccess = onSuccess;
+		}
+
+		@Override
+		public final void success(R data) {
+			onSuccess.accept(data);
+		}
+
+		@Override
+		public final void failure(Throwable exception) {
+		}
+
+		@Override
+		public final void terminated() {
+		}
+
+	}
+
+}
@@ -0,0 +1,152 @@
+package org.shoushitsu.util.asyncservice;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.Matchers.isA;
+import static org.mockito.Mockito.*;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+public class CoalescingTaskSinkTest {
+
+	private UnboundedTaskQueue queue;
+
+	private CoalescingTaskSink sink;
+
+	private Callback<Object> first;
+
+	private Callback<Object> second;
+
+	@SuppressWarnings("unchecked")
+	@BeforeMethod
+	public void setUp() {
+		queue = new UnboundedTaskQueue();
+		sink = queue.sink.coalescing();
+		first = mock(Callback.class);
+		second = mock(Callback.class);
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	public void sameKeyIsCoalesced() throws Exception {
+		Callable<Object> computation = mock(Callable.class);
+		when(computation.call()).thenReturn("data");
+
+		assertTrue(sink.offer("key", computation, first));
+		assertTrue(sink.offer("key", computation, second));
+
+		queue.poll().run();
+		assertNull(queue.poll());
+
+		verify(computation, times(1)).call();
+		verify(first).success("data");
+		verify(second).success("data");
+	}
+
+	@Test
+	public void failureIsFannedOut() throws Exception {
+		Exception exception = new Exception();
+		sink.offer("key", () -> { throw exception; }, first);
+		sink.offer("key", () -> "unused", second);
+
+		queue.poll().run();
+
+		verify(first).failure(exception);
+		verify(second).failure(exception);
+	}
+
+	@Test
+	public void differentKeysAreIndependent() throws Exception {
+		sink.offer("a", () -> 1, first);
+		sink.offer("b", () -> 2, second);
+
+		queue.poll().run();
+		queue.poll().run();
+
+		verify(first).success(1);
+		verify(second).success(2);
+	}
+
+	@Test
+	public void keyIsReleasedAfterCompletion() throws Exception {
+		sink.offer("key", () -> 1, first);
+		queue.poll().run();
+		sink.offer("key", () -> 2, second);
+		queue.poll().run();
+
+		verify(first).success(1);
+		verify(second).success(2);
+		verifyNoMoreInteractions(first, second);
+	}
+
+	@Test
+	public void terminationIsFannedOut() throws Exception {
+		sink.offer(null, () -> 1, first);
+		sink.offer(null, () -> 2, second);
+		queue.terminate();
+
+		queue.poll().terminate();
+		verify(first).terminated();
+		verify(second).terminated();
+
+		sink.offer(null, () -> 3, second);
+		verify(second, times(2)).terminated();
+	}
+
+	@Test
+	public void submissionWaitingForSpaceIsInFlight() throws Exception {
+		BoundedTaskQueue bounded = new BoundedTaskQueue(0);
+		CoalescingTaskSink sink = bounded.sink.coalescing();
+		assertTrue(bounded.sink.offer(() -> null, null));
+		Thread putter = startPut(sink, first);
+
+		assertTrue(sink.offer("key", () -> "unused", second));
+		bounded.takeIfNotTerminated().run();
+		putter.join(TimeUnit.SECONDS.toMillis(10));
+		bounded.takeIfNotTerminated().run();
+
+		assertNull(bounded.poll());
+		verify(first).success("data");
+		verify(second).success("data");
+	}
+
+	@Test
+	public void followersOfRejectedSubmissionFail() throws Exception {
+		BoundedTaskQueue bounded = new BoundedTaskQueue(0);
+		CoalescingTaskSink sink = bounded.sink.coalescing();
+		assertTrue(bounded.sink.offer(() -> null, null));
+		Thread putter = startPut(sink, first);
+
+		assertTrue(sink.offer("key", () -> "unused", second));
+		putter.interrupt();
+		putter.join(TimeUnit.SECONDS.toMillis(10));
+
+		verify(second).failure(isA(RejectedExecutionException.class));
+		verifyZeroInteractions(first);
+		assertFalse(sink.offer("key", () -> "unused", second), "the key must be released, and the queue is still full");
+	}
+
+	private static Thread startPut(CoalescingTaskSink sink, Callback<Object> callback) throws InterruptedException {
+		Thread putter = new Thread(() -> {
+			try {
+				sink.put("key", () -> "data", callback);
+			} catch (InterruptedException e) {
+				// the test interrupts the put on purpose
+			}
+		});
+		putter.setDaemon(true);
+		putter.start();
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+		while (putter.getState() != Thread.State.WAITING && System.nanoTime() < deadline) {
+			Thread.sleep(1);
+		}
+		return putter;
+	}
+
+}
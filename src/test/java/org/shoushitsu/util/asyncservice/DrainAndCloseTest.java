@@ -0,0 +1,97 @@
+package org.shoushitsu.util.asyncservice;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.mockito.Mockito.*;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+public class DrainAndCloseTest {
+
+	private Callback<Object> callback;
+
+	@SuppressWarnings("unchecked")
+	@BeforeMethod
+	public void setUp() {
+		callback = mock(Callback.class);
+	}
+
+	@Test
+	public void queuedTasksAreProcessed() throws Exception {
+		DummyAsynchronousService<UnboundedTaskQueue> service =
+				new DummyAsynchronousService<>(new UnboundedTaskQueue(), Threading.defaultThreads(1), 1000);
+		CountDownLatch release = new CountDownLatch(1);
+		AtomicInteger reports = new AtomicInteger();
+		service.queue.sink.put(() -> release.await(10, TimeUnit.SECONDS), callback);
+		service.queue.sink.put(() -> 2, callback);
+		service.queue.sink.put(() -> 3, callback);
+
+		int terminated;
+		try {
+			CompletableFuture<Integer> closed =
+					service.drainAndClose(10, TimeUnit.SECONDS, (queued, running) -> reports.incrementAndGet());
+			service.queue.sink.put(() -> 4, callback);
+			verify(callback).terminated();
+			release.countDown();
+			terminated = closed.get(10, TimeUnit.SECONDS);
+		} finally {
+			release.countDown();
+		}
+
+		assertEquals(terminated, 0);
+		verify(callback).success(true);
+		verify(callback).success(2);
+		verify(callback).success(3);
+		assertTrue(reports.get() > 0);
+	}
+
+	@Test
+	public void cancelledTasksDoNotHoldUpTheDrain() throws Exception {
+		DummyAsynchronousService<BoundedTaskQueue> service =
+				new DummyAsynchronousService<>(new BoundedTaskQueue(2), Threading.defaultThreads(1), 1000);
+		CountDownLatch release = new CountDownLatch(1);
+		try {
+			service.queue.sink.put(() -> release.await(10, TimeUnit.SECONDS), callback);
+			TaskHandle first = service.queue.sink.putCancellable(() -> 2, callback);
+			TaskHandle second = service.queue.sink.putCancellable(() -> 3, callback);
+			first.cancel(false);
+			second.cancel(false);
+			release.countDown();
+
+			int terminated = service.drainAndClose(10, TimeUnit.SECONDS, null).get(10, TimeUnit.SECONDS);
+
+			assertEquals(terminated, 0);
+			verify(callback).success(true);
+			verify(callback, never()).success(2);
+			verify(callback, never()).success(3);
+		} finally {
+			release.countDown();
+		}
+	}
+
+	@Test
+	public void remainderIsTerminatedAtDeadline() throws Exception {
+		DummyAsynchronousService<UnboundedTaskQueue> service =
+				new DummyAsynchronousService<>(new UnboundedTaskQueue(), Threading.defaultThreads(1), 1000);
+		CountDownLatch release = new CountDownLatch(1);
+		try {
+			service.queue.sink.put(() -> release.await(10, TimeUnit.SECONDS), callback);
+			service.queue.sink.put(() -> 2, callback);
+			service.queue.sink.put(() -> 3, callback);
+
+			int terminated = service.drainAndClose(50, TimeUnit.MILLISECONDS, null).get(10, TimeUnit.SECONDS);
+
+			assertEquals(terminated, 2);
+			verify(callback, times(2)).terminated();
+		} finally {
+			release.countDown();
+		}
+	}
+
+}
@@ -0,0 +1,133 @@
+package org.shoushitsu.util.asyncservice;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.concurrent.Callable;
+
+import static org.mockito.Mockito.*;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+public class InliningTaskSinkTest {
+
+	private Callback<Object> first;
+
+	private Callback<Object> second;
+
+	@SuppressWarnings("unchecked")
+	@BeforeMethod
+	public void setUp() {
+		first = mock(Callback.class);
+		second = mock(Callback.class);
+	}
+
+	@Test
+	public void runsInlineWhenQueueIsEmpty() throws Exception {
+		UnboundedTaskQueue queue = new UnboundedTaskQueue();
+		InliningTaskSink sink = queue.sink.inlining(1, InliningTaskSink.Condition.QUEUE_EMPTY);
+
+		assertTrue(sink.offer(() -> 1, first));
+		verify(first).success(1);
+		assertNull(queue.poll());
+	}
+
+	@Test
+	public void runsInlineWhenQueueIsFull() throws Exception {
+		BoundedTaskQueue queue = new BoundedTaskQueue(0);
+		InliningTaskSink sink = queue.sink.inlining(1, InliningTaskSink.Condition.QUEUE_FULL);
+
+		assertTrue(sink.offer(() -> 1, first));
+		verifyZeroInteractions(first);
+		sink.put(() -> 2, second);
+		verify(second).success(2);
+	}
+
+	@Test
+	public void respectsDepthLimit() throws Exception {
+		UnboundedTaskQueue queue = new UnboundedTaskQueue();
+		InliningTaskSink sink = queue.sink.inlining(1, InliningTaskSink.Condition.QUEUE_EMPTY);
+
+		assertTrue(sink.offer(() -> sink.offer(() -> 2, second), first));
+		verify(first).success(true);
+		verifyZeroInteractions(second);
+
+		Task<?> nested = queue.poll();
+		assertNotNull(nested);
+		nested.run();
+		verify(second).success(2);
+	}
+
+	@Test
+	public void respectsSplittingBuckets() throws Exception {
+		SplittingTaskQueue queue = new SplittingTaskQueue(Callable::toString);
+		InliningTaskSink sink = queue.sink.inlining(2, InliningTaskSink.Condition.QUEUE_EMPTY);
+		Callable<Object> computation = new Callable<Object>() {
+			@Override
+			public Object call() {
+				// the bucket of this computation is locked while it runs inline
+				return sink.offer(this, second);
+			}
+
+			@Override
+			public String toString() {
+				return "bucket";
+			}
+		};
+
+		assertTrue(sink.offer(computation, first));
+		verify(first).success(true);
+		verifyZeroInteractions(second);
+		assertEquals(queue.lockedSize(), 1);
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	public void doesNotOvertakeQueuedTasksOfTheBucket() throws Exception {
+		Callback<Object> third = mock(Callback.class);
+		Callable<Object> other = () -> 3;
+		SplittingTaskQueue queue = new SplittingTaskQueue(computation -> computation == other ? "other" : "same");
+		InliningTaskSink sink = queue.sink.inlining(1, InliningTaskSink.Condition.SUBMITTER_IS_WORKER);
+		ATaskQueue.WORKER_QUEUE.set(queue);
+		try {
+			queue.sink.offer(() -> 1, first);
+			assertTrue(sink.offer(() -> 2, second));
+			verifyZeroInteractions(second);
+			assertTrue(sink.offer(other, third));
+			verify(third).success(3);
+
+			Task<?> task = queue.poll();
+			task.run();
+			queue.completed(task);
+			verify(first).success(1);
+			// the second task is still queued
+			assertTrue(sink.offer(() -> 4, third));
+			verify(third, never()).success(4);
+
+			while ((task = queue.poll()) != null) {
+				task.run();
+				queue.completed(task);
+			}
+			assertTrue(sink.offer(() -> 5, third));
+			verify(third).success(5);
+		} finally {
+			ATaskQueue.WORKER_QUEUE.remove();
+		}
+	}
+
+	@Test
+	public void inlinedTasksAreRecordedInMetrics() throws Exception {
+		UnboundedTaskQueue queue = new UnboundedTaskQueue();
+		QueueMetrics metrics = queue.enableMetrics();
+		InliningTaskSink sink = queue.sink.inlining(1, InliningTaskSink.Condition.QUEUE_EMPTY);
+
+		assertTrue(sink.offer(() -> 1, first));
+		verify(first).success(1);
+		QueueMetrics.Snapshot snapshot = metrics.snapshot();
+		assertEquals(snapshot.taken, 1);
+		assertEquals(snapshot.runTime.count, 1);
+	}
+
+}
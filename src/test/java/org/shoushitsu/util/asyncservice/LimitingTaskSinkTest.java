@@ -0,0 +1,72 @@
+package org.shoushitsu.util.asyncservice;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.Mockito.*;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+public class LimitingTaskSinkTest {
+
+	private UnboundedTaskQueue queue;
+
+	private Callback<Object> callback;
+
+	@SuppressWarnings("unchecked")
+	@BeforeMethod
+	public void setUp() {
+		queue = new UnboundedTaskQueue();
+		callback = mock(Callback.class);
+	}
+
+	@Test
+	public void excessOffersAreRejected() throws Exception {
+		LimitingTaskSink sink = queue.sink.withConcurrencyLimit(
+				ConcurrencyLimit.aimd(2, 1, 2, 1, TimeUnit.HOURS, 0.5)
+		);
+
+		assertTrue(sink.offer(() -> "data", callback));
+		assertTrue(sink.offer(() -> "data", callback));
+		assertFalse(sink.offer(() -> "data", callback));
+		assertEquals(sink.inFlight(), 2);
+		assertEquals(sink.rejectedCount(), 1);
+
+		queue.poll().run();
+		assertEquals(sink.inFlight(), 1);
+		assertTrue(sink.offer(() -> "data", callback));
+		verify(callback).success("data");
+	}
+
+	@Test
+	public void aimdBacksOffOnSlowSamplesAndGrowsOnFastOnes() {
+		ConcurrencyLimit limit = ConcurrencyLimit.aimd(10, 2, 20, 100, TimeUnit.NANOSECONDS, 0.5);
+
+		limit.onSample(1000, 10, false);
+		assertEquals(limit.getLimit(), 5);
+		limit.onSample(10, 5, false);
+		assertEquals(limit.getLimit(), 6);
+		limit.onSample(10, 1, false);
+		assertEquals(limit.getLimit(), 6, "an unused limit must not grow");
+		limit.onSample(10, 6, true);
+		assertEquals(limit.getLimit(), 3);
+	}
+
+	@Test
+	public void gradientShrinksWhenLatencyRises() {
+		ConcurrencyLimit limit = ConcurrencyLimit.gradient(50, 1, 100);
+		for (int i = 0; i < 100; ++i) {
+			limit.onSample(1000, 50, false);
+		}
+		int steady = limit.getLimit();
+		assertTrue(steady > 50, "the limit should probe upwards while the latency is stable");
+		for (int i = 0; i < 100; ++i) {
+			limit.onSample(10_000, steady, false);
+		}
+		assertTrue(limit.getLimit() < steady, "the limit should shrink when the latency rises");
+	}
+
+}
@@ -0,0 +1,157 @@
+package org.shoushitsu.util.asyncservice;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.Mockito.*;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+public class OverflowPolicyTest {
+
+	private Callback<Object> first;
+
+	private Callback<Object> second;
+
+	private Callback<Object> third;
+
+	@SuppressWarnings("unchecked")
+	@BeforeMethod
+	public void setUp() {
+		first = mock(Callback.class);
+		second = mock(Callback.class);
+		third = mock(Callback.class);
+	}
+
+	@Test
+	public void blockRejects() throws Exception {
+		BoundedTaskQueue queue = new BoundedTaskQueue(0);
+
+		assertTrue(queue.sink.offer(() -> 1, first));
+		assertFalse(queue.sink.offer(() -> 2, second));
+
+		verifyZeroInteractions(first, second);
+	}
+
+	@Test
+	public void dropOldestEvictsHead() throws Exception {
+		BoundedTaskQueue queue = new BoundedTaskQueue(0, OverflowPolicy.dropOldest());
+		QueueMetrics metrics = queue.enableMetrics();
+
+		assertTrue(queue.sink.offer(() -> 1, first));
+		assertTrue(queue.sink.offer(() -> 2, second));
+		verify(first).terminated();
+
+		queue.takeIfNotTerminated().run();
+		verify(second).success(2);
+		assertEquals(metrics.snapshot().shed, 1);
+	}
+
+	@Test
+	public void dropOldestSkipsTaskBeingCancelled() throws Exception {
+		BoundedTaskQueue queue = new BoundedTaskQueue(0, OverflowPolicy.dropOldest());
+		TaskHandle handle = queue.sink.offerCancellable(() -> 1, first);
+		Thread canceller;
+		queue.lock.lock();
+		try {
+			// the cancel completes the task, then waits for the lock to remove it from the queue
+			canceller = new Thread(() -> handle.cancel(false));
+			canceller.start();
+			while (!queue.lock.hasQueuedThread(canceller)) {
+				Thread.sleep(1);
+			}
+
+			assertTrue(queue.sink.offer(() -> 2, second));
+		} finally {
+			queue.lock.unlock();
+		}
+		canceller.join();
+
+		queue.takeIfNotTerminated().run();
+		verify(second).success(2);
+		verify(first, never()).terminated();
+	}
+
+	@Test
+	public void dropNewestTerminatesNewTask() throws Exception {
+		BoundedTaskQueue queue = new BoundedTaskQueue(0, OverflowPolicy.dropNewest());
+
+		assertTrue(queue.sink.offer(() -> 1, first));
+		queue.sink.put(() -> 2, second);
+		verify(second).terminated();
+
+		queue.takeIfNotTerminated().run();
+		verify(first).success(1);
+	}
+
+	@Test
+	public void droppedTasksDoNotWakeWorkers() throws Exception {
+		BoundedTaskQueue queue = new BoundedTaskQueue(0, OverflowPolicy.dropNewest());
+		queue.enableLockProfiling();
+		QueueMetrics metrics = queue.enableMetrics();
+
+		assertTrue(queue.sink.offer(() -> 1, first));
+		assertTrue(queue.sink.offer(() -> 2, second));
+		assertTrue(queue.sink.offer(() -> 3, third, 0, TimeUnit.MILLISECONDS));
+		queue.sink.put(() -> 4, third);
+
+		LockProfile.Snapshot profile = metrics.snapshot().lockProfile;
+		assertEquals(profile.sites.get(LockProfile.Site.OFFER).signals, 1);
+		assertEquals(profile.sites.get(LockProfile.Site.PUT).signals, 0);
+		assertEquals(metrics.snapshot().shed, 3);
+	}
+
+	@Test
+	public void tasksRunByCallerDoNotWakeWorkers() throws Exception {
+		BoundedTaskQueue queue = new BoundedTaskQueue(0, OverflowPolicy.callerRuns());
+		queue.enableLockProfiling();
+		QueueMetrics metrics = queue.enableMetrics();
+
+		assertTrue(queue.sink.offer(() -> 1, first));
+		assertTrue(queue.sink.offer(() -> 2, second));
+		assertTrue(queue.sink.offer(() -> 3, third, 0, TimeUnit.MILLISECONDS));
+		queue.sink.put(() -> 4, third);
+
+		LockProfile.Snapshot profile = metrics.snapshot().lockProfile;
+		assertEquals(profile.sites.get(LockProfile.Site.OFFER).signals, 1);
+		assertEquals(profile.sites.get(LockProfile.Site.PUT).signals, 0);
+		verify(second).success(2);
+		verify(third).success(3);
+		verify(third).success(4);
+	}
+
+	@Test
+	public void callerRunsNewTask() throws Exception {
+		TwoLevelTaskQueue queue = new TwoLevelTaskQueue(0, OverflowPolicy.callerRuns());
+		Thread caller = Thread.currentThread();
+
+		assertTrue(queue.externalSink.offer(() -> 1, first));
+		assertTrue(queue.externalSink.offer(() -> Thread.currentThread() == caller, second));
+		verify(second).success(true);
+		verifyZeroInteractions(first);
+	}
+
+	@Test
+	public void coDelDropsFromStandingQueue() throws Exception {
+		BoundedTaskQueue queue = new BoundedTaskQueue(2, OverflowPolicy.coDel(1, 1, TimeUnit.MILLISECONDS));
+
+		queue.sink.offer(() -> 1, first);
+		queue.sink.offer(() -> 2, second);
+		queue.sink.offer(() -> 3, third);
+		Thread.sleep(2);
+
+		// the first task starts the interval, the second one is dropped after it expires,
+		// and the last one is never dropped
+		queue.takeIfNotTerminated().run();
+		Thread.sleep(2);
+		queue.takeIfNotTerminated().run();
+
+		verify(first).success(1);
+		verify(second).terminated();
+		verify(third).success(3);
+	}
+
+}
@@ -0,0 +1,121 @@
+package org.shoushitsu.util.asyncservice;
+
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.*;
+import static org.testng.Assert.*;
+
+public class PrimitiveCallbackTest {
+
+	@Test
+	public void primitiveResultIsNotBoxed() throws Exception {
+		UnboundedTaskQueue queue = new UnboundedTaskQueue();
+		IntCallback intCallback = mock(IntCallback.class);
+		LongCallback longCallback = mock(LongCallback.class);
+		assertTrue(queue.sink.offerInt(() -> 42, intCallback));
+		queue.sink.putLong(() -> 1L << 40, longCallback);
+
+		queue.poll().run();
+		queue.poll().run();
+
+		verify(intCallback).success(42);
+		verify(intCallback, never()).success(any(Integer.class));
+		verify(longCallback).success(1L << 40);
+		verify(longCallback, never()).success(any(Long.class));
+	}
+
+	@Test
+	public void failureIsReported() throws Exception {
+		UnboundedTaskQueue queue = new UnboundedTaskQueue();
+		LongCallback callback = mock(LongCallback.class);
+		IOException failure = new IOException();
+		queue.sink.offerLong(() -> {
+			throw failure;
+		}, callback);
+
+		queue.poll().run();
+
+		verify(callback).failure(failure);
+		verifyNoMoreInteractions(callback);
+	}
+
+	@Test
+	public void primitiveFormsInteroperateWithGenericOnes() throws Exception {
+		UnboundedTaskQueue queue = new UnboundedTaskQueue();
+		AtomicLong primitive = new AtomicLong();
+		IntCallable intComputation = () -> 7;
+		Callable<Integer> boxedComputation = () -> 8;
+		@SuppressWarnings("unchecked")
+		Callback<Object> generic = mock(Callback.class);
+
+		queue.sink.offer(intComputation, generic);
+		queue.sink.offer(boxedComputation, IntCallback.madeOf(primitive::set, null, null));
+		queue.sink.offerInt(intComputation, IntCallback.from(generic));
+		queue.poll().run();
+		queue.poll().run();
+		queue.poll().run();
+
+		verify(generic, times(2)).success(7);
+		assertEquals(primitive.get(), 8);
+	}
+
+	@Test
+	public void adaptingPrimitiveCallbackIsIdentity() {
+		LongCallback callback = LongCallback.madeOf(null, null, null);
+		assertSame(LongCallback.from(callback), callback);
+		assertNull(IntCallback.from(null));
+	}
+
+	@Test
+	public void chainPassesPrimitiveResultsBetweenStages() {
+		AtomicReference<Callback<?>> producerCallback = new AtomicReference<>();
+		AtomicReference<Object> result = new AtomicReference<>();
+		AsyncChain.withDefaults(null, null)
+				.callToLong((input, callback) -> {
+					producerCallback.set(callback);
+					callback.success(41L);
+				})
+				.call(AsyncChain.fromLong((input, callback) -> callback.success("#" + (input + 1))))
+				.execute(result::set);
+
+		assertEquals(result.get(), "#42");
+		assertSame(LongCallback.from(castToLong(producerCallback.get())), producerCallback.get(),
+				"the producing stage must get the primitive link of the next stage");
+	}
+
+	@Test
+	public void chainBoxesPrimitiveResultsForGenericStages() {
+		AtomicReference<Object> result = new AtomicReference<>();
+		AsyncChain.withDefaults(null, null)
+				.callToLong((input, callback) -> callback.success(41L))
+				.call((Long input, Callback<? super Long> callback) -> callback.success(input + 1))
+				.execute(result::set);
+
+		assertEquals(result.get(), 42L);
+	}
+
+	@Test
+	public void nullResultBeforePrimitiveStageIsReportedAsFailure() {
+		AtomicReference<Throwable> failure = new AtomicReference<>();
+		AtomicReference<Object> result = new AtomicReference<>();
+		AsyncChain.withDefaults(null, null)
+				.call((Void input, Callback<? super Long> callback) -> callback.success(null), failure::set, null)
+				.call(AsyncChain.fromLong((input, callback) -> callback.success(input)))
+				.execute(result::set);
+
+		assertTrue(failure.get() instanceof NullPointerException);
+		assertNull(result.get());
+	}
+
+	@SuppressWarnings("unchecked")
+	private static Callback<? super Long> castToLong(Callback<?> callback) {
+		return (Callback<? super Long>) callback;
+	}
+
+}
@@ -0,0 +1,117 @@
+package org.shoushitsu.util.asyncservice;
+
+import org.testng.annotations.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.testng.Assert.*;
+
+public class QueueMetricsTest {
+
+	@Test
+	public void histogramPercentiles() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		for (long i = 1; i <= 1000; ++i) {
+			histogram.record(i * 1000);
+		}
+		LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+		assertEquals(snapshot.count, 1000);
+		assertEquals(snapshot.max, 1_000_000);
+		assertEquals(snapshot.valueAtPercentile(100), 1_000_000);
+		long p50 = snapshot.valueAtPercentile(50);
+		assertTrue(Math.abs(p50 - 500_000) <= 500_000 / 32, Long.toString(p50));
+		long p99 = snapshot.valueAtPercentile(99);
+		assertTrue(Math.abs(p99 - 990_000) <= 990_000 / 32, Long.toString(p99));
+	}
+
+	@Test
+	public void bucketsCoverAllValues() {
+		for (long value : new long[]{0, 1, 31, 32, 33, 1000, 1L << 40, Long.MAX_VALUE}) {
+			int index = LatencyHistogram.bucketIndex(value);
+			assertTrue(LatencyHistogram.highestEquivalentValue(index) >= value, Long.toString(value));
+			if (index > 0) {
+				assertTrue(LatencyHistogram.highestEquivalentValue(index - 1) < value, Long.toString(value));
+			}
+		}
+	}
+
+	@Test
+	public void disabledByDefault() {
+		TwoLevelTaskQueue queue = new TwoLevelTaskQueue(1);
+		try (DummyAsynchronousService<TwoLevelTaskQueue> service =
+				     new DummyAsynchronousService<>(queue, Threading.defaultThreads(1), 1000)) {
+			assertNull(service.metricsSnapshot());
+		}
+	}
+
+	@Test
+	public void serviceCountsTasks() throws Exception {
+		TwoLevelTaskQueue queue = new TwoLevelTaskQueue(1);
+		queue.enableMetrics();
+		CountDownLatch blocker = new CountDownLatch(1);
+		CountDownLatch done = new CountDownLatch(3);
+		try (DummyAsynchronousService<TwoLevelTaskQueue> service =
+				     new DummyAsynchronousService<>(queue, Threading.defaultThreads(1), 1000)) {
+			Callback<Object> callback = Callback.onSuccess(__ -> done.countDown());
+			queue.externalSink.put(() -> { blocker.await(); return null; }, callback);
+			queue.externalSink.put(() -> null, callback);
+			queue.externalSink.put(() -> null, callback);
+			assertFalse(queue.externalSink.offer(() -> null, callback));
+			queue.internalSink.put(() -> null, null);
+
+			QueueMetrics.Snapshot snapshot = service.metricsSnapshot();
+			assertTrue(snapshot.size >= 2, snapshot.toString());
+
+			blocker.countDown();
+			assertTrue(done.await(10, TimeUnit.SECONDS));
+		}
+		QueueMetrics.Snapshot snapshot = queue.enableMetrics().snapshot();
+		assertEquals(snapshot.sinks.get(0).name, "external");
+		assertEquals(snapshot.sinks.get(0).accepted, 3);
+		assertEquals(snapshot.sinks.get(0).rejected, 1);
+		assertEquals(snapshot.sinks.get(1).name, "internal");
+		assertEquals(snapshot.sinks.get(1).accepted, 1);
+		assertEquals(snapshot.taken, 4);
+		assertEquals(snapshot.size, 0);
+		assertEquals(snapshot.waitTime.count, 4);
+		assertEquals(snapshot.runTime.count, 4);
+	}
+
+	@Test
+	public void lockProfileCountsCallSites() throws Exception {
+		UnboundedTaskQueue queue = new UnboundedTaskQueue();
+		queue.enableLockProfiling();
+		CountDownLatch done = new CountDownLatch(10);
+		try (DummyAsynchronousService<UnboundedTaskQueue> service =
+				     new DummyAsynchronousService<>(queue, Threading.defaultThreads(2), 1000)) {
+			for (int i = 0; i < 5; ++i) {
+				service.queue.sink.offer(() -> null, Callback.onSuccess(__ -> done.countDown()));
+				service.queue.sink.put(() -> null, Callback.onSuccess(__ -> done.countDown()));
+			}
+			assertTrue(done.await(10, TimeUnit.SECONDS));
+		}
+		LockProfile.Snapshot profile = queue.enableMetrics().snapshot().lockProfile;
+		assertNotNull(profile);
+		assertEquals(profile.sites.get(LockProfile.Site.OFFER).acquisitions, 5);
+		assertEquals(profile.sites.get(LockProfile.Site.OFFER).signals, 5);
+		assertEquals(profile.sites.get(LockProfile.Site.PUT).acquisitions, 5);
+		assertEquals(profile.sites.get(LockProfile.Site.AFTER_CALLBACK).acquisitions, 10);
+		assertTrue(profile.sites.get(LockProfile.Site.TAKE).acquisitions >= 10);
+	}
+
+	@Test
+	public void lockProfileCountsShortLivedThreads() throws Exception {
+		UnboundedTaskQueue queue = new UnboundedTaskQueue();
+		queue.enableLockProfiling();
+		for (int i = 0; i < 100; ++i) {
+			Thread submitter = new Thread(() -> queue.sink.offer(() -> null, null));
+			submitter.start();
+			submitter.join();
+		}
+		LockProfile.Snapshot profile = queue.enableMetrics().snapshot().lockProfile;
+		assertEquals(profile.sites.get(LockProfile.Site.OFFER).acquisitions, 100);
+		assertEquals(profile.sites.get(LockProfile.Site.OFFER).signals, 100);
+	}
+
+}
@@ -0,0 +1,141 @@
+package org.shoushitsu.util.asyncservice;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.Mockito.*;
+import static org.testng.Assert.*;
+
+public class RateLimitingTaskSinkTest {
+
+	private UnboundedTaskQueue queue;
+
+	private ScheduledExecutorService scheduler;
+
+	private Callback<Object> callback;
+
+	@SuppressWarnings("unchecked")
+	@BeforeMethod
+	public void setUp() {
+		queue = new UnboundedTaskQueue();
+		scheduler = Executors.newSingleThreadScheduledExecutor();
+		callback = mock(Callback.class);
+	}
+
+	@AfterMethod
+	public void tearDown() {
+		scheduler.shutdownNow();
+	}
+
+	@Test
+	public void burstIsAllowedPerKeyThenRejected() {
+		RateLimitingTaskSink sink = queue.sink.withRateLimit(RateLimit.perSecond(0.001, 2), scheduler);
+
+		assertTrue(sink.offer("a", () -> "data", callback));
+		assertTrue(sink.offer("a", () -> "data", callback));
+		assertFalse(sink.offer("a", () -> "data", callback));
+		assertTrue(sink.offer("b", () -> "data", callback), "keys must have separate buckets");
+		assertTrue(sink.offer(null, () -> "data", callback));
+		assertEquals(sink.rejectedCount(), 1);
+		assertEquals(sink.trackedKeys(), 3);
+	}
+
+	@Test
+	public void bucketsRefill() throws Exception {
+		RateLimitingTaskSink sink = queue.sink.withRateLimit(RateLimit.perSecond(100, 1), scheduler);
+
+		assertTrue(sink.offer("a", () -> "data", callback));
+		assertFalse(sink.offer("a", () -> "data", callback));
+		Thread.sleep(50);
+		assertTrue(sink.offer("a", () -> "data", callback));
+	}
+
+	@Test
+	public void delayedSubmissionsAreParkedInTheScheduler() throws Exception {
+		RateLimitingTaskSink sink = queue.sink.withRateLimit(
+				RateLimit.perSecond(20, 1).delaying(1, TimeUnit.SECONDS),
+				scheduler
+		);
+
+		assertTrue(sink.offer("a", () -> "data", callback));
+		assertTrue(sink.offer("a", () -> "data", callback));
+		assertEquals(queue.size(), 1, "the second submission must wait for its token");
+		assertEquals(sink.delayedCount(), 1);
+
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		while (queue.size() < 2 && System.nanoTime() < deadline) {
+			Thread.sleep(5);
+		}
+		assertEquals(queue.size(), 2);
+	}
+
+	@Test
+	public void delaysLongerThanTheMaximumAreRejected() {
+		RateLimitingTaskSink sink = queue.sink.withRateLimit(
+				RateLimit.perSecond(1, 1).delaying(10, TimeUnit.MILLISECONDS),
+				scheduler
+		);
+
+		assertTrue(sink.offer("a", () -> "data", callback));
+		assertFalse(sink.offer("a", () -> "data", callback));
+		assertEquals(sink.delayedCount(), 0);
+	}
+
+	@Test
+	public void shutDownSchedulerTerminatesDelayedSubmissions() {
+		RateLimitingTaskSink sink = queue.sink.withRateLimit(
+				RateLimit.perSecond(1, 1).delaying(1, TimeUnit.HOURS),
+				scheduler
+		);
+		scheduler.shutdown();
+
+		assertTrue(sink.offer("a", () -> "data", callback));
+		assertTrue(sink.offer("a", () -> "data", callback));
+		verify(callback).terminated();
+	}
+
+	@Test
+	public void fullBucketsAreEvicted() throws Exception {
+		RateLimitingTaskSink sink = queue.sink.withRateLimit(RateLimit.perSecond(1000, 1).withMaxKeys(2), scheduler);
+
+		sink.offer("a", () -> "data", callback);
+		sink.offer("b", () -> "data", callback);
+		Thread.sleep(10);
+		sink.offer("c", () -> "data", callback);
+		assertEquals(sink.trackedKeys(), 1);
+	}
+
+	@Test
+	public void theBucketClosestToFullIsEvictedWhenAllAreBusy() {
+		RateLimitingTaskSink sink = queue.sink.withRateLimit(RateLimit.perSecond(0.001, 2).withMaxKeys(2), scheduler);
+
+		sink.offer("a", () -> "data", callback);
+		sink.offer("a", () -> "data", callback);
+		sink.offer("b", () -> "data", callback);
+		sink.offer("c", () -> "data", callback);
+		assertEquals(sink.trackedKeys(), 2);
+		assertFalse(sink.offer("a", () -> "data", callback), "the busiest key must stay limited");
+	}
+
+	@Test
+	public void busyBucketsAreEvictedInBatches() {
+		RateLimitingTaskSink sink = queue.sink.withRateLimit(RateLimit.perSecond(0.001, 1).withMaxKeys(16), scheduler);
+		for (int i = 0; i < 16; ++i) {
+			sink.offer(i, () -> "data", callback);
+		}
+		assertEquals(sink.trackedKeys(), 16);
+
+		sink.offer(16, () -> "data", callback);
+		assertEquals(sink.trackedKeys(), 14, "room must be made for two more keys");
+		sink.offer(17, () -> "data", callback);
+		sink.offer(18, () -> "data", callback);
+		assertEquals(sink.trackedKeys(), 16);
+		assertFalse(sink.offer(16, () -> "data", callback), "the newest keys must stay limited");
+	}
+
+}
@@ -0,0 +1,168 @@
+package org.shoushitsu.util.asyncservice;
+
+import org.mockito.InOrder;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.mockito.Mockito.*;
+import static org.testng.Assert.*;
+
+public class ResizableCapacityTest {
+
+	private Callback<Object> callback;
+
+	@SuppressWarnings("unchecked")
+	@BeforeMethod
+	public void setUp() {
+		callback = mock(Callback.class);
+	}
+
+	@Test
+	public void growingWakesBlockedPuts() throws Exception {
+		BoundedTaskQueue queue = new BoundedTaskQueue(0);
+		assertTrue(queue.sink.offer(() -> 1, callback));
+		CompletableFuture<Void> first = put(queue.sink, 2);
+		CompletableFuture<Void> second = put(queue.sink, 3);
+		assertBlocked(first);
+
+		queue.setCapacity(3);
+		first.get(10, TimeUnit.SECONDS);
+		second.get(10, TimeUnit.SECONDS);
+		assertEquals(queue.capacity(), 3);
+		assertEquals(queue.lockedSize(), 3);
+		assertFalse(queue.sink.offer(() -> 4, callback));
+
+		queue.takeIfNotTerminated().run();
+		verify(callback).success(1);
+	}
+
+	@Test
+	public void shrinkingKeepsQueuedTasksInOrder() throws Exception {
+		BoundedTaskQueue queue = new BoundedTaskQueue(2);
+		// move the indices so that the tasks wrap around the end of the array
+		assertTrue(queue.sink.offer(() -> 0, callback));
+		assertTrue(queue.sink.offer(() -> 0, callback));
+		queue.takeIfNotTerminated().run();
+		queue.takeIfNotTerminated().run();
+		for (int i = 1; i <= 4; ++i) {
+			int result = i;
+			assertTrue(queue.sink.offer(() -> result, callback));
+		}
+
+		queue.setCapacity(2);
+		assertFalse(queue.sink.offer(() -> 5, callback));
+		assertEquals(queue.lockedSize(), 4);
+		queue.takeIfNotTerminated().run();
+		queue.takeIfNotTerminated().run();
+		assertFalse(queue.sink.offer(() -> 5, callback), "the queue is still at the new capacity");
+		queue.takeIfNotTerminated().run();
+		assertTrue(queue.sink.offer(() -> 5, callback));
+		queue.takeIfNotTerminated().run();
+		queue.takeIfNotTerminated().run();
+
+		InOrder inOrder = inOrder(callback);
+		for (int i = 1; i <= 5; ++i) {
+			inOrder.verify(callback).success(i);
+		}
+	}
+
+	@Test
+	public void putsStayBlockedUntilTheQueueIsBelowTheNewCapacity() throws Exception {
+		BoundedTaskQueue queue = new BoundedTaskQueue(2);
+		for (int i = 0; i < 4; ++i) {
+			assertTrue(queue.sink.offer(() -> 0, callback));
+		}
+		queue.setCapacity(2);
+		CompletableFuture<Void> blocked = put(queue.sink, 1);
+
+		queue.takeIfNotTerminated().run();
+		queue.takeIfNotTerminated().run();
+		assertBlocked(blocked);
+		queue.takeIfNotTerminated().run();
+		blocked.get(10, TimeUnit.SECONDS);
+		assertEquals(queue.lockedSize(), 2);
+	}
+
+	@Test
+	public void dropOldestShedsDownToTheNewCapacity() throws Exception {
+		BoundedTaskQueue queue = new BoundedTaskQueue(2, OverflowPolicy.dropOldest());
+		for (int i = 1; i <= 4; ++i) {
+			int result = i;
+			assertTrue(queue.sink.offer(() -> result, callback));
+		}
+
+		queue.setCapacity(2);
+		assertTrue(queue.sink.offer(() -> 5, callback));
+		assertEquals(queue.lockedSize(), 2);
+		verify(callback, times(3)).terminated();
+		queue.takeIfNotTerminated().run();
+		queue.takeIfNotTerminated().run();
+
+		InOrder inOrder = inOrder(callback);
+		inOrder.verify(callback).success(4);
+		inOrder.verify(callback).success(5);
+	}
+
+	@Test
+	public void cancelledTasksAreDroppedWhenResizing() throws Exception {
+		BoundedTaskQueue queue = new BoundedTaskQueue(1);
+		TaskHandle cancelled = queue.sink.offerCancellable(() -> 1, callback);
+		assertTrue(queue.sink.offer(() -> 2, callback));
+		cancelled.cancel(false);
+
+		queue.setCapacity(4);
+		assertEquals(queue.lockedSize(), 1);
+		queue.takeIfNotTerminated().run();
+		verify(callback).success(2);
+	}
+
+	@Test
+	public void externalLevelOfTwoLevelQueueIsResizable() throws Exception {
+		TwoLevelTaskQueue queue = new TwoLevelTaskQueue(0);
+		assertTrue(queue.externalSink.offer(() -> 1, callback));
+		assertFalse(queue.externalSink.offer(() -> 2, callback));
+
+		queue.setExternalCapacity(5);
+		assertEquals(queue.externalCapacity(), 5);
+		for (int i = 2; i <= 5; ++i) {
+			int result = i;
+			assertTrue(queue.externalSink.offer(() -> result, callback));
+		}
+		assertFalse(queue.externalSink.offer(() -> 6, callback));
+		assertTrue(queue.internalSink.offer(() -> 0, callback), "the internal level is unbounded");
+	}
+
+	@Test(expectedExceptions = IllegalArgumentException.class)
+	public void zeroCapacityIsRejected() {
+		new BoundedTaskQueue(0).setCapacity(0);
+	}
+
+	private CompletableFuture<Void> put(TaskSink sink, int result) {
+		CompletableFuture<Void> future = new CompletableFuture<>();
+		Thread thread = new Thread(() -> {
+			try {
+				sink.put(() -> result, callback);
+				future.complete(null);
+			} catch (Throwable e) {
+				future.completeExceptionally(e);
+			}
+		});
+		thread.setDaemon(true);
+		thread.start();
+		return future;
+	}
+
+	private static void assertBlocked(CompletableFuture<Void> put) throws Exception {
+		try {
+			put.get(100, TimeUnit.MILLISECONDS);
+			fail("the put must be blocked");
+		} catch (TimeoutException expected) {
+			// still blocked
+		}
+	}
+
+}
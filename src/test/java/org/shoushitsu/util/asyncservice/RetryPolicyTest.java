@@ -0,0 +1,124 @@
+package org.shoushitsu.util.asyncservice;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.*;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+public class RetryPolicyTest {
+
+	private ScheduledExecutorService scheduler;
+
+	private Callback<Object> callback;
+
+	private int calls;
+
+	@SuppressWarnings("unchecked")
+	@BeforeMethod
+	public void setUp() {
+		scheduler = mock(ScheduledExecutorService.class);
+		when(scheduler.schedule(any(Runnable.class), anyLong(), any(TimeUnit.class))).thenAnswer(invocation -> {
+			((Runnable) invocation.getArguments()[0]).run();
+			return null;
+		});
+		callback = mock(Callback.class);
+		calls = 0;
+	}
+
+	private AsyncChain.Function<Object, Object> failingTimes(int failures, Throwable exception) {
+		return (input, c) -> {
+			if (++calls <= failures) {
+				c.failure(exception);
+			} else {
+				c.success(input);
+			}
+		};
+	}
+
+	@Test
+	public void successAfterRetries() throws Exception {
+		RetryPolicy.maxAttempts(3)
+				.retrying(failingTimes(2, new IOException()), scheduler)
+				.compute("data", callback);
+
+		assertEquals(calls, 3);
+		verify(callback).success("data");
+		verifyNoMoreInteractions(callback);
+	}
+
+	@Test
+	public void attemptsExhausted() throws Exception {
+		IOException exception = new IOException();
+		RetryPolicy.maxAttempts(3)
+				.retrying(failingTimes(3, exception), scheduler)
+				.compute("data", callback);
+
+		assertEquals(calls, 3);
+		verify(callback).failure(exception);
+		verifyNoMoreInteractions(callback);
+	}
+
+	@Test
+	public void nonRetryableFailure() throws Exception {
+		IllegalStateException exception = new IllegalStateException();
+		RetryPolicy.maxAttempts(3)
+				.retryingOn(t -> t instanceof IOException)
+				.retrying(failingTimes(1, exception), scheduler)
+				.compute("data", callback);
+
+		assertEquals(calls, 1);
+		verify(callback).failure(exception);
+		verifyZeroInteractions(scheduler);
+	}
+
+	@Test
+	public void thrownExceptionIsRetried() throws Exception {
+		RetryPolicy.maxAttempts(2)
+				.<Object, Object>retrying(
+						(input, c) -> {
+							if (++calls == 1) {
+								throw new IOException();
+							}
+							c.success(input);
+						},
+						scheduler
+				)
+				.compute("data", callback);
+
+		verify(callback).success("data");
+	}
+
+	@Test
+	public void exponentialBackoff() throws Exception {
+		RetryPolicy.maxAttempts(4)
+				.withBackoff(10, 25, TimeUnit.MILLISECONDS)
+				.retrying(failingTimes(3, new IOException()), scheduler)
+				.compute("data", callback);
+
+		verify(scheduler).schedule(any(Runnable.class), eq(TimeUnit.MILLISECONDS.toNanos(10)), eq(TimeUnit.NANOSECONDS));
+		verify(scheduler).schedule(any(Runnable.class), eq(TimeUnit.MILLISECONDS.toNanos(20)), eq(TimeUnit.NANOSECONDS));
+		verify(scheduler).schedule(any(Runnable.class), eq(TimeUnit.MILLISECONDS.toNanos(25)), eq(TimeUnit.NANOSECONDS));
+		verify(callback).success("data");
+	}
+
+	@Test
+	public void jitterShortensDelays() {
+		RetryPolicy policy = RetryPolicy.maxAttempts(2)
+				.withBackoff(100, 100, TimeUnit.NANOSECONDS)
+				.withJitter(0.5);
+		for (int i = 0; i < 100; ++i) {
+			long delay = policy.delayNanos(1);
+			assertTrue(delay > 50 && delay <= 100, Long.toString(delay));
+		}
+	}
+
+}
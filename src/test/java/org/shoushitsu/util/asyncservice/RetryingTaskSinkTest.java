@@ -0,0 +1,148 @@
+package org.shoushitsu.util.asyncservice;
+
+import org.mockito.ArgumentCaptor;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.isA;
+import static org.mockito.Mockito.*;
+import static org.testng.Assert.*;
+
+public class RetryingTaskSinkTest {
+
+	private ScheduledExecutorService scheduler;
+
+	private Callback<Object> callback;
+
+	private int calls;
+
+	@SuppressWarnings("unchecked")
+	@BeforeMethod
+	public void setUp() {
+		scheduler = mock(ScheduledExecutorService.class);
+		callback = mock(Callback.class);
+		calls = 0;
+	}
+
+	private void runScheduledImmediately() {
+		when(scheduler.schedule(any(Runnable.class), anyLong(), any(TimeUnit.class))).thenAnswer(invocation -> {
+			((Runnable) invocation.getArguments()[0]).run();
+			return null;
+		});
+	}
+
+	private Callable<Object> failingTimes(int failures, Exception exception) {
+		return () -> {
+			if (++calls <= failures) {
+				throw exception;
+			}
+			return "data";
+		};
+	}
+
+	@Test
+	public void offeredComputationIsRetried() throws Exception {
+		runScheduledImmediately();
+		UnboundedTaskQueue queue = new UnboundedTaskQueue();
+		assertTrue(queue.sink.withRetry(RetryPolicy.maxAttempts(3), scheduler).offer(failingTimes(2, new IOException()), callback));
+
+		queue.poll().run();
+		queue.poll().run();
+		verifyZeroInteractions(callback);
+		queue.poll().run();
+
+		assertEquals(calls, 3);
+		verify(callback).success("data");
+		verifyNoMoreInteractions(callback);
+	}
+
+	@Test
+	public void putComputationIsRetried() throws Exception {
+		runScheduledImmediately();
+		UnboundedTaskQueue queue = new UnboundedTaskQueue();
+		IOException exception = new IOException();
+		queue.sink.withRetry(RetryPolicy.maxAttempts(2), scheduler).put(failingTimes(2, exception), callback);
+
+		queue.poll().run();
+		queue.poll().run();
+
+		assertNull(queue.poll());
+		verify(callback).failure(exception);
+		verifyNoMoreInteractions(callback);
+	}
+
+	@Test
+	public void rejectedFirstAttemptIsNotReported() {
+		BoundedTaskQueue queue = new BoundedTaskQueue(0);
+		assertTrue(queue.sink.offer(() -> null, null));
+
+		assertFalse(queue.sink.withRetry(RetryPolicy.maxAttempts(3), scheduler).offer(failingTimes(0, null), callback));
+		verifyZeroInteractions(callback, scheduler);
+	}
+
+	@Test
+	public void retryIntoFullQueueReportsTheLastFailure() throws Exception {
+		BoundedTaskQueue queue = new BoundedTaskQueue(0);
+		IOException exception = new IOException();
+		queue.sink.withRetry(RetryPolicy.maxAttempts(3), scheduler).offer(failingTimes(1, exception), callback);
+		queue.poll().run();
+
+		ArgumentCaptor<Runnable> retry = ArgumentCaptor.forClass(Runnable.class);
+		verify(scheduler).schedule(retry.capture(), anyLong(), any(TimeUnit.class));
+		assertTrue(queue.sink.offer(() -> null, null));
+		retry.getValue().run();
+
+		verify(callback).failure(exception);
+		verifyNoMoreInteractions(callback);
+	}
+
+	@Test
+	public void rejectedRetryTerminatesTheCallback() throws Exception {
+		when(scheduler.schedule(any(Runnable.class), anyLong(), any(TimeUnit.class))).thenThrow(new RejectedExecutionException());
+		UnboundedTaskQueue queue = new UnboundedTaskQueue();
+		queue.sink.withRetry(RetryPolicy.maxAttempts(3), scheduler).offer(failingTimes(1, new IOException()), callback);
+
+		queue.poll().run();
+
+		verify(callback).terminated();
+		verifyNoMoreInteractions(callback);
+	}
+
+	@Test
+	public void terminatedQueueTerminatesTheCallback() {
+		UnboundedTaskQueue queue = new UnboundedTaskQueue();
+		queue.terminate();
+
+		assertTrue(queue.sink.withRetry(RetryPolicy.maxAttempts(3), scheduler).offer(failingTimes(0, null), callback));
+		verify(callback).terminated();
+		verifyZeroInteractions(scheduler);
+	}
+
+	@Test
+	public void errorsAndCancellationsAreNotRetriedByDefault() throws Exception {
+		runScheduledImmediately();
+		UnboundedTaskQueue queue = new UnboundedTaskQueue();
+		RetryingTaskSink sink = queue.sink.withRetry(RetryPolicy.maxAttempts(3), scheduler);
+		AssertionError error = new AssertionError();
+		sink.offer(() -> {
+			throw error;
+		}, callback);
+		queue.poll().run();
+		sink.offer(failingTimes(1, new CancellationException()), callback);
+		queue.poll().run();
+
+		verify(callback).failure(error);
+		verify(callback).failure(isA(CancellationException.class));
+		verifyZeroInteractions(scheduler);
+	}
+
+}
@@ -0,0 +1,70 @@
+package org.shoushitsu.util.asyncservice;
+
+import org.testng.annotations.Test;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+public class ShardedAsynchronousServiceTest {
+
+	private static Callback<Object> countDown(CountDownLatch latch) {
+		return new Callback<Object>() {
+			@Override
+			public void success(Object data) {
+				latch.countDown();
+			}
+
+			@Override
+			public void failure(Throwable exception) {
+			}
+
+			@Override
+			public void terminated() {
+			}
+		};
+	}
+
+	@Test
+	public void equalKeysGoToOneShard() throws Exception {
+		Set<String> threads = ConcurrentHashMap.newKeySet();
+		CountDownLatch latch = new CountDownLatch(20);
+		try (ShardedAsynchronousService<UnboundedTaskQueue> service = new ShardedAsynchronousService<>(
+				4, UnboundedTaskQueue::new, queue -> queue.sink,
+				shard -> Threading.formatThreadNames(1, "shard-" + shard + "-%d"), 1000
+		)) {
+			for (int i = 0; i < 20; ++i) {
+				service.sink.put("key", () -> threads.add(Thread.currentThread().getName()), countDown(latch));
+			}
+			assertTrue(latch.await(10, TimeUnit.SECONDS));
+		}
+		assertEquals(threads.size(), 1);
+	}
+
+	@Test
+	public void keylessTasksAreSpread() throws Exception {
+		Set<String> threads = ConcurrentHashMap.newKeySet();
+		CountDownLatch release = new CountDownLatch(1);
+		CountDownLatch done = new CountDownLatch(4);
+		try (ShardedAsynchronousService<UnboundedTaskQueue> service = new ShardedAsynchronousService<>(
+				2, UnboundedTaskQueue::new, queue -> queue.sink,
+				shard -> Threading.formatThreadNames(1, "shard-" + shard + "-%d"), 1000
+		)) {
+			for (int i = 0; i < 4; ++i) {
+				service.sink.put(() -> {
+					threads.add(Thread.currentThread().getName());
+					return release.await(10, TimeUnit.SECONDS);
+				}, countDown(done));
+			}
+			release.countDown();
+			assertTrue(done.await(10, TimeUnit.SECONDS));
+		}
+		// with two shards, both are always chosen, and the less loaded one gets the task
+		assertEquals(threads.size(), 2);
+	}
+
+}
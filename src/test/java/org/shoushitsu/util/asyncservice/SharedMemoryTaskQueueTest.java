@@ -0,0 +1,228 @@
+package org.shoushitsu.util.asyncservice;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static org.testng.Assert.*;
+
+public class SharedMemoryTaskQueueTest {
+
+	private Path directory;
+
+	@BeforeMethod
+	public void setUp() throws IOException {
+		directory = Files.createTempDirectory("shm-queue");
+	}
+
+	@AfterMethod
+	public void tearDown() throws IOException {
+		try (Stream<Path> files = Files.list(directory)) {
+			for (Path file : (Iterable<Path>) files::iterator) {
+				Files.delete(file);
+			}
+		}
+		Files.delete(directory);
+	}
+
+	@Test
+	public void ringWrapsAroundWithVariableLengthRecords() throws IOException {
+		try (SharedMemoryRing ring = SharedMemoryRing.create(directory.resolve("ring"), 64)) {
+			for (int i = 0; i < 100; ++i) {
+				byte[] record = new byte[i % 20];
+				if (record.length > 0) {
+					record[record.length - 1] = (byte) i;
+				}
+				assertTrue(ring.offer(record));
+				byte[] polled = ring.poll();
+				assertEquals(polled, record);
+			}
+			assertNull(ring.poll());
+			assertTrue(ring.isEmpty());
+		}
+	}
+
+	@Test
+	public void fullRingRejectsRecords() throws IOException {
+		try (SharedMemoryRing ring = SharedMemoryRing.create(directory.resolve("ring"), 32)) {
+			assertTrue(ring.offer(new byte[12]));
+			assertTrue(ring.offer(new byte[12]));
+			assertFalse(ring.offer(new byte[1]));
+			ring.poll();
+			assertTrue(ring.offer(new byte[1]));
+		}
+	}
+
+	@Test
+	public void ringIsSharedBetweenMappings() throws IOException {
+		try (
+				SharedMemoryRing producer = SharedMemoryRing.create(directory.resolve("ring"), 64);
+				SharedMemoryRing consumer = SharedMemoryRing.open(directory.resolve("ring"))
+		) {
+			producer.offer(new byte[] {1, 2, 3});
+			assertEquals(consumer.poll(), new byte[] {1, 2, 3});
+		}
+	}
+
+	@Test
+	public void corruptRecordDropsTheRestOfTheRing() throws IOException {
+		try (SharedMemoryRing ring = SharedMemoryRing.create(directory.resolve("ring"), 64)) {
+			assertTrue(ring.offer(new byte[] {1}));
+			assertTrue(ring.offer(new byte[] {2}));
+			try (FileChannel file = FileChannel.open(directory.resolve("ring"), StandardOpenOption.WRITE)) {
+				// the length of the first record, just after the header
+				file.write(ByteBuffer.allocate(4).putInt(0, -5), 192);
+			}
+
+			try {
+				ring.poll();
+				fail("the corrupt record must be reported");
+			} catch (IOException expected) {
+				// the rest of the ring is dropped
+			}
+			assertNull(ring.poll());
+			assertTrue(ring.offer(new byte[] {3}));
+			assertEquals(ring.poll(), new byte[] {3});
+		}
+	}
+
+	@Test
+	public void monitorIsReleasedWithTheLastRingOfTheFile() throws IOException {
+		SharedMemoryRing first = SharedMemoryRing.create(directory.resolve("ring"), 64);
+		Path file = directory.resolve("ring").toRealPath();
+		SharedMemoryRing second = SharedMemoryRing.open(directory.resolve("ring"));
+		first.close();
+		first.close();
+		assertTrue(SharedMemoryRing.MONITORS.containsKey(file));
+		second.close();
+		assertFalse(SharedMemoryRing.MONITORS.containsKey(file));
+	}
+
+	@Test(expectedExceptions = IllegalArgumentException.class)
+	public void ringCapacityMustMatch() throws IOException {
+		SharedMemoryRing.create(directory.resolve("ring"), 64).close();
+		SharedMemoryRing.create(directory.resolve("ring"), 128);
+	}
+
+	@Test
+	public void resultsAreSentBackToTheClient() throws Exception {
+		SharedMemoryTaskQueue queue = new SharedMemoryTaskQueue(
+				directory,
+				4096,
+				descriptor -> {
+					String text = new String(descriptor, StandardCharsets.UTF_8);
+					if (text.isEmpty()) {
+						throw new IllegalArgumentException("empty descriptor");
+					}
+					return () -> text.toUpperCase().getBytes(StandardCharsets.UTF_8);
+				},
+				100,
+				TimeUnit.MICROSECONDS
+		);
+		DummyAsynchronousService<SharedMemoryTaskQueue> service =
+				new DummyAsynchronousService<>(queue, Threading.defaultThreads(2), 1000);
+		try (SharedMemoryTaskSink client = SharedMemoryTaskSink.open(directory, 7, 4096, 100, TimeUnit.MICROSECONDS)) {
+			Result ok = new Result();
+			Result failed = new Result();
+			assertTrue(client.offer("hello".getBytes(StandardCharsets.UTF_8), ok));
+			client.put(new byte[0], failed);
+
+			assertEquals(new String((byte[]) ok.get(10, TimeUnit.SECONDS), StandardCharsets.UTF_8), "HELLO");
+			Object failure = failed.get(10, TimeUnit.SECONDS);
+			assertTrue(failure instanceof SharedMemoryTaskSink.RemoteFailure);
+			assertTrue(((Throwable) failure).getMessage().contains("empty descriptor"));
+		} finally {
+			service.close();
+			queue.close();
+		}
+	}
+
+	@Test
+	public void pendingComputationsAreTerminatedWhenTheClientIsClosed() throws Exception {
+		SharedMemoryTaskQueue queue = new SharedMemoryTaskQueue(
+				directory, 4096, descriptor -> () -> descriptor, 1, TimeUnit.MILLISECONDS
+		);
+		try {
+			SharedMemoryTaskSink client = SharedMemoryTaskSink.open(directory, 1, 4096, 1, TimeUnit.MILLISECONDS);
+			Result result = new Result();
+			client.offer(new byte[] {1}, result);
+			client.close();
+			assertEquals(result.get(10, TimeUnit.SECONDS), "terminated");
+
+			Result late = new Result();
+			assertTrue(client.offer(new byte[] {1}, late));
+			assertEquals(late.getNow(null), "terminated");
+		} finally {
+			queue.close();
+		}
+	}
+
+	@Test
+	public void malformedRequestsAreSkipped() throws Exception {
+		try (
+				SharedMemoryTaskQueue queue = new SharedMemoryTaskQueue(
+						directory, 4096, descriptor -> () -> descriptor, 1, TimeUnit.MILLISECONDS
+				);
+				SharedMemoryRing requests = SharedMemoryRing.open(directory.resolve(SharedMemoryTaskQueue.REQUESTS))
+		) {
+			assertTrue(requests.offer(new byte[] {1, 2, 3}));
+			assertTrue(requests.offer(ByteBuffer.allocate(13).putInt(7).putLong(1).put((byte) 42).array()));
+
+			Task<?> task = queue.poll();
+			assertNotNull(task);
+			assertEquals((byte[]) task.getComputation().call(), new byte[] {42});
+			assertNull(queue.poll());
+		}
+	}
+
+	@Test
+	public void malformedResultsAreSkipped() throws Exception {
+		try (
+				SharedMemoryRing requests = SharedMemoryRing.create(directory.resolve(SharedMemoryTaskQueue.REQUESTS), 4096);
+				SharedMemoryTaskSink client = SharedMemoryTaskSink.open(directory, 3, 4096, 1, TimeUnit.MILLISECONDS);
+				SharedMemoryRing results = SharedMemoryRing.open(directory.resolve(SharedMemoryTaskQueue.resultsFileName(3)))
+		) {
+			Result result = new Result();
+			assertTrue(client.offer(new byte[] {1}, result));
+			long requestId = ByteBuffer.wrap(requests.poll()).getLong(4);
+
+			assertTrue(results.offer(new byte[] {1, 2}));
+			assertTrue(results.offer(
+					ByteBuffer.allocate(10).putLong(requestId).put(SharedMemoryTaskQueue.SUCCESS).put((byte) 42).array()
+			));
+
+			assertEquals((byte[]) result.get(10, TimeUnit.SECONDS), new byte[] {42});
+		}
+	}
+
+	private static final class Result extends CompletableFuture<Object> implements Callback<byte[]> {
+
+		@Override
+		public final void success(byte[] data) {
+			complete(data);
+		}
+
+		@Override
+		public final void failure(Throwable exception) {
+			complete(exception);
+		}
+
+		@Override
+		public final void terminated() {
+			complete("terminated");
+		}
+
+	}
+
+}
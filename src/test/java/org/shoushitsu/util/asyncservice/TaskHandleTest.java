@@ -0,0 +1,211 @@
+package org.shoushitsu.util.asyncservice;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.*;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+public class TaskHandleTest {
+
+	private Callback<Object> callback;
+
+	@SuppressWarnings("unchecked")
+	@BeforeMethod
+	public void setUp() {
+		callback = mock(Callback.class);
+	}
+
+	@Test
+	public void cancelledTaskIsUnlinked() throws Exception {
+		UnboundedTaskQueue queue = new UnboundedTaskQueue();
+		queue.sink.offer(() -> 1, callback);
+		TaskHandle handle = queue.sink.offerCancellable(() -> 2, callback);
+		queue.sink.offer(() -> 3, callback);
+
+		assertTrue(handle.cancel(false));
+		assertFalse(handle.cancel(false));
+		assertTrue(handle.isDone());
+		assertEquals(queue.lockedSize(), 2);
+
+		queue.poll().run();
+		queue.poll().run();
+		assertNull(queue.poll());
+		verify(callback).success(1);
+		verify(callback).success(3);
+		verify(callback).failure(any(CancellationException.class));
+		verifyNoMoreInteractions(callback);
+	}
+
+	@Test
+	public void cancelledTaskIsSkippedInBoundedQueue() throws Exception {
+		BoundedTaskQueue queue = new BoundedTaskQueue(2);
+		TaskHandle handle = queue.sink.putCancellable(() -> 1, callback);
+		queue.sink.put(() -> 2, callback);
+
+		assertTrue(handle.cancel(false));
+		queue.takeIfNotTerminated().run();
+
+		verify(callback).failure(any(CancellationException.class));
+		verify(callback).success(2);
+		verifyNoMoreInteractions(callback);
+	}
+
+	@Test
+	public void cancelledTaskFreesItsSpaceInBoundedQueue() throws Exception {
+		BoundedTaskQueue queue = new BoundedTaskQueue(1);
+		TaskHandle handle = queue.sink.offerCancellable(() -> 1, callback);
+		assertTrue(queue.sink.offer(() -> 2, callback));
+
+		assertTrue(handle.cancel(false));
+		assertEquals(queue.lockedSize(), 1);
+		assertTrue(queue.sink.offer(() -> 3, callback));
+		assertFalse(queue.sink.offer(() -> 4, callback));
+		queue.takeIfNotTerminated().run();
+		queue.takeIfNotTerminated().run();
+
+		assertEquals(queue.lockedSize(), 0);
+		verify(callback).failure(any(CancellationException.class));
+		verify(callback).success(2);
+		verify(callback).success(3);
+		verifyNoMoreInteractions(callback);
+	}
+
+	@Test
+	public void cancelledExternalTaskIsNotCounted() throws Exception {
+		TwoLevelTaskQueue queue = new TwoLevelTaskQueue(1);
+		TaskHandle handle = queue.externalSink.offerCancellable(() -> 1, callback);
+		assertTrue(queue.internalSink.offer(() -> 2, callback));
+
+		assertTrue(handle.cancel(false));
+		assertEquals(queue.lockedSize(), 1);
+	}
+
+	@Test
+	public void queueWithOnlyCancelledTasksIsDrained() throws Exception {
+		BoundedTaskQueue queue = new BoundedTaskQueue(1);
+		TaskHandle handle = queue.sink.offerCancellable(() -> 1, callback);
+		queue.stopAccepting();
+		assertFalse(queue.awaitDrained(0));
+
+		assertTrue(handle.cancel(false));
+		assertTrue(queue.awaitDrained(0));
+	}
+
+	@Test
+	public void completedTaskCannotBeCancelled() throws Exception {
+		UnboundedTaskQueue queue = new UnboundedTaskQueue();
+		TaskHandle handle = queue.sink.offerCancellable(() -> 1, callback);
+		queue.poll().run();
+
+		assertFalse(handle.cancel(true));
+		verify(callback).success(1);
+		verifyNoMoreInteractions(callback);
+	}
+
+	@Test
+	public void runningTaskIsInterrupted() throws Exception {
+		UnboundedTaskQueue queue = new UnboundedTaskQueue();
+		CountDownLatch started = new CountDownLatch(1);
+		CountDownLatch finished = new CountDownLatch(1);
+		boolean[] interrupted = new boolean[1];
+		TaskHandle handle = queue.sink.offerCancellable(() -> {
+			started.countDown();
+			try {
+				Thread.sleep(10_000);
+			} catch (InterruptedException e) {
+				interrupted[0] = true;
+			}
+			return null;
+		}, callback);
+		Task<?> task = queue.poll();
+		Thread worker = new Thread(() -> {
+			task.run();
+			finished.countDown();
+		});
+		worker.start();
+		assertTrue(started.await(10, TimeUnit.SECONDS));
+
+		assertTrue(handle.cancel(true));
+		assertTrue(finished.await(10, TimeUnit.SECONDS));
+
+		assertTrue(interrupted[0]);
+		verify(callback).failure(any(CancellationException.class));
+		verifyNoMoreInteractions(callback);
+	}
+
+	@Test
+	public void pendingInterruptIsNotClearedByCancel() throws Exception {
+		UnboundedTaskQueue queue = new UnboundedTaskQueue();
+		CountDownLatch started = new CountDownLatch(1);
+		AtomicBoolean proceed = new AtomicBoolean();
+		TaskHandle handle = queue.sink.offerCancellable(() -> {
+			// an interrupt from elsewhere arrives before the cancel
+			Thread.currentThread().interrupt();
+			started.countDown();
+			while (!proceed.get()) {
+				Thread.yield();
+			}
+			return null;
+		}, callback);
+
+		assertTrue(interruptedAfterRun(queue, null, started, () -> {
+			assertTrue(handle.cancel(true));
+			proceed.set(true);
+		}));
+	}
+
+	@Test
+	public void cancelInterruptIsKeptWhenTheQueueIsTerminated() throws Exception {
+		UnboundedTaskQueue queue = new UnboundedTaskQueue();
+		CountDownLatch started = new CountDownLatch(1);
+		AtomicBoolean proceed = new AtomicBoolean();
+		TaskHandle handle = queue.sink.offerCancellable(() -> {
+			started.countDown();
+			while (!proceed.get()) {
+				Thread.yield();
+			}
+			return null;
+		}, callback);
+
+		assertTrue(interruptedAfterRun(queue, queue, started, () -> {
+			queue.terminate();
+			assertTrue(handle.cancel(true));
+			proceed.set(true);
+		}));
+	}
+
+	/**
+	 * Run the next task of the queue in a worker thread, perform the action once the computation has started,
+	 * and tell whether the worker is interrupted after the task.
+	 */
+	private static boolean interruptedAfterRun(
+			ATaskQueue queue,
+			ATaskQueue workerQueue,
+			CountDownLatch started,
+			Runnable action
+	) throws Exception {
+		Task<?> task = queue.poll();
+		boolean[] interrupted = new boolean[1];
+		Thread worker = new Thread(() -> {
+			ATaskQueue.WORKER_QUEUE.set(workerQueue);
+			task.run();
+			interrupted[0] = Thread.interrupted();
+		});
+		worker.start();
+		assertTrue(started.await(10, TimeUnit.SECONDS));
+		action.run();
+		worker.join();
+		return interrupted[0];
+	}
+
+}
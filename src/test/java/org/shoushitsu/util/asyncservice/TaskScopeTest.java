@@ -0,0 +1,145 @@
+package org.shoushitsu.util.asyncservice;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.Matchers.isA;
+import static org.mockito.Mockito.*;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+public class TaskScopeTest {
+
+	private Callback<Object> callback;
+
+	private Callback<Object> scopeCallback;
+
+	@SuppressWarnings("unchecked")
+	@BeforeMethod
+	public void setUp() {
+		callback = mock(Callback.class);
+		scopeCallback = mock(Callback.class);
+	}
+
+	@Test
+	public void scopeSucceedsWhenAllChildrenSucceedAndItIsClosed() throws Exception {
+		UnboundedTaskQueue queue = new UnboundedTaskQueue();
+		TaskScope scope = queue.sink.openScope(false, scopeCallback);
+		scope.offer(() -> 1, callback);
+		scope.put(() -> 2, callback);
+
+		queue.poll().run();
+		queue.poll().run();
+		verifyZeroInteractions(scopeCallback);
+
+		scope.close();
+		verify(callback).success(1);
+		verify(callback).success(2);
+		verify(scopeCallback).success(null);
+		assertTrue(scope.isDone());
+	}
+
+	@Test
+	public void succeededChildrenAreForgotten() throws Exception {
+		UnboundedTaskQueue queue = new UnboundedTaskQueue();
+		TaskScope scope = queue.sink.openScope(false, scopeCallback);
+		for (int i = 0; i < 3; ++i) {
+			scope.offer(() -> 1, callback);
+		}
+		assertEquals(scope.children.size(), 3);
+
+		queue.poll().run();
+		queue.poll().run();
+
+		assertEquals(scope.children.size(), 1);
+	}
+
+	@Test
+	public void firstFailureCancelsQueuedSiblings() throws Exception {
+		UnboundedTaskQueue queue = new UnboundedTaskQueue();
+		IOException failure = new IOException();
+		try (TaskScope scope = queue.sink.openScope(false, scopeCallback)) {
+			scope.offer(() -> {
+				throw failure;
+			}, callback);
+			scope.offer(() -> 2, callback);
+			scope.offer(() -> 3, callback);
+		}
+
+		queue.poll().run();
+		assertNull(queue.poll(), "the siblings must be removed from the queue");
+		assertEquals(queue.lockedSize(), 0);
+		verify(scopeCallback).failure(failure);
+		verify(callback).failure(failure);
+		verify(callback, times(2)).failure(isA(CancellationException.class));
+		verifyNoMoreInteractions(scopeCallback);
+	}
+
+	@Test
+	public void runningSiblingsAreInterruptedOnRequest() throws Exception {
+		try (DummyAsynchronousService<UnboundedTaskQueue> service =
+				new DummyAsynchronousService<>(new UnboundedTaskQueue(), Threading.defaultThreads(2), 1000)) {
+			CountDownLatch started = new CountDownLatch(1);
+			CountDownLatch interrupted = new CountDownLatch(1);
+			TaskScope scope = service.queue.sink.openScope(true, scopeCallback);
+			scope.put(() -> {
+				started.countDown();
+				try {
+					Thread.sleep(TimeUnit.SECONDS.toMillis(10));
+				} catch (InterruptedException e) {
+					interrupted.countDown();
+				}
+				return null;
+			}, callback);
+			assertTrue(started.await(10, TimeUnit.SECONDS));
+			scope.put(() -> {
+				throw new IllegalStateException();
+			}, callback);
+			scope.close();
+
+			assertTrue(interrupted.await(10, TimeUnit.SECONDS));
+			// the scope reports the failure before cancelling the siblings
+			verify(scopeCallback).failure(isA(IllegalStateException.class));
+		}
+	}
+
+	@Test
+	public void forksAfterFailureAreTerminated() throws Exception {
+		UnboundedTaskQueue queue = new UnboundedTaskQueue();
+		TaskScope scope = queue.sink.openScope(false, scopeCallback);
+		scope.offer(() -> {
+			throw new IllegalStateException();
+		}, callback);
+		queue.poll().run();
+
+		assertTrue(scope.offer(() -> 2, callback));
+		verify(callback).terminated();
+		assertNull(queue.poll());
+	}
+
+	@Test(expectedExceptions = IllegalStateException.class)
+	public void closedScopeRejectsForks() {
+		UnboundedTaskQueue queue = new UnboundedTaskQueue();
+		TaskScope scope = queue.sink.openScope(false, scopeCallback);
+		scope.close();
+		scope.offer(() -> 1, callback);
+	}
+
+	@Test
+	public void rejectedForksDontAffectTheScope() throws Exception {
+		BoundedTaskQueue queue = new BoundedTaskQueue(0);
+		TaskScope scope = queue.sink.openScope(false, scopeCallback);
+		assertTrue(scope.offer(() -> 1, callback));
+		assertTrue(!scope.offer(() -> 2, callback));
+		scope.close();
+		queue.poll().run();
+		verify(scopeCallback).success(null);
+	}
+
+}
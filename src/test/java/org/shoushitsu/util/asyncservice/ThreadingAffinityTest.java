@@ -0,0 +1,46 @@
+package org.shoushitsu.util.asyncservice;
+
+import org.testng.annotations.Test;
+
+import java.util.BitSet;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+public class ThreadingAffinityTest {
+
+	@Test
+	public void cpuListRoundTrip() {
+		BitSet cpus = LinuxAffinityProvider.parseCpuList("0-3,8,10-11");
+		assertEquals(cpus.cardinality(), 7);
+		assertEquals(LinuxAffinityProvider.toCpuList(cpus), "0-3,8,10-11");
+	}
+
+	@Test
+	public void threadsPinThemselvesByIndex() throws Exception {
+		Map<String, BitSet> pinned = new ConcurrentHashMap<>();
+		CountDownLatch started = new CountDownLatch(2);
+		ThreadFactory factory = Threading.formatThreadNames(2, "worker-%d")
+				.withAffinity(
+						cpus -> {
+							pinned.put(Thread.currentThread().getName(), cpus);
+							return true;
+						},
+						index -> LinuxAffinityProvider.parseCpuList(String.valueOf(index))
+				)
+				.createThreadFactory();
+
+		factory.newThread(started::countDown).start();
+		factory.newThread(started::countDown).start();
+		assertTrue(started.await(10, TimeUnit.SECONDS));
+
+		assertEquals(pinned.get("worker-0"), LinuxAffinityProvider.parseCpuList("0"));
+		assertEquals(pinned.get("worker-1"), LinuxAffinityProvider.parseCpuList("1"));
+	}
+
+}
@@ -0,0 +1,153 @@
+package org.shoushitsu.util.asyncservice;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.Mockito.*;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+public class TimedOfferTest {
+
+	private BoundedTaskQueue queue;
+
+	private Callback<Object> callback;
+
+	@SuppressWarnings("unchecked")
+	@BeforeMethod
+	public void setUp() {
+		queue = new BoundedTaskQueue(1);
+		callback = mock(Callback.class);
+	}
+
+	@Test
+	public void timesOutOnFullQueue() throws Exception {
+		assertTrue(queue.sink.offer(() -> 1, callback, 0, TimeUnit.MILLISECONDS));
+		assertTrue(queue.sink.offer(() -> 2, callback, 0, TimeUnit.MILLISECONDS));
+		assertFalse(queue.sink.offer(() -> 3, callback, 10, TimeUnit.MILLISECONDS));
+		assertEquals(queue.lockedSize(), 2);
+	}
+
+	@Test
+	public void batchIsSubmittedUpToCapacity() throws Exception {
+		Callable<Object> computation = () -> 1;
+		int accepted = queue.sink.offerAll(
+				Arrays.asList(computation, computation, computation),
+				Arrays.asList(callback, callback, callback),
+				10,
+				TimeUnit.MILLISECONDS
+		);
+		assertEquals(accepted, 2);
+	}
+
+	@Test
+	public void waitsForSpace() throws Exception {
+		queue.sink.offer(() -> 1, callback);
+		queue.sink.offer(() -> 2, callback);
+		Thread worker = new Thread(() -> {
+			try {
+				Thread.sleep(20);
+				queue.takeIfNotTerminated().run();
+			} catch (InterruptedException ignored) {
+			}
+		});
+		worker.start();
+
+		assertTrue(queue.sink.offer(() -> 3, callback, 10, TimeUnit.SECONDS));
+		worker.join();
+		verify(callback).success(1);
+	}
+
+	@Test
+	public void terminationNotifiesRemaining() throws Exception {
+		queue.terminate();
+		Callable<Object> computation = () -> 1;
+		assertEquals(queue.sink.offerAll(Arrays.asList(computation, computation), Arrays.asList(callback, callback), 1, TimeUnit.SECONDS), 2);
+		verify(callback, times(2)).terminated();
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	public void everyComputationGetsItsOwnCallback() throws Exception {
+		Callback<Object> other = mock(Callback.class);
+		queue.sink.offerAll(
+				Arrays.asList(() -> 1, () -> 2),
+				Arrays.asList(callback, other),
+				0,
+				TimeUnit.MILLISECONDS
+		);
+		queue.takeIfNotTerminated().run();
+		queue.takeIfNotTerminated().run();
+
+		verify(callback).success(1);
+		verify(other).success(2);
+		verifyNoMoreInteractions(callback, other);
+	}
+
+	@Test
+	public void interruptAfterPartialSubmissionReturnsTheAcceptedCount() throws Exception {
+		Callable<Object> computation = () -> 1;
+		CompletableFuture<Integer> accepted = new CompletableFuture<>();
+		Thread submitter = new Thread(() -> {
+			try {
+				int count = queue.sink.offerAll(
+						Arrays.asList(computation, computation, computation),
+						Arrays.asList(callback, callback, callback),
+						10,
+						TimeUnit.SECONDS
+				);
+				if (Thread.currentThread().isInterrupted()) {
+					accepted.complete(count);
+				} else {
+					accepted.completeExceptionally(new AssertionError("the interrupt status must be kept"));
+				}
+			} catch (Throwable e) {
+				accepted.completeExceptionally(e);
+			}
+		});
+		submitter.start();
+		while (queue.lockedSize() < 2 || submitter.getState() != Thread.State.TIMED_WAITING) {
+			Thread.sleep(1);
+		}
+		submitter.interrupt();
+
+		assertEquals(accepted.get(10, TimeUnit.SECONDS).intValue(), 2);
+		submitter.join();
+	}
+
+	@Test
+	public void interruptDoesNotPreventSubmissionWhenThereIsSpace() throws Exception {
+		Thread.currentThread().interrupt();
+		try {
+			assertTrue(queue.sink.offer(() -> 1, callback, 10, TimeUnit.SECONDS));
+			assertTrue(Thread.currentThread().isInterrupted());
+		} finally {
+			Thread.interrupted();
+		}
+		assertEquals(queue.lockedSize(), 1);
+	}
+
+	@Test(expectedExceptions = InterruptedException.class)
+	public void interruptBeforeAnySubmissionThrows() throws Exception {
+		queue.sink.offer(() -> 1, callback);
+		queue.sink.offer(() -> 2, callback);
+		Thread.currentThread().interrupt();
+		try {
+			queue.sink.offerAll(Arrays.asList(() -> 3), Arrays.asList(callback), 10, TimeUnit.SECONDS);
+		} finally {
+			Thread.interrupted();
+		}
+	}
+
+	@Test(expectedExceptions = IllegalArgumentException.class)
+	public void mismatchedCallbacksAreRejected() throws Exception {
+		queue.sink.offerAll(Arrays.asList(() -> 1, () -> 2), Arrays.asList(callback), 0, TimeUnit.MILLISECONDS);
+	}
+
+}
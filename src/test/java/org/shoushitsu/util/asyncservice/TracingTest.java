@@ -0,0 +1,167 @@
+package org.shoushitsu.util.asyncservice;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.Test;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+public class TracingTest {
+
+	/**
+	 * Registered as the tracer of the tests in {@code META-INF/services}.
+	 * Only records the events of the queues passed to {@link #record(ATaskQueue)}.
+	 */
+	public static final class RecordingTaskTracer implements TaskTracer {
+
+		private static final ConcurrentHashMap<String, BlockingQueue<String>> RECORDINGS = new ConcurrentHashMap<>();
+
+		static BlockingQueue<String> record(ATaskQueue queue) {
+			BlockingQueue<String> events = new LinkedBlockingQueue<>();
+			RECORDINGS.put(queue.id, events);
+			return events;
+		}
+
+		private static Span add(String queue, String event) {
+			BlockingQueue<String> events = queue == null ? null : RECORDINGS.get(queue);
+			if (events == null) {
+				return null;
+			}
+			events.add(event);
+			return new Span(events, event);
+		}
+
+		@Override
+		public void taskEnqueued(String queue, String sink) {
+			add(queue, "taskEnqueued");
+		}
+
+		@Override
+		public void taskDequeued(String queue, String sink) {
+			add(queue, "taskDequeued");
+		}
+
+		@Override
+		public Object taskRun(String queue, String sink) {
+			return add(queue, "taskRun");
+		}
+
+		@Override
+		public Object callbackDispatch(String queue, String sink, String outcome) {
+			return add(queue, "callbackDispatch " + outcome);
+		}
+
+		@Override
+		public Object putBlocked(String queue, String sink) {
+			return add(queue, "putBlocked");
+		}
+
+		@Override
+		public Object workerBlocked(String queue, int queuedTasks) {
+			return add(queue, "workerBlocked");
+		}
+
+		@Override
+		public Object shutdownDrain(String queue, int drainedTasks) {
+			return add(queue, "shutdownDrain");
+		}
+
+		@Override
+		public void end(Object span) {
+			Span recorded = (Span) span;
+			recorded.events.add("end " + recorded.event);
+		}
+
+		private static final class Span {
+
+			final BlockingQueue<String> events;
+
+			final String event;
+
+			Span(BlockingQueue<String> events, String event) {
+				this.events = events;
+				this.event = event;
+			}
+
+		}
+
+	}
+
+	@AfterMethod
+	public void tearDown() {
+		RecordingTaskTracer.RECORDINGS.clear();
+	}
+
+	private static String next(BlockingQueue<String> events) throws InterruptedException {
+		return events.poll(10, TimeUnit.SECONDS);
+	}
+
+	@Test
+	public void tracerIsLoaded() {
+		assertTrue(Tracing.TRACER instanceof RecordingTaskTracer);
+	}
+
+	@Test
+	public void taskLifecycleIsTraced() throws Exception {
+		UnboundedTaskQueue queue = new UnboundedTaskQueue();
+		BlockingQueue<String> events = RecordingTaskTracer.record(queue);
+		CountDownLatch done = new CountDownLatch(1);
+		try (DummyAsynchronousService<UnboundedTaskQueue> service =
+				     new DummyAsynchronousService<>(queue, Threading.defaultThreads(1), 1000)) {
+			service.queue.sink.offer(() -> 1, Callback.onSuccess(__ -> done.countDown()));
+			assertTrue(done.await(10, TimeUnit.SECONDS));
+		}
+
+		assertEquals(next(events), "taskEnqueued");
+		assertEquals(next(events), "taskDequeued");
+		assertEquals(next(events), "taskRun");
+		assertEquals(next(events), "callbackDispatch success");
+		assertEquals(next(events), "end callbackDispatch success");
+		assertEquals(next(events), "end taskRun");
+		assertNull(events.poll());
+	}
+
+	@Test
+	public void blockedPutIsTraced() throws Exception {
+		BoundedTaskQueue queue = new BoundedTaskQueue(0);
+		BlockingQueue<String> events = RecordingTaskTracer.record(queue);
+		queue.sink.offer(() -> 1, null);
+		assertEquals(next(events), "taskEnqueued");
+
+		Thread putter = new Thread(() -> {
+			try {
+				queue.sink.put(() -> 2, null);
+			} catch (InterruptedException ignored) {
+			}
+		});
+		putter.start();
+		assertEquals(next(events), "putBlocked");
+		queue.takeIfNotTerminated().run();
+		putter.join();
+
+		assertEquals(next(events), "taskEnqueued");
+		assertEquals(next(events), "end putBlocked");
+		assertNull(events.poll());
+	}
+
+	@Test
+	public void terminationIsTraced() throws Exception {
+		BoundedTaskQueue queue = new BoundedTaskQueue(0);
+		BlockingQueue<String> events = RecordingTaskTracer.record(queue);
+		queue.terminate();
+		queue.sink.offer(() -> 1, Callback.onSuccess(result -> {
+		}));
+
+		assertEquals(next(events), "callbackDispatch terminated");
+		assertEquals(next(events), "end callbackDispatch terminated");
+		assertNull(events.poll());
+	}
+
+}
@@ -0,0 +1,72 @@
+package org.shoushitsu.util.asyncservice;
+
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+public class WorkerContextTest {
+
+	@Test
+	public void everyWorkerHasItsOwnContext() throws Exception {
+		Threading threading = Threading.formatThreadNames(2, "worker-%d")
+				.withWorkerContext(index -> new StringBuilder("context-" + index));
+		Set<String> contexts = Collections.synchronizedSet(new HashSet<>());
+		CountDownLatch bothRunning = new CountDownLatch(2);
+		CountDownLatch bothRecorded = new CountDownLatch(2);
+		DummyAsynchronousService<UnboundedTaskQueue> service =
+				new DummyAsynchronousService<>(new UnboundedTaskQueue(), threading, 1000);
+		try {
+			for (int i = 0; i < 2; ++i) {
+				service.queue.sink.put(() -> {
+					bothRunning.countDown();
+					bothRunning.await(10, TimeUnit.SECONDS);
+					contexts.add(WorkerThread.currentContext(StringBuilder.class).toString());
+					bothRecorded.countDown();
+					return null;
+				}, null);
+			}
+			assertTrue(bothRecorded.await(10, TimeUnit.SECONDS));
+		} finally {
+			service.close();
+		}
+		assertEquals(contexts, new HashSet<>(Arrays.asList("context-0", "context-1")));
+	}
+
+	@Test
+	public void contextsAreClosedWhenTheWorkersExit() throws Exception {
+		CountDownLatch closed = new CountDownLatch(2);
+		Threading threading = Threading.defaultThreads(2).withWorkerContext(index -> (AutoCloseable) closed::countDown);
+		new DummyAsynchronousService<>(new UnboundedTaskQueue(), threading, 1000).close();
+		assertTrue(closed.await(10, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void failureToOpenIsReportedToTheComputations() throws Exception {
+		Threading threading = Threading.defaultThreads(1).withWorkerContext(index -> {
+			throw new IOException("no connection");
+		});
+		CompletableFuture<Throwable> failure = new CompletableFuture<>();
+		try (DummyAsynchronousService<UnboundedTaskQueue> service =
+				new DummyAsynchronousService<>(new UnboundedTaskQueue(), threading, 1000)) {
+			service.queue.sink.put(() -> WorkerThread.currentContext(Object.class), Callback.onFailure(failure::complete));
+			assertTrue(failure.get(10, TimeUnit.SECONDS) instanceof IllegalStateException);
+		}
+	}
+
+	@Test
+	public void otherThreadsHaveNoContext() {
+		assertNull(WorkerThread.currentContext(Object.class));
+	}
+
+}